@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>{@code DefaultVariableScope} looks a variable up in a context and then in each
+ * of its parents in turn and, if it is not found, optionally falls back to the
+ * System property of the same name.</p>
+ *
+ * <p>The parent chain is walked in a single loop, the System properties are only
+ * consulted once per lookup and, for maps which cannot hold null values, a miss
+ * costs a single map lookup per context. A parent context whose class overrides
+ * the lookup method is asked for the variable instead, so that the lookups of
+ * contexts such as the Ant context are still honoured.</p>
+ *
+ * <p>A scope may also be created which remembers the result of each
+ * {@link #getVariable(JellyContext, String) getVariable} lookup in the context it
+ * was made from, including the lookups of undefined variables, so that looking the
+ * same variable up again costs a couple of map lookups rather than a walk of the
+ * parent chain and a System property lookup. A remembered lookup is forgotten when
+ * a variable of that name is set or removed in any context using the scope, and
+ * all of them are forgotten when a context's variables are cleared. The changes
+ * are counted in a fixed number of counters shared by the names with the same
+ * hash, so the scope holds nothing for each name, and a change to one variable
+ * also forgets the remembered lookups of the other names sharing its counter.
+ * Changes made directly to the map returned by {@link JellyContext#getVariables()},
+ * or to the System properties, bypass this cache, so it should only be used by
+ * applications which change variables through the methods of {@link JellyContext}.
+ * Lookups answered by a parent context which overrides the lookup method are never
+ * remembered.</p>
+ */
+public class DefaultVariableScope implements VariableScope {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(DefaultVariableScope.class);
+
+    /** Whether a JellyContext class overrides getVariable(String) */
+    private static final ClassValue OVERRIDES_GET_VARIABLE = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            return Boolean.valueOf(overrides(type, "getVariable"));
+        }
+    };
+
+    /** Whether a JellyContext class overrides findVariable(String) */
+    private static final ClassValue OVERRIDES_FIND_VARIABLE = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            return Boolean.valueOf(overrides(type, "findVariable"));
+        }
+    };
+
+    /** The number of counters of the changes to variables, a power of two */
+    private static final int VERSION_STRIPES = 1024;
+
+    /** Returned by a lookup for the cache which was answered by a context overriding the lookup */
+    private static final Object UNCACHEABLE = new Object();
+
+    /** The shared scope which falls back to System properties */
+    private static final DefaultVariableScope INSTANCE = new DefaultVariableScope(true);
+
+    /**
+     * @return The shared scope which falls back to System properties, as Jelly
+     * has always done.
+     */
+    public static DefaultVariableScope getInstance() {
+        return INSTANCE;
+    }
+
+    /** Whether undefined variables are looked up as System properties */
+    private final boolean useSystemProperties;
+
+    /** Whether the lookups of variables are remembered */
+    private final boolean cacheLookups;
+
+    /**
+     * The number of times the variables of the names with each hash have been set or
+     * removed, which a remembered lookup must match. Only created if lookups are cached.
+     */
+    private final AtomicIntegerArray versions;
+
+    /** The number of times any context's variables have been cleared, which a remembered lookup must match */
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Creates a scope which falls back to System properties.
+     */
+    public DefaultVariableScope() {
+        this(true);
+    }
+
+    /**
+     * Creates a scope.
+     *
+     * @param useSystemProperties whether variables which are not defined in any context
+     *  are looked up as System properties.
+     */
+    public DefaultVariableScope(final boolean useSystemProperties) {
+        this(useSystemProperties, false);
+    }
+
+    /**
+     * Creates a scope.
+     *
+     * @param useSystemProperties whether variables which are not defined in any context
+     *  are looked up as System properties.
+     * @param cacheLookups whether the lookups of variables, and of undefined ones in
+     *  particular, are remembered until a variable of the same name is changed.
+     */
+    public DefaultVariableScope(final boolean useSystemProperties, final boolean cacheLookups) {
+        this.useSystemProperties = useSystemProperties;
+        this.cacheLookups = cacheLookups;
+        this.versions = cacheLookups ? new AtomicIntegerArray(VERSION_STRIPES) : null;
+    }
+
+    // VariableScope interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public Object findVariable(final JellyContext context, final String name) {
+        final Object answer = lookup(context, name, false, false);
+        if (log.isDebugEnabled()) {
+            log.debug("findVariable: " + name + " value: " + answer );
+        }
+        return answer;
+    }
+
+    @Override
+    public Object getVariable(final JellyContext context, final String name) {
+        if (!cacheLookups) {
+            return lookup(context, name, true, false);
+        }
+        final Map lookups = context.getVariableLookups();
+        final int currentGeneration = generation.get();
+        final int version = versions.get(getVersionIndex(name));
+        final Lookup remembered = (Lookup) lookups.get(name);
+        if (remembered != null && remembered.scope == this && remembered.generation == currentGeneration
+            && remembered.version == version) {
+            return remembered.value;
+        }
+        final Object answer = lookup(context, name, true, true);
+        if (answer == UNCACHEABLE) {
+            return lookup(context, name, true, false);
+        }
+        lookups.put(name, new Lookup(this, answer, currentGeneration, version));
+        return answer;
+    }
+
+    /**
+     * Forgets the remembered lookups of the given variable.
+     */
+    @Override
+    public void variableChanged(final JellyContext context, final String name) {
+        if (cacheLookups) {
+            versions.incrementAndGet(getVersionIndex(name));
+        }
+    }
+
+    /**
+     * Forgets all the remembered lookups.
+     */
+    @Override
+    public void variablesChanged(final JellyContext context) {
+        if (cacheLookups) {
+            generation.incrementAndGet();
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return whether the lookups of variables are remembered until a variable of
+     * the same name is changed.
+     */
+    public boolean isCacheLookups() {
+        return cacheLookups;
+    }
+
+    /**
+     * @return whether variables which are not defined in any context are
+     * looked up as System properties.
+     */
+    public boolean isUseSystemProperties() {
+        return useSystemProperties;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Gets a system property and handle security exceptions
+     * @param name The name of the property to retrieve
+     * @return The value of the property, or null if a SecurityException occurs
+     */
+    protected Object getSystemProperty(final String name) {
+        try {
+            return System.getProperty(name);
+        }
+        catch (final SecurityException e) {
+            log.debug("security exception accessing system properties", e);
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the given context class overrides the given lookup method
+     */
+    private static boolean overrides(final Class type, final String methodName) {
+        try {
+            return type.getMethod(methodName, new Class[] { String.class }).getDeclaringClass() != JellyContext.class;
+        }
+        catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The index of the counter of the changes to the given variable
+     */
+    private static int getVersionIndex(final String name) {
+        final int hash = name.hashCode();
+        return (hash ^ hash >>> 16) & VERSION_STRIPES - 1;
+    }
+
+    /**
+     * @return whether the given map may contain the key even though it maps to null
+     */
+    private boolean isNullable(final Map map) {
+        return !(map instanceof Hashtable || map instanceof ConcurrentMap);
+    }
+
+    /**
+     * Walks up the context chain looking for the variable.
+     *
+     * @param honourInherit whether to stop at a context which does not inherit variables
+     * @param forCache whether to return UNCACHEABLE rather than ask a context which overrides the lookup
+     */
+    private Object lookup(final JellyContext context, final String name, final boolean honourInherit,
+        final boolean forCache) {
+        JellyContext current = context;
+        while (current != null) {
+            if (current != context && current.getClass() != JellyContext.class) {
+                final ClassValue overrides = honourInherit ? OVERRIDES_GET_VARIABLE : OVERRIDES_FIND_VARIABLE;
+                if (((Boolean) overrides.get(current.getClass())).booleanValue()) {
+                    if (forCache) {
+                        return UNCACHEABLE;
+                    }
+                    return honourInherit ? current.getVariable(name) : current.findVariable(name);
+                }
+            }
+            final Map variables = current.getLocalVariables();
+            final Object value = variables.get(name);
+            if (value != null) {
+                return value;
+            }
+            if (isNullable(variables) && variables.containsKey(name)) {
+                // a variable explicitly defined as null in this context hides any parent one
+                if (current == context) {
+                    return null;
+                }
+                break;
+            }
+            if (honourInherit && !current.isInherit()) {
+                break;
+            }
+            current = current.getParent();
+        }
+        if (useSystemProperties) {
+            return getSystemProperty(name);
+        }
+        return null;
+    }
+
+    /**
+     * The value of a variable looked up from a context
+     */
+    private static final class Lookup {
+
+        /** The scope which looked the variable up */
+        private final DefaultVariableScope scope;
+
+        private final Object value;
+
+        private final int generation;
+
+        private final int version;
+
+        Lookup(final DefaultVariableScope scope, final Object value, final int generation, final int version) {
+            this.scope = scope;
+            this.value = value;
+            this.generation = generation;
+            this.version = version;
+        }
+    }
+}
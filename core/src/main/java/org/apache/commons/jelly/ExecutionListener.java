@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly;
+
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * <p>{@code ExecutionListener} is told when scripts are compiled and run, when
+ * each tag of a running script starts and ends and when expressions are
+ * evaluated, for example to trace or profile scripts. A listener is set on a
+ * {@link JellyContext} and is used by the contexts created from it afterwards;
+ * when no listener is set scripts run without any of these calls.</p>
+ *
+ * <p>Every tag and expression run then costs two calls to the listener, so a
+ * listener which only needs whole scripts should be a {@link ScriptListener}
+ * instead.</p>
+ *
+ * <p>Implementations must be thread safe as one listener may be used by several
+ * threads running scripts at once. Each thread's calls are properly nested:
+ * every call to enter a script, tag or expression is followed by the matching
+ * exit call on the same thread, even if the tag or expression fails.</p>
+ *
+ * @see org.apache.commons.jelly.util.ExecutionProfiler
+ */
+public interface ExecutionListener extends ScriptListener {
+
+    /**
+     * Called before the given expression is evaluated.
+     *
+     * @param expression The expression to evaluate
+     * @param location The tag whose attribute the expression is, or null if
+     * it is evaluated as text
+     */
+    void enterExpression(Expression expression, LocationAware location);
+
+    /**
+     * Called before a tag is run, so before its attributes are evaluated.
+     *
+     * @param location The script of the tag, giving its file, line and element name
+     * @param context The context the tag runs in
+     */
+    void enterTag(LocationAware location, JellyContext context);
+
+    /**
+     * Called when the given expression has been evaluated or has failed.
+     *
+     * @param expression The expression evaluated
+     * @param location The tag whose attribute the expression is, or null if
+     * it is evaluated as text
+     */
+    void exitExpression(Expression expression, LocationAware location);
+
+    /**
+     * Called when a tag, including its body, has run or has failed.
+     *
+     * @param location The script of the tag, giving its file, line and element name
+     * @param context The context the tag ran in
+     */
+    void exitTag(LocationAware location, JellyContext context);
+}
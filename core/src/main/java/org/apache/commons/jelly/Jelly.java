@@ -26,6 +26,7 @@ import java.net.URL;
 import java.util.Enumeration;
 import java.util.Properties;
 
+import org.apache.commons.jelly.impl.PrecompiledScriptStore;
 import org.apache.commons.jelly.parser.XMLParser;
 import org.apache.commons.jelly.util.ClassLoaderUtils;
 import org.apache.commons.jelly.util.CommandLineParser;
@@ -40,7 +41,7 @@ import org.xml.sax.SAXException;
  * or can be used as the basis of an Ant task.</p> Command line usage is as follows:
  *
  * <pre>
- * jelly [scriptFile] [-script scriptFile -o outputFile -Dsysprop=syspropval]
+ * jelly [scriptFile] [-script scriptFile -o outputFile -precompiled directory -Dsysprop=syspropval]
  * </pre>
  */
 public class Jelly {
@@ -57,13 +58,13 @@ public class Jelly {
     }
 
     /**
-     * Usage: jelly [scriptFile] [-script scriptFile -o outputFile -Dsysprop=syspropval]
+     * Usage: jelly [scriptFile] [-script scriptFile -o outputFile -precompiled directory -Dsysprop=syspropval]
      */
     public static void main(final String[] args) throws Exception {
 
         try {
             if (args.length <= 0) {
-                System.out.println("Usage: jelly [scriptFile] [-script scriptFile -o outputFile -Dsysprop=syspropval]");
+                System.out.println("Usage: jelly [scriptFile] [-script scriptFile -o outputFile -precompiled directory -Dsysprop=syspropval]");
                 return;
             }
 
@@ -151,7 +152,8 @@ public class Jelly {
         try {
             parser.setDefaultNamespaceURI(this.defaultNamespaceURI);
             parser.setValidating(this.validateXML);
-            script = parser.parse(getUrl());
+            final PrecompiledScriptStore store = parser.getContext().getPrecompiledScriptStore();
+            script = store != null ? store.parse(parser, getUrl()) : parser.parse(getUrl());
             script = script.compile();
             if (log.isDebugEnabled()) {
                 log.debug("Compiled script: " + getUrl());
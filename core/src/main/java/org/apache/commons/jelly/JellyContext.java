@@ -21,12 +21,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.jelly.impl.DefaultTagLibraryResolver;
+import org.apache.commons.jelly.impl.PrecompiledScriptStore;
+import org.apache.commons.jelly.impl.ScriptCache;
+import org.apache.commons.jelly.impl.TagLibraryResolver;
 import org.apache.commons.jelly.parser.XMLParser;
 import org.apache.commons.jelly.util.ClassLoaderUtils;
+import org.apache.commons.jelly.util.CompositeExecutionListener;
+import org.apache.commons.jelly.util.CompositeScriptListener;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xml.sax.InputSource;
@@ -46,12 +53,21 @@ public class JellyContext {
     /** Default for export of variables **/
     private static final boolean DEFAULT_EXPORT = false;
 
+    /** Default for whether the maps of a context may be used by many threads at once **/
+    private static final boolean DEFAULT_CONCURRENT = true;
+
     /** Default for DTD calling out to external entities. */
     private static final boolean DEFAULT_ALLOW_DTD_CALLS_TO_EXTERNAL_ENTITIES = false;
 
     /** String used to denote a script can't be parsed */
     private static final String BAD_PARSE = "Could not parse Jelly script";
 
+    /** Replaces a tag library class name which could not be instantiated, so it is only tried once */
+    private static final Object UNAVAILABLE_TAGLIB = new Object();
+
+    /** Resolves tag libraries for the contexts whose class loader is the one it uses */
+    private static final DefaultTagLibraryResolver SHARED_TAGLIB_RESOLVER = new DefaultTagLibraryResolver();
+
     /**
      * The class loader to use for instantiating application objects.
      * If not specified, the context class loader, or the class loader
@@ -72,11 +88,23 @@ public class JellyContext {
     /** The current URL context (where relative scripts are located from) */
     private URL currentURL;
 
+    /** Can our variables and tag libraries be used by many threads at once? */
+    private boolean concurrent = JellyContext.DEFAULT_CONCURRENT;
+
     /** Tag libraries found so far */
-    private final Map taglibs = new Hashtable();
+    private Map taglibs = new ConcurrentHashMap();
+
+    /** Finds the tag libraries of URIs which are not registered, or null to use a default resolver */
+    private TagLibraryResolver tagLibraryResolver;
+
+    /** The default resolver for the class loader of this context, when it is not the shared one */
+    private DefaultTagLibraryResolver classLoaderTagLibraryResolver;
+
+    /** The variables in scope */
+    private Map variables = new ConcurrentHashMap();
 
-    /** Synchronized access to the variables in scope */
-    private Map variables = new Hashtable();
+    /** The lookups of variables from this context remembered by the variable scope */
+    private volatile Map variableLookups;
 
     /** The parent context */
     private JellyContext parent;
@@ -96,6 +124,24 @@ public class JellyContext {
     /** Should we cache Tag instances, per thread, to reduce object construction overhead? */
     private boolean cacheTags = false;
 
+    /** The cache of compiled scripts, shared with our child contexts, or null if scripts are not cached */
+    private ScriptCache scriptCache;
+
+    /** The store of precompiled scripts, shared with our child contexts, or null if scripts are always parsed */
+    private PrecompiledScriptStore precompiledScriptStore;
+
+    /** The strategy used to look up variables, shared with our child contexts */
+    private VariableScope variableScope = DefaultVariableScope.getInstance();
+
+    /** Told of the tags and expressions run, shared with our child contexts, or null */
+    private ExecutionListener executionListener;
+
+    /** Told of the whole scripts compiled and run, shared with our child contexts, or null */
+    private ScriptListener scriptListener;
+
+    /** Both our listeners, told of the whole scripts compiled and run, or null */
+    private ScriptListener scriptEvents;
+
     /**
      * True if exceptions should be suppressed; introduced in 1.1 beta and immediately deprecated
      * because future versions will _never_ suppress exceptions (required here for backwards
@@ -124,8 +170,16 @@ public class JellyContext {
         this.parent = parent;
         this.rootURL = parent.rootURL;
         this.currentURL = parent.currentURL;
+        setConcurrent(parent.concurrent);
         this.variables.put("parentScope", parent.variables);
         this.cacheTags = parent.cacheTags;
+        this.scriptCache = parent.scriptCache;
+        this.precompiledScriptStore = parent.precompiledScriptStore;
+        this.tagLibraryResolver = parent.tagLibraryResolver;
+        this.variableScope = parent.variableScope;
+        this.executionListener = parent.executionListener;
+        this.scriptListener = parent.scriptListener;
+        this.scriptEvents = parent.scriptEvents;
         this.suppressExpressionExceptions = parent.suppressExpressionExceptions;
         init();
     }
@@ -175,6 +229,31 @@ public class JellyContext {
         init();
     }
 
+    /**
+     * Adds a listener told of the tags and expressions run in this context and in
+     * any child contexts created afterwards. It is called after the execution
+     * listener already set, if there is one, rather than replacing it.
+     *
+     * @param listener The listener to add
+     * @see CompositeExecutionListener
+     */
+    public void addExecutionListener(final ExecutionListener listener) {
+        setExecutionListener(executionListener != null
+            ? new CompositeExecutionListener(executionListener, listener) : listener);
+    }
+
+    /**
+     * Adds a listener told of the whole scripts compiled and run in this context
+     * and in any child contexts created afterwards. It is called after the script
+     * listener already set, if there is one, rather than replacing it.
+     *
+     * @param listener The listener to add
+     * @see CompositeScriptListener
+     */
+    public void addScriptListener(final ScriptListener listener) {
+        setScriptListener(scriptListener != null ? new CompositeScriptListener(scriptListener, listener) : listener);
+    }
+
     /** Clears variables set by Tags.
      * @see #clearVariables()
       */
@@ -187,13 +266,26 @@ public class JellyContext {
      */
     protected void clearVariables() {
         variables.clear();
+        variableScope.variablesChanged(this);
     }
 
     /**
      * Attempts to parse the script from the given InputSource using the
      * {@link #getResource} method then returns the compiled script.
+     * If a {@link ScriptCache} or {@link PrecompiledScriptStore} is set and the
+     * source only has a system ID then it is used for that URL.
      */
     public Script compileScript(final InputSource source) throws JellyException {
+        if ((scriptCache != null || precompiledScriptStore != null) && source.getSystemId() != null
+            && source.getByteStream() == null && source.getCharacterStream() == null) {
+            try {
+                return compileScript(new URL(source.getSystemId()));
+            } catch (final MalformedURLException e) {
+                // not a URL so lets parse it without caching
+            }
+        }
+        final ScriptListener listener = scriptEvents;
+        final long start = listener != null ? System.nanoTime() : 0;
         final XMLParser parser = getXMLParser();
         parser.setContext(this);
 
@@ -204,14 +296,33 @@ public class JellyContext {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         }
 
-        return script.compile();
+        script = script.compile();
+        if (listener != null) {
+            listener.compiledScript(source.getSystemId(), System.nanoTime() - start);
+        }
+        return script;
     }
 
     /**
      * Attempts to parse the script from the given uri using the
      * {@link #getResource} method then returns the compiled script.
+     * If a {@link ScriptCache} or {@link PrecompiledScriptStore} is set then it is
+     * used for the resolved URL.
      */
     public Script compileScript(final String uri) throws JellyException {
+        if (scriptCache != null || precompiledScriptStore != null) {
+            URL url = null;
+            try {
+                url = getResource(uri);
+            } catch (final MalformedURLException e) {
+                // handled below in the same way as an uncached script
+            }
+            if (url != null) {
+                return compileScript(url);
+            }
+        }
+        final ScriptListener listener = scriptEvents;
+        final long start = listener != null ? System.nanoTime() : 0;
         final XMLParser parser = getXMLParser();
         parser.setContext(this);
         final InputStream in = getResourceAsStream(uri);
@@ -225,25 +336,52 @@ public class JellyContext {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         }
 
-        return script.compile();
+        script = script.compile();
+        if (listener != null) {
+            listener.compiledScript(uri, System.nanoTime() - start);
+        }
+        return script;
     }
 
     /**
      * Attempts to parse the script from the given URL using the
      * {@link #getResource} method then returns the compiled script.
+     * If a {@link ScriptCache} is set then the cached script for the URL is reused.
+     * Otherwise if a {@link PrecompiledScriptStore} is set then the script is
+     * created from its precompiled form when that is up to date.
      */
     public Script compileScript(final URL url) throws JellyException {
+        final ScriptCache cache = scriptCache;
+        if (cache != null) {
+            final Script script = cache.getScript(url);
+            if (script != null) {
+                return script;
+            }
+        }
+
+        // read the version before parsing, so that a change made while parsing is seen later
+        final Object version = cache != null ? cache.getVersionToken(url) : null;
+        final ScriptListener listener = scriptEvents;
+        final long start = listener != null ? System.nanoTime() : 0;
         final XMLParser parser = getXMLParser();
         parser.setContext(this);
 
+        final PrecompiledScriptStore store = precompiledScriptStore;
         Script script = null;
         try {
-            script = parser.parse(url.toString());
+            script = store != null ? store.parse(parser, url) : parser.parse(url.toString());
         } catch (final IOException | SAXException e) {
             throw new JellyException(JellyContext.BAD_PARSE, e);
         }
 
-        return script.compile();
+        script = script.compile();
+        if (listener != null) {
+            listener.compiledScript(url.toString(), System.nanoTime() - start);
+        }
+        if (cache != null) {
+            cache.putScript(url, script, version);
+        }
+        return script;
     }
 
     /**
@@ -292,25 +430,7 @@ public class JellyContext {
      *  if the variable could not be found.
      */
     public Object findVariable(final String name) {
-        Object answer = variables.get(name);
-        final boolean definedHere = answer != null || variables.containsKey(name);
-
-        if (definedHere) {
-            return answer;
-        }
-
-        if ( answer == null && parent != null ) {
-            answer = parent.findVariable(name);
-        }
-        // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( answer == null ) {
-            answer = getSystemProperty(name);
-        }
-
-        if (log.isDebugEnabled()) {
-            log.debug("findVariable: " + name + " value: " + answer );
-        }
-        return answer;
+        return variableScope.findVariable(this, name);
     }
 
     /**
@@ -336,6 +456,14 @@ public class JellyContext {
         return currentURL;
     }
 
+    /**
+     * @return The listener told of the tags and expressions run in this context
+     * or null if there is none
+     */
+    public ExecutionListener getExecutionListener() {
+        return executionListener;
+    }
+
     /**
      * Strips off the name of a script to create a new context URL
      */
@@ -367,6 +495,14 @@ public class JellyContext {
         return parent;
     }
 
+    /**
+     * @return The store of precompiled scripts used by this context or null if
+     * scripts are always parsed from their XML
+     */
+    public PrecompiledScriptStore getPrecompiledScriptStore() {
+        return precompiledScriptStore;
+    }
+
     /**
      * Returns a URL for the given resource from the specified path.
      * If the uri starts with "/" then the path is taken as relative to
@@ -441,68 +577,45 @@ public class JellyContext {
     }
 
     /**
-     * Gets a system property and handle security exceptions
-     * @param name The name of the property to retrieve
-     * @return The value of the property, or null if a SecurityException occurs
+     * @return The TagLibrary for the given namespace URI or null if one could not be found.
+     * A URI which is not registered with this context or its parents is resolved by the
+     * {@link #getTagLibraryResolver() resolver}, and the library found is registered
+     * with this context.
      */
-    private Object getSystemProperty(final String name) {
-        try {
-            return System.getProperty(name);
-        }
-        catch (final SecurityException e) {
-            log.debug("security exception accessing system properties", e);
+    public TagLibrary getTagLibrary(final String namespaceURI) {
+        Object answer = findTagLibrary(namespaceURI);
+        if ( answer == null && !namespaceURI.isEmpty() ) {
+            final TagLibrary taglib = getTagLibraryResolver().resolveTagLibrary(namespaceURI);
+            if ( taglib != null ) {
+                answer = taglibs.putIfAbsent(namespaceURI, taglib);
+                if ( answer == null ) {
+                    return taglib;
+                }
+            }
         }
-        return null;
+        return answer instanceof TagLibrary ? (TagLibrary) answer : null;
     }
 
     /**
-     * @return The TagLibrary for the given namespace URI or null if one could not be found
+     * @return The resolver of the tag libraries of URIs which are not registered.
+     * Unless one has been set, a resolver which loads classes with the class loader
+     * of this context is used, and contexts with the same class loader share it.
      */
-    public TagLibrary getTagLibrary(final String namespaceURI) {
-
-        // use my own mapping first, so that namespaceURIs can
-        // be redefined inside child contexts...
-
-        Object answer = taglibs.get(namespaceURI);
-
-        if ( answer == null && parent != null ) {
-            answer = parent.getTagLibrary( namespaceURI );
+    public TagLibraryResolver getTagLibraryResolver() {
+        if (tagLibraryResolver != null) {
+            return tagLibraryResolver;
         }
-
-        if ( answer instanceof TagLibrary ) {
-            return (TagLibrary) answer;
+        final ClassLoader loader = getClassLoader();
+        if (loader == SHARED_TAGLIB_RESOLVER.getClassLoader()) {
+            return SHARED_TAGLIB_RESOLVER;
         }
-        if ( answer instanceof String ) {
-            final String className = (String) answer;
-            Class theClass = null;
-            try {
-                theClass = getClassLoader().loadClass(className);
-            }
-            catch (final ClassNotFoundException e) {
-                log.error("Could not find the class: " + className, e);
-            }
-            if ( theClass != null ) {
-                try {
-                    final Object object = theClass.getConstructor().newInstance();
-                    if (object instanceof TagLibrary) {
-                        taglibs.put(namespaceURI, object);
-                        return (TagLibrary) object;
-                    }
-                    log.error(
-                        "The tag library object mapped to: "
-                            + namespaceURI
-                            + " is not a TagLibrary. Object = "
-                            + object);
-                }
-                catch (final Exception e) {
-                    log.error(
-                        "Could not instantiate instance of class: " + className + ". Reason: " + e,
-                        e);
-                }
-            }
+        DefaultTagLibraryResolver answer = classLoaderTagLibraryResolver;
+        if (answer == null || answer.getClassLoader() != loader) {
+            answer = new DefaultTagLibraryResolver();
+            answer.setClassLoader(loader);
+            classLoaderTagLibraryResolver = answer;
         }
-
-        return null;
+        return answer;
     }
 
     /**
@@ -514,26 +627,7 @@ public class JellyContext {
 
     /** @return The value of the given variable name */
     public Object getVariable(final String name) {
-        Object value = variables.get(name);
-        final boolean definedHere = value != null || variables.containsKey(name);
-
-        if (definedHere) {
-            return value;
-        }
-
-        if ( value == null && isInherit() ) {
-            final JellyContext parentContext = getParent();
-            if (parentContext != null) {
-                value = parentContext.getVariable( name );
-            }
-        }
-
-        // ### this is a hack - remove this when we have support for pluggable Scopes
-        if ( value == null ) {
-            value = getSystemProperty(name);
-        }
-
-        return value;
+        return variableScope.getVariable(this, name);
     }
 
     /**
@@ -550,6 +644,13 @@ public class JellyContext {
         return null;
     }
 
+    /**
+     * @return The strategy used to look up variables in this context and its parents
+     */
+    public VariableScope getVariableScope() {
+        return variableScope;
+    }
+
     /**
      * @return An Iterator over the current variable names in this
      * context
@@ -558,6 +659,27 @@ public class JellyContext {
         return variables.keySet().iterator();
     }
 
+    /**
+     * @return The Map of variables defined in this context, which subclasses
+     * cannot override, for use by the {@link DefaultVariableScope}
+     */
+    Map getLocalVariables() {
+        return variables;
+    }
+
+    /**
+     * @return The map in which the {@link DefaultVariableScope} remembers the
+     * lookups of variables from this context
+     */
+    Map getVariableLookups() {
+        Map answer = variableLookups;
+        if (answer == null) {
+            answer = new ConcurrentHashMap();
+            variableLookups = answer;
+        }
+        return answer;
+    }
+
     /**
      * @return The Map of variables in this scope
      */
@@ -566,14 +688,98 @@ public class JellyContext {
     }
 
     /**
-     * @return A thread pooled XMLParser to avoid the startup overhead
-     * of the XMLParser
+     * @return A new XMLParser, which borrows its SAXParser from the shared
+     * {@link org.apache.commons.jelly.parser.SAXParserPool} to avoid the
+     * startup overhead of creating one
      */
     protected XMLParser getXMLParser() {
         final XMLParser parser = createXMLParser();
         return parser;
     }
 
+    /**
+     * @return The cache of compiled scripts used by this context or null if
+     * scripts are parsed every time they are compiled
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * @return The listener told of the whole scripts compiled and run in this
+     * context or null if there is none
+     */
+    public ScriptListener getScriptListener() {
+        return scriptListener;
+    }
+
+    /**
+     * @return A copy of the given map of the kind used by this context,
+     * skipping any null keys or values which a concurrent map cannot hold
+     */
+    private Map copyMap(final Map map) {
+        final Map answer = concurrent ? new ConcurrentHashMap(map.size()) : new HashMap(map.size());
+        for (final Iterator iter = map.entrySet().iterator(); iter.hasNext();) {
+            final Map.Entry entry = (Map.Entry) iter.next();
+            if (entry.getKey() != null && entry.getValue() != null) {
+                answer.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * @return The tag library registered for the given URI with this context or its
+     * parents, instantiating a registered class name, UNAVAILABLE_TAGLIB if the class
+     * could not be instantiated or null if the URI is not registered
+     */
+    private Object findTagLibrary(final String namespaceURI) {
+
+        // use my own mapping first, so that namespaceURIs can
+        // be redefined inside child contexts...
+
+        final Object answer = taglibs.get(namespaceURI);
+
+        if ( answer == null && parent != null ) {
+            return parent.findTagLibrary( namespaceURI );
+        }
+
+        if ( answer instanceof String ) {
+            final String className = (String) answer;
+            Class theClass = null;
+            try {
+                theClass = getClassLoader().loadClass(className);
+            }
+            catch (final ClassNotFoundException e) {
+                log.error("Could not find the class: " + className, e);
+            }
+            if ( theClass != null ) {
+                try {
+                    final Object object = theClass.getConstructor().newInstance();
+                    if (object instanceof TagLibrary) {
+                        taglibs.put(namespaceURI, object);
+                        return object;
+                    }
+                    log.error(
+                        "The tag library object mapped to: "
+                            + namespaceURI
+                            + " is not a TagLibrary. Object = "
+                            + object);
+                }
+                catch (final Exception e) {
+                    log.error(
+                        "Could not instantiate instance of class: " + className + ". Reason: " + e,
+                        e);
+                }
+            }
+            // don't try again for every element in the namespace, unless it is registered again
+            taglibs.replace(namespaceURI, className, UNAVAILABLE_TAGLIB);
+            return UNAVAILABLE_TAGLIB;
+        }
+
+        return answer;
+    }
+
     /**
      * Initialize the context.
      * This includes adding the context to itself under the name {@code context} and
@@ -622,6 +828,14 @@ public class JellyContext {
         return exportLibraries;
     }
 
+    /**
+     * @return whether the variables and tag libraries of this context may be
+     * used by many threads at once
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
     /**
      * @return whether we should inherit variables from our parent context
      */
@@ -710,6 +924,7 @@ public class JellyContext {
     /** Removes the given variable */
     public void removeVariable(final String name) {
         variables.remove(name);
+        variableScope.variableChanged(this, name);
     }
 
     /**
@@ -797,7 +1012,17 @@ public class JellyContext {
             log.debug( "current context URL: " + newJellyContext.currentURL );
         }
 
-        script.run(newJellyContext, output);
+        final ScriptListener listener = newJellyContext.scriptEvents;
+        if (listener == null) {
+            script.run(newJellyContext, output);
+        } else {
+            listener.enterScript(source.getSystemId(), newJellyContext);
+            try {
+                script.run(newJellyContext, output);
+            } finally {
+                listener.exitScript(source.getSystemId(), newJellyContext);
+            }
+        }
 
         return newJellyContext;
     }
@@ -904,6 +1129,18 @@ public class JellyContext {
         this.currentURL = currentURL;
     }
 
+    /**
+     * Sets the listener told of the tags and expressions run in this context and
+     * in any child contexts created afterwards, such as those used by tags to run
+     * their bodies.
+     *
+     * @param executionListener The listener to use or null to run scripts without one.
+     */
+    public void setExecutionListener(final ExecutionListener executionListener) {
+        this.executionListener = executionListener;
+        updateScriptEvents();
+    }
+
     /**
      * Sets whether we should export variable definitions to our parent context
      */
@@ -924,6 +1161,7 @@ public class JellyContext {
      */
     public void setInherit(final boolean inherit) {
         this.inherit = inherit;
+        variableScope.variablesChanged(this);
     }
 
     /**
@@ -934,6 +1172,7 @@ public class JellyContext {
     {
         parent = context;
         this.variables.put("parentScope", parent.variables);
+        variableScope.variablesChanged(this);
         // need to re-export tag libraries to the new parent
         if (isExportLibraries() && parent != null) {
             for (final Iterator keys = taglibs.keySet().iterator(); keys.hasNext();)
@@ -944,7 +1183,7 @@ public class JellyContext {
                 {
                     parent.registerTagLibrary( namespaceURI, (TagLibrary) tagLibOrClassName );
                 }
-                else
+                else if (tagLibOrClassName instanceof String)
                 {
                     parent.registerTagLibrary( namespaceURI, (String) tagLibOrClassName );
                 }
@@ -953,6 +1192,18 @@ public class JellyContext {
 
     }
 
+    /**
+     * Sets the store of precompiled scripts used by this context and any child
+     * contexts created afterwards, so that scripts compiled from a URL need not be
+     * parsed from their XML when a new JVM starts, though they are still built
+     * and compiled. When a {@link ScriptCache} is set as well it is consulted first.
+     *
+     * @param precompiledScriptStore The store to use or null to always parse scripts.
+     */
+    public void setPrecompiledScriptStore(final PrecompiledScriptStore precompiledScriptStore) {
+        this.precompiledScriptStore = precompiledScriptStore;
+    }
+
     /**
      * Sets the current root context URL from which all absolute resource URIs
      *  will be relative to. For example in a web application the root URL will
@@ -962,6 +1213,30 @@ public class JellyContext {
         this.rootURL = rootURL;
     }
 
+    /**
+     * Sets the cache of compiled scripts used by this context and any child
+     * contexts created afterwards, such as those used to run included scripts.
+     * A single cache may be shared by many contexts and threads.
+     *
+     * @param scriptCache The cache to use or null to disable caching.
+     */
+    public void setScriptCache(final ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Sets the listener told of the whole scripts compiled and run in this context
+     * and in any child contexts created afterwards. It is told of them as well as
+     * the execution listener is, but is not told of each tag and expression, so it
+     * adds nothing to their cost.
+     *
+     * @param scriptListener The listener to use or null to run scripts without one.
+     */
+    public void setScriptListener(final ScriptListener scriptListener) {
+        this.scriptListener = scriptListener;
+        updateScriptEvents();
+    }
+
     /**
 	 * @param suppressExpressionExceptions The suppressExpressionExceptions to set
 	 * @deprecated after v1.1, exceptions will never be suppressed
@@ -971,6 +1246,38 @@ public class JellyContext {
 		this.suppressExpressionExceptions = suppressExpressionExceptions;
 	}
 
+    /**
+     * Sets whether the variables and tag libraries of this context, and of any
+     * child contexts created afterwards, may be used by many threads at once.
+     * Concurrent contexts, the default, use lock free concurrent maps. A context
+     * which is confined to a single thread, along with all its parents and
+     * children, may use plain unsynchronized maps instead.
+     * <p>
+     * This should be called before the context is used. The current variables
+     * and tag libraries are copied into new maps, so a Map previously returned
+     * by {@link #getVariables()} or shared with a child context is no longer used.
+     *
+     * @param concurrent whether this context may be shared between threads
+     */
+    public void setConcurrent(final boolean concurrent) {
+        if (this.concurrent != concurrent) {
+            this.concurrent = concurrent;
+            this.taglibs = copyMap(taglibs);
+            this.variables = copyMap(variables);
+            variableScope.variablesChanged(this);
+        }
+    }
+
+    /**
+     * Sets the resolver of the tag libraries of URIs which are not registered,
+     * which child contexts created afterwards use as well.
+     *
+     * @param tagLibraryResolver The resolver, or {@code null} to use the default one
+     */
+    public void setTagLibraryResolver(final TagLibraryResolver tagLibraryResolver) {
+        this.tagLibraryResolver = tagLibraryResolver;
+    }
+
     /**
      * Determine whether to use the Context ClassLoader (the one found by
      * calling {@code Thread.currentThread().getContextClassLoader()})
@@ -996,6 +1303,7 @@ public class JellyContext {
         else {
             variables.put(name, value);
         }
+        variableScope.variableChanged(this, name);
     }
 
 	/**
@@ -1012,6 +1320,20 @@ public class JellyContext {
         }
     }
 
+    /**
+     * Sets the strategy used to look up variables in this context and any child
+     * contexts created afterwards. For example a {@link DefaultVariableScope} which
+     * does not fall back to System properties for undefined variables.
+     *
+     * @param variableScope The strategy to use, which must not be null.
+     */
+    public void setVariableScope(final VariableScope variableScope) {
+        if (variableScope == null) {
+            throw new IllegalArgumentException("variableScope must not be null");
+        }
+        this.variableScope = variableScope;
+    }
+
 	/**
      * Sets the Map of variables to use
      */
@@ -1022,9 +1344,23 @@ public class JellyContext {
             final Map.Entry element = (Map.Entry) iter.next();
             if (element.getValue() != null) {
                 this.variables.put(element.getKey(), element.getValue());
+                variableScope.variableChanged(this, String.valueOf(element.getKey()));
             }
         }
         //this.variables.putAll( variables );
     }
 
+    /**
+     * Combines the script listener and the execution listener into the one
+     * told of whole scripts.
+     */
+    private void updateScriptEvents() {
+        if (scriptListener == null) {
+            scriptEvents = executionListener;
+        } else if (executionListener == null) {
+            scriptEvents = scriptListener;
+        } else {
+            scriptEvents = new CompositeScriptListener(scriptListener, executionListener);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly;
+
+/**
+ * <p>{@code ScriptListener} is told when whole scripts are compiled and run, for
+ * example to count them or to time them. A listener is added to a {@link JellyContext}
+ * and is used by the contexts created from it afterwards. Unlike an
+ * {@link ExecutionListener} it is not told of each tag and expression, so the
+ * tags of a script run at the same cost as they do without a listener.</p>
+ *
+ * <p>Implementations must be thread safe as one listener may be used by several
+ * threads running scripts at once. Each thread's calls are properly nested:
+ * every call to enter a script is followed by the matching exit call on the same
+ * thread, even if the script fails.</p>
+ *
+ * @see JellyContext#addScriptListener(ScriptListener)
+ */
+public interface ScriptListener {
+
+    /**
+     * Called when a script has been parsed and compiled by
+     * {@link JellyContext#compileScript(java.net.URL)} or one of the other
+     * {@code compileScript} methods, but not when a cached script is reused.
+     *
+     * @param systemId The URL or URI of the script, or null if it is not known
+     * @param nanos The time taken to parse and compile the script, in nanoseconds
+     */
+    void compiledScript(String systemId, long nanos);
+
+    /**
+     * Called before a script is run by {@link JellyContext#runScript(org.xml.sax.InputSource, XMLOutput)}
+     * or one of the other {@code runScript} methods, which includes scripts run
+     * by the {@code <j:include>} tag.
+     *
+     * @param systemId The URL or URI of the script, or null if it is not known
+     * @param context The new context the script runs in
+     */
+    void enterScript(String systemId, JellyContext context);
+
+    /**
+     * Called when a script run by one of the {@code runScript} methods has
+     * completed or has failed.
+     *
+     * @param systemId The URL or URI of the script, or null if it is not known
+     * @param context The context the script ran in
+     */
+    void exitScript(String systemId, JellyContext context);
+}
@@ -27,6 +27,7 @@ import org.apache.commons.jelly.expression.CompositeExpression;
 import org.apache.commons.jelly.expression.ConstantExpression;
 import org.apache.commons.jelly.expression.Expression;
 import org.apache.commons.jelly.expression.ExpressionFactory;
+import org.apache.commons.jelly.impl.DefaultTagFactory;
 import org.apache.commons.jelly.impl.TagFactory;
 import org.apache.commons.jelly.impl.TagScript;
 import org.xml.sax.Attributes;
@@ -101,12 +102,7 @@ public abstract class TagLibrary {
 
         final Object value = tags.get(name);
         if (value instanceof Class) {
-            final Class type = (Class) value;
-            try {
-                return (Tag) type.getConstructor().newInstance();
-            } catch (final ReflectiveOperationException e) {
-                throw new JellyException(e.toString());
-            }
+            return DefaultTagFactory.newTag((Class) value);
         }
         if (value instanceof TagFactory) {
             final TagFactory factory = (TagFactory) value;
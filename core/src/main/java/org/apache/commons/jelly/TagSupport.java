@@ -16,11 +16,13 @@
  */
 package org.apache.commons.jelly;
 
+import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.apache.commons.jelly.util.StreamingXMLWriter;
 import org.apache.commons.jelly.util.TagUtils;
 
 /** <p>{@code TagSupport} an abstract base class which is useful to
@@ -29,6 +31,23 @@ import org.apache.commons.jelly.util.TagUtils;
 
 public abstract class TagSupport implements Tag {
 
+    /**
+     * The Writer and XML writer the body text of a tag is written to, which
+     * are kept by each thread between uses.
+     */
+    private static final class BodyTextBuffer {
+
+        private final StringWriter writer = new StringWriter();
+
+        private final StreamingXMLWriter xmlWriter = new StreamingXMLWriter(writer);
+    }
+
+    /** The body text buffer of each thread when it is not in use */
+    private static final ThreadLocal bodyTextBuffers = new ThreadLocal();
+
+    /** Body text buffers which have grown beyond this many characters are not kept */
+    private static final int MAX_KEPT_BODY_TEXT = 64 * 1024;
+
     /**
      * Searches up the parent hierarchy from the given tag
      * for a Tag of the given type
@@ -159,14 +178,36 @@ public abstract class TagSupport implements Tag {
 
 	/**
      * Executes the body of the tag and returns the result as a String.
+     * The body is written by a {@link StreamingXMLWriter} whose buffers are
+     * kept for later calls on the same thread.
      *
      * @param shouldEscape Signal if the text should be escaped.
      * @return The text evaluation of the body
      */
     protected String getBodyText(final boolean shouldEscape) throws JellyTagException {
-        final StringWriter writer = new StringWriter();
-        invokeBody(XMLOutput.createXMLOutput(writer, shouldEscape));
-        return writer.toString();
+        BodyTextBuffer buffer = (BodyTextBuffer) bodyTextBuffers.get();
+        if (buffer == null) {
+            buffer = new BodyTextBuffer();
+        } else {
+            // tags in the body which get their own body text use another buffer
+            bodyTextBuffers.set(null);
+        }
+        final StringBuffer text = buffer.writer.getBuffer();
+        text.setLength(0);
+        buffer.xmlWriter.reset();
+        buffer.xmlWriter.setEscapeText(shouldEscape);
+        final XMLOutput output = XMLOutput.createXMLOutput(buffer.xmlWriter);
+        invokeBody(output);
+        try {
+            output.flush();
+        } catch (final IOException e) {
+            throw new JellyTagException(e);
+        }
+        final String answer = text.toString();
+        if (text.capacity() <= MAX_KEPT_BODY_TEXT) {
+            bodyTextBuffers.set(buffer);
+        }
+        return answer;
     }
 
 	/** @return The context in which the tag will be run */
@@ -276,9 +317,11 @@ public abstract class TagSupport implements Tag {
 
     /**
      * Find all text nodes inside the top level of this body and
-     * if they are just whitespace then remove them
+     * if they are just whitespace then remove them.
+     * The compiled body is shared by other tags and threads so it is replaced
+     * by a trimmed copy rather than being modified.
      */
     protected void trimBody() {
-        TagUtils.trimScript(body);
+        body = TagUtils.trimmedScript(body);
     }
 }
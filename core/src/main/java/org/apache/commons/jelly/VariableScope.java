@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly;
+
+/**
+ * <p>{@code VariableScope} is the strategy a {@link JellyContext} uses to look up
+ * variables which are not necessarily defined in the context itself, such as
+ * those of its parent contexts.</p>
+ *
+ * <p>Implementations must be thread safe as one scope is shared by a context and
+ * all of its child contexts. A context tells its scope whenever its variables are
+ * changed through its own methods, but not when the map returned by
+ * {@link JellyContext#getVariables()} is changed directly.</p>
+ */
+public interface VariableScope {
+
+    /**
+     * Finds the value of the given variable in the given context or in any of its
+     * parent contexts, regardless of whether the contexts inherit variables.
+     *
+     * @return The value of the variable or null if it could not be found
+     */
+    Object findVariable(JellyContext context, String name);
+
+    /**
+     * Returns the value of the given variable as seen from the given context,
+     * only looking in the parent context if the context inherits variables.
+     *
+     * @return The value of the variable or null if it could not be found
+     */
+    Object getVariable(JellyContext context, String name);
+
+    /**
+     * Tells this scope that the given variable has been set or removed in the given
+     * context, so that any lookup of it which the scope remembers can be forgotten.
+     * This does nothing by default.
+     */
+    default void variableChanged(final JellyContext context, final String name) {
+    }
+
+    /**
+     * Tells this scope that any of the variables of the given context may have
+     * changed, such as when they are cleared. This does nothing by default.
+     */
+    default void variablesChanged(final JellyContext context) {
+    }
+}
@@ -21,13 +21,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Objects;
 
+import org.apache.commons.jelly.util.StreamingXMLWriter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.io.XMLWriter;
@@ -47,31 +45,69 @@ import org.xml.sax.helpers.DefaultHandler;
 
 public class XMLOutput implements ContentHandler, LexicalHandler {
 
+    /**
+     * The namespace prefixes declared by the open elements, kept as prefix and
+     * URI pairs in one array with the start of each element's declarations
+     * marked in another, so that an element which declares nothing costs no
+     * allocation and prefixes are looked up from the innermost element out.
+     */
     private final class NamespaceStack {
 
-        /** A list of maps: Each map contains prefix to uri mapping */
-        private final List nsStack;
+        /** The declared prefixes and their URIs, as consecutive pairs */
+        private String[] entries = new String[16];
+
+        /** The number of used slots in entries */
+        private int size;
+
+        /** The index in entries at which the declarations of each depth start */
+        private int[] levels = new int[16];
+
+        /** The current depth, 0 being the level of the root element */
+        private int depth;
 
         private NamespaceStack() {
-            this.nsStack = new ArrayList();
-            this.nsStack.add(new HashMap());
         }
 
-        public void decreaseLevel() {
-            nsStack.remove(0);
+        /** Discards the declarations from the given index on */
+        private void clear(final int start) {
+            Arrays.fill(entries, start, size, null);
+            size = start;
+        }
+
+        public void decreaseLevel() throws SAXException {
+            if (depth == 0) {
+                throw new SAXException("Cannot end an element which was not started");
+            }
+            clear(levels[depth]);
+            depth--;
         }
 
         public void increaseLevel() {
-            nsStack.add(0, new HashMap());
+            if (++depth == levels.length) {
+                levels = Arrays.copyOf(levels, depth * 2);
+            }
+            levels[depth] = size;
         }
 
         private boolean isRootNodeDefaultNs(final String prefix, final String uri) {
-            return "".equals(prefix) && "".equals(uri) && nsStack.size() == 1;
+            return "".equals(prefix) && "".equals(uri) && depth == 0;
         }
 
-        public void popNamespace(String prefix) throws SAXException {
-            final Map prefixUriMap = (Map)nsStack.get(0);
+        /**
+         * @return the index in entries of the innermost declaration of the prefix
+         * formed by the first prefixLength characters of the name, or -1
+         */
+        private int lookup(final String name, final int prefixLength) {
+            for (int i = size - 2; i >= 0; i -= 2) {
+                final String prefix = entries[i];
+                if (prefix.length() == prefixLength && name.startsWith(prefix)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
+        public void popNamespace(String prefix) throws SAXException {
             if (prefix == null) {
                 prefix = "";
             }
@@ -82,13 +118,14 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
                 return;
             }
 
-            if (prefixUriMap.containsKey(prefix)) {
-                final String uri = (String) prefixUriMap.get(prefix);
-                prefixUriMap.remove(prefix);
+            final int i = lookup(prefix, prefix.length());
+            if (i >= levels[depth]) {
+                final String uri = entries[i + 1];
+                System.arraycopy(entries, i + 2, entries, i, size - i - 2);
+                clear(size - 2);
                 // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
                 // We aren't going to call endPrefixMapping neither
                 if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespace() prefix="+prefix);
                     contentHandler.endPrefixMapping(prefix);
                 }
             }/* else {
@@ -98,76 +135,87 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         }
 
         public void popNamespaces() throws SAXException {
-            final Map prefixUriMap = (Map)nsStack.get(0);
-            for (final Iterator iter = prefixUriMap.keySet().iterator();iter.hasNext();) {
-                final String prefix = (String)iter.next();
-                final String uri = (String) prefixUriMap.get(prefix);
-                iter.remove();
-
+            final int start = levels[depth];
+            for (int i = size - 2; i >= start; i -= 2) {
+                final String prefix = entries[i];
+                final String uri = entries[i + 1];
                 // If we havent called startPrefixMapping for root node if we wanted to avoid xmlns=""
                 // We aren't going to call endPrefixMapping neither
                 if (!isRootNodeDefaultNs(prefix, uri)) {
-//                    System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.popNamespaces() prefix="+prefix);
                     contentHandler.endPrefixMapping(prefix);
                 }
             }
+            clear(start);
         }
 
-        public void pushNamespace(String prefix, String uri) throws SAXException {
-            Map prefixUriMap;
-
+        public void pushNamespace(final String prefix, final String uri) throws SAXException {
             if (prefix == null) {
-                prefix = "";
+                pushNamespace("", 0, uri);
+            } else {
+                pushNamespace(prefix, prefix.length(), uri);
             }
+        }
+
+        /**
+         * Declares the prefix formed by the first prefixLength characters of the
+         * given name, which lets a qualified name be passed without taking its
+         * prefix out unless it is new.
+         */
+        public void pushNamespace(final String name, final int prefixLength, String uri) throws SAXException {
             if (uri == null) {
                 uri = "";
             }
 
-            if ("xml".equals(prefix)) {
+            if (prefixLength == 3 && name.startsWith("xml")) {
                 // We should ignore setting 'xml' prefix
                 // As declared in java of ContentHandler#startPrefixMapping
                 return;
             }
 
             // Lets find out if we already declared this same prefix,
-            // if not declare in current depth map (the first of list)
+            // if not declare it at the current depth
             // and call contentHandler.startPrefixMapping(prefix, uri);
-            boolean isNew = true;
-            for (final Iterator iter = nsStack.iterator(); iter.hasNext();) {
-                prefixUriMap = (Map) iter.next();
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (uri.equals(prefixUriMap.get(prefix))) {
-                        // Its an active namespace already
-                        // System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() IS NOT NEW prefix="+prefix+",uri="+uri);
-                        isNew = false;
-                    }
-                    // We found it in stack
-                    // If it was exactly the same, we won't bother
-                    break;
+            final int i = lookup(name, prefixLength);
+            if (i >= 0) {
+                if (uri.equals(entries[i + 1])) {
+                    // Its an active namespace already
+                    return;
                 }
-            }
-
-            if (isNew) {
-                // not declared sometime before
-                prefixUriMap = (Map) nsStack.get(0); // Current depth map
                 // Sanity check: Don't let two prefixes for different uris in
                 // same depth
-                if (prefixUriMap.containsKey(prefix)) {
-                    if (!uri.equals(prefixUriMap.get(prefix))) {
-                        throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
-                                + prefix + "\" for uri \""+uri+"\" whereas the declared ones are " + prefixUriMap);
-                    }
-                } else {
-                    prefixUriMap.put(prefix, uri);
-
-                    // To avoid setting xmlns="" for top node (not very nice :D)
-                    // We need to specifically check this condition
-                    if (!isRootNodeDefaultNs(prefix, uri)) {
-//                        System.out.println(">>>"+XMLOutput.this.hashCode()+">NamespaceStack.pushNamespace() prefix="+prefix+",uri="+uri);
-                        contentHandler.startPrefixMapping(prefix, uri);
-                    }
+                if (i >= levels[depth]) {
+                    throw new SAXException("Cannot set same prefix to different URI in same node: trying to add prefix \""
+                            + entries[i] + "\" for uri \"" + uri + "\" whereas the declared ones are " + toString());
+                }
+            }
+
+            final String prefix = name.substring(0, prefixLength);
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = prefix;
+            entries[size++] = uri;
+
+            // To avoid setting xmlns="" for top node (not very nice :D)
+            // We need to specifically check this condition
+            if (!isRootNodeDefaultNs(prefix, uri)) {
+                contentHandler.startPrefixMapping(prefix, uri);
+            }
+        }
+
+        /**
+         * @return the declarations of the current depth
+         */
+        @Override
+        public String toString() {
+            final StringBuilder buffer = new StringBuilder("{");
+            for (int i = levels[depth]; i < size; i += 2) {
+                if (i > levels[depth]) {
+                    buffer.append(", ");
                 }
+                buffer.append(entries[i]).append('=').append(entries[i + 1]);
             }
+            return buffer.append('}').toString();
         }
     }
 
@@ -185,6 +233,49 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     /** The default for escaping of text. */
     private static final boolean DEFAULT_ESCAPE_TEXT = false;
 
+    /**
+     * Flush policy which never flushes implicitly, so output is only flushed
+     * when {@link #flush()} is called, for example by the {@code <j:flush>} tag,
+     * or when the output is closed.
+     */
+    public static final int FLUSH_NEVER = 0;
+
+    /**
+     * Flush policy which flushes once the outermost tag of a script has
+     * completed and at the end of a document. This is the default.
+     */
+    public static final int FLUSH_PER_DOCUMENT = 1;
+
+    /**
+     * Flush policy which flushes after every tag has completed, as Jelly
+     * always used to.
+     */
+    public static final int FLUSH_PER_TAG = 2;
+
+    /**
+     * Flush policy which flushes once a tag has completed if roughly
+     * {@link #getFlushThreshold()} characters have been output since the last flush,
+     * as well as when the outermost tag of a script has completed.
+     */
+    public static final int FLUSH_ON_THRESHOLD = 3;
+
+    /** The default number of characters output before a threshold flush. */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 8192;
+
+    /** Whether an XMLOutput class leaves characters(char[], int, int) alone, so text can be written directly */
+    private static final ClassValue WRITES_TEXT_DIRECTLY = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            try {
+                final Method method = type.getMethod("characters", new Class[] { char[].class, int.class, int.class });
+                return Boolean.valueOf(method.getDeclaringClass() == XMLOutput.class);
+            }
+            catch (final NoSuchMethodException e) {
+                return Boolean.FALSE;
+            }
+        }
+    };
+
     /**
      * returns an XMLOutput object that will discard all
      * tag-generated XML events.  Useful when tag output is not expected
@@ -243,6 +334,52 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         return createXMLOutput(xmlWriter);
     }
 
+    /**
+     * Creates a text based XMLOutput which writes UTF-8 encoded XML to the
+     * underlying OutputStream with a {@link StreamingXMLWriter}, rather than
+     * dom4j's XMLWriter.
+     */
+    public static XMLOutput createStreamingXMLOutput(final OutputStream out) {
+        return createStreamingXMLOutput(out, DEFAULT_ESCAPE_TEXT);
+    }
+
+    /**
+     * Creates a text based XMLOutput which writes UTF-8 encoded XML to the
+     * underlying OutputStream with a {@link StreamingXMLWriter}, rather than
+     * dom4j's XMLWriter.
+     *
+     * @param out is the output stream to write
+     * @param escapeText is whether or not text output will be escaped. This must be true
+     * if the underlying output is XML or could be false if the underlying output is textual.
+     */
+    public static XMLOutput createStreamingXMLOutput(final OutputStream out, final boolean escapeText) {
+        final StreamingXMLWriter xmlWriter = new StreamingXMLWriter(out);
+        xmlWriter.setEscapeText(escapeText);
+        return createXMLOutput(xmlWriter);
+    }
+
+    /**
+     * Creates a text based XMLOutput which writes XML to the underlying Writer
+     * with a {@link StreamingXMLWriter}, rather than dom4j's XMLWriter.
+     */
+    public static XMLOutput createStreamingXMLOutput(final Writer writer) {
+        return createStreamingXMLOutput(writer, DEFAULT_ESCAPE_TEXT);
+    }
+
+    /**
+     * Creates a text based XMLOutput which writes XML to the underlying Writer
+     * with a {@link StreamingXMLWriter}, rather than dom4j's XMLWriter.
+     *
+     * @param writer is the writer to output to
+     * @param escapeText is whether or not text output will be escaped. This must be true
+     *   if the underlying output is XML or could be false if the underlying output is textual.
+     */
+    public static XMLOutput createStreamingXMLOutput(final Writer writer, final boolean escapeText) {
+        final StreamingXMLWriter xmlWriter = new StreamingXMLWriter(writer);
+        xmlWriter.setEscapeText(escapeText);
+        return createXMLOutput(xmlWriter);
+    }
+
     /**
      * Creates an XMLOutput from an existing SAX XMLReader.
      */
@@ -282,6 +419,21 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         return answer;
     }
 
+    /**
+     * Factory method to create a new XMLOutput from a StreamingXMLWriter
+     */
+    protected static XMLOutput createXMLOutput(final StreamingXMLWriter xmlWriter) {
+        final XMLOutput answer = new XMLOutput() {
+            @Override
+            public void close() throws IOException {
+                xmlWriter.close();
+            }
+        };
+        answer.setContentHandler(xmlWriter);
+        answer.setLexicalHandler(xmlWriter);
+        return answer;
+    }
+
     /** The SAX ContentHandler that output goes to. */
     private ContentHandler contentHandler;
 
@@ -291,6 +443,18 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     /** Stack of known namespaces. */
     private final NamespaceStack namespaceStack = new NamespaceStack();
 
+    /** When the output is flushed as tags complete. */
+    private int flushPolicy = FLUSH_PER_DOCUMENT;
+
+    /** The number of characters output before a threshold flush. */
+    private int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+
+    /** Roughly how many characters have been output since the last flush. */
+    private long unflushedCharacters;
+
+    /** Whether Strings may be written straight to a StreamingXMLWriter content handler. */
+    private final boolean writesTextDirectly = ((Boolean) WRITES_TEXT_DIRECTLY.get(getClass())).booleanValue();
+
     public XMLOutput() {
     }
 
@@ -363,6 +527,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      */
     @Override
     public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        unflushedCharacters += length;
         contentHandler.characters(ch, start, length);
     }
 
@@ -396,6 +561,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     @Override
     public void comment(final char ch[], final int start, final int length) throws SAXException {
         if (lexicalHandler != null) {
+            unflushedCharacters += length;
             lexicalHandler.comment(ch, start, length);
         }
     }
@@ -429,6 +595,13 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     @Override
     public void endDocument() throws SAXException {
         contentHandler.endDocument();
+        if (flushPolicy != FLUSH_NEVER) {
+            try {
+                flush();
+            } catch (final IOException e) {
+                throw new SAXException(e);
+            }
+        }
     }
 
     /**
@@ -483,6 +656,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     @Override
     public void endElement(final String uri, final String localName, final String qName)
         throws SAXException {
+        unflushedCharacters += qName.length() + 3;
         contentHandler.endElement(uri, localName, qName);
         // Inform namespaceStack to return to previous depth
         namespaceStack.decreaseLevel();
@@ -525,19 +699,37 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         // contentHandler.endPrefixMapping(prefix);
     }
 
-    /** Flushes the underlying stream if {@link XMLWriter}
-     * or {@link XMLOutput}.
+    /** Flushes the underlying stream if {@link XMLWriter},
+     * {@link StreamingXMLWriter} or {@link XMLOutput}.
      *
      * @throws IOException
      */
     public void flush() throws IOException {
+        unflushedCharacters = 0;
         if (contentHandler instanceof XMLWriter) {
             ((XMLWriter)contentHandler).flush();
+        } else if (contentHandler instanceof StreamingXMLWriter) {
+            ((StreamingXMLWriter)contentHandler).flush();
         } else if (contentHandler instanceof XMLOutput) {
             ((XMLOutput)contentHandler).flush();
         }
     }
 
+    /**
+     * @return When the output is flushed as tags complete, one of the
+     * {@code FLUSH_} constants.
+     */
+    public int getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * @return The number of characters output before a threshold flush.
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
     /**
      * @return The SAX ContentHandler to use to pipe SAX events into
      */
@@ -579,6 +771,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
     @Override
     public void ignorableWhitespace(final char[] ch, final int start, final int length)
         throws SAXException {
+        unflushedCharacters += length;
         contentHandler.ignorableWhitespace(ch, start, length);
     }
 
@@ -670,6 +863,31 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         contentHandler.setDocumentLocator(locator);
     }
 
+    /**
+     * Sets when the output is flushed as tags complete.
+     *
+     * @param flushPolicy one of {@link #FLUSH_NEVER}, {@link #FLUSH_PER_DOCUMENT},
+     *  {@link #FLUSH_PER_TAG} or {@link #FLUSH_ON_THRESHOLD}
+     */
+    public void setFlushPolicy(final int flushPolicy) {
+        if (flushPolicy < FLUSH_NEVER || flushPolicy > FLUSH_ON_THRESHOLD) {
+            throw new IllegalArgumentException("Unknown flush policy: " + flushPolicy);
+        }
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Sets the number of characters output before a threshold flush.
+     *
+     * @see #FLUSH_ON_THRESHOLD
+     */
+    public void setFlushThreshold(final int flushThreshold) {
+        if (flushThreshold < 1) {
+            throw new IllegalArgumentException("flushThreshold must be positive: " + flushThreshold);
+        }
+        this.flushThreshold = flushThreshold;
+    }
+
     // Lexical Handler interface
     //-------------------------------------------------------------------------
 
@@ -879,24 +1097,21 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         final Attributes atts)
         throws SAXException {
 
-        int idx = qName.indexOf(':');
-        String attNsPrefix = "";
-        if (idx >= 0) {
-            attNsPrefix = qName.substring(0, idx);
-        }
-        namespaceStack.pushNamespace(attNsPrefix, uri);
+        // the prefixes are passed as the start of the qualified names, so
+        // that nothing is allocated for those which are already declared
+        final int idx = qName.indexOf(':');
+        namespaceStack.pushNamespace(qName, Math.max(idx, 0), uri);
         for (int i = 0; i < atts.getLength(); i++) {
             final String attQName = atts.getQName(i);
             // An attribute only has an namespace if has a prefix
             // If not, stays in namespace of containing node
-            idx = attQName.indexOf(':');
-            if (idx >= 0) {
-                attNsPrefix = attQName.substring(0, idx);
-                final String attUri = atts.getURI(i);
-                namespaceStack.pushNamespace(attNsPrefix, attUri);
+            final int attIdx = attQName.indexOf(':');
+            if (attIdx >= 0) {
+                namespaceStack.pushNamespace(attQName, attIdx, atts.getURI(i));
             }
         }
 
+        unflushedCharacters += qName.length() + 2;
         contentHandler.startElement(uri, localName, qName, atts);
         // Inform namespaceStack of a new depth
         namespaceStack.increaseLevel();
@@ -1003,6 +1218,33 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
         // in pushNamespace
     }
 
+    /**
+     * Called once a tag has completed, flushing the output if the flush
+     * policy requires it.
+     *
+     * @param outermost whether the tag is the outermost tag of its script
+     * @throws IOException if the output could not be flushed
+     */
+    public void tagCompleted(final boolean outermost) throws IOException {
+        switch (flushPolicy) {
+        case FLUSH_PER_TAG:
+            flush();
+            break;
+        case FLUSH_PER_DOCUMENT:
+            if (outermost) {
+                flush();
+            }
+            break;
+        case FLUSH_ON_THRESHOLD:
+            if (outermost || unflushedCharacters >= flushThreshold) {
+                flush();
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
     @Override
     public String toString() {
         return super.toString()
@@ -1019,6 +1261,12 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      * Any special XML characters should come out properly escaped.
      */
     public void write(final String text) throws SAXException {
+        if (writesTextDirectly && contentHandler instanceof StreamingXMLWriter) {
+            // no need to copy the text into a char array
+            unflushedCharacters += text.length();
+            ((StreamingXMLWriter) contentHandler).characters(text);
+            return;
+        }
         final char[] ch = text.toCharArray();
         characters(ch, 0, ch.length);
     }
@@ -1029,8 +1277,7 @@ public class XMLOutput implements ContentHandler, LexicalHandler {
      */
     public void writeCDATA(final String text) throws SAXException {
         startCDATA();
-        final char[] ch = text.toCharArray();
-        characters(ch, 0, ch.length);
+        write(text);
         endCDATA();
     }
 
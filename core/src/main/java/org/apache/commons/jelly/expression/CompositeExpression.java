@@ -243,6 +243,45 @@ public class CompositeExpression extends ExpressionSupport {
 
     }
 
+    /**
+     * Returns an equivalent expression in which adjacent constant parts are
+     * joined into one, so that they need not be concatenated each time the
+     * expression is evaluated. This expression is left unchanged.
+     *
+     * @return A new expression or this expression if it has no adjacent constant parts
+     */
+    public CompositeExpression foldConstants() {
+        final List answer = new ArrayList(expressions.size());
+        StringBuilder text = null;
+        for (final Iterator iter = expressions.iterator(); iter.hasNext(); ) {
+            final Expression expression = (Expression) iter.next();
+            final Object value = expression.getClass() == ConstantExpression.class
+                ? ((ConstantExpression) expression).getValue() : expression;
+            if (!(value instanceof Expression)) {
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                if (value != null) {
+                    text.append(value);
+                }
+            }
+            else {
+                if (text != null) {
+                    answer.add(new ConstantExpression(text.toString()));
+                    text = null;
+                }
+                answer.add(expression);
+            }
+        }
+        if (text != null) {
+            answer.add(new ConstantExpression(text.toString()));
+        }
+        if (answer.size() == expressions.size()) {
+            return this;
+        }
+        return new CompositeExpression(answer);
+    }
+
     // Expression interface
     //-------------------------------------------------------------------------
 
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.expression;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>{@code ExpressionCache} interns parsed {@link Expression} objects by key so
+ * that an expression which appears many times, in one script or across many,
+ * is only parsed once and only held in memory once.</p>
+ *
+ * <p>The cache may be used concurrently by many parsers. It is bounded; once it
+ * is full an entry is dropped to make room for each new one, chosen by the CLOCK
+ * policy, an approximation of least recently used eviction. Each entry has a
+ * referenced flag, set when the entry is looked up. To drop an entry a hand
+ * sweeps round the entries, clearing the flags it finds set and dropping the
+ * first entry whose flag is clear, so an entry used since the hand last passed
+ * it is kept. A new entry starts with its flag clear, so an expression which is
+ * only parsed once is dropped before those which are reused. Only expressions
+ * which are immutable and safe to evaluate concurrently should be cached.</p>
+ */
+public class ExpressionCache {
+
+    /**
+     * A cached expression, with the flag the hand of the clock clears.
+     */
+    private static final class Entry {
+
+        final Expression expression;
+
+        /** Whether the expression has been used since the hand last passed it */
+        volatile boolean referenced;
+
+        Entry(final Expression expression) {
+            this.expression = expression;
+        }
+
+        /**
+         * @return The expression, flagged as used
+         */
+        Expression use() {
+            if (!referenced) {
+                referenced = true;
+            }
+            return expression;
+        }
+    }
+
+    /** The default maximum number of expressions to cache */
+    public static final int DEFAULT_MAX_EXPRESSIONS = 4096;
+
+    private final ConcurrentHashMap expressions = new ConcurrentHashMap();
+
+    private volatile int maxExpressions;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /** The hand of the clock, an iterator over the entries, only used while holding the lock on it */
+    private final Object handLock = new Object();
+    private Iterator hand;
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAX_EXPRESSIONS} expressions.
+     */
+    public ExpressionCache() {
+        this(DEFAULT_MAX_EXPRESSIONS);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of expressions.
+     */
+    public ExpressionCache(final int maxExpressions) {
+        setMaxExpressions(maxExpressions);
+    }
+
+    /**
+     * Removes all the expressions from this cache.
+     */
+    public void clear() {
+        expressions.clear();
+    }
+
+    /**
+     * Drops the first entry the hand of the clock finds whose referenced flag is
+     * clear, clearing the flags it passes. The hand goes round at most twice, in
+     * case other threads keep flagging the entries, and then drops the entry it
+     * has reached.
+     */
+    private void evict() {
+        synchronized (handLock) {
+            final int limit = 2 * expressions.size() + 1;
+            for (int i = 0; i < limit; i++) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = expressions.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                final Map.Entry candidate = (Map.Entry) hand.next();
+                final Entry entry = (Entry) candidate.getValue();
+                if (entry.referenced && i < limit - 1) {
+                    entry.referenced = false;
+                }
+                else if (expressions.remove(candidate.getKey(), entry)) {
+                    evictionCount.incrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The expression cached for the given key or null if there is none.
+     */
+    public Expression getExpression(final String key) {
+        final Entry entry = (Entry) expressions.get(key);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry.use();
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return The number of expressions dropped to make room for others.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return The number of lookups which found an expression.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The maximum number of expressions held by this cache.
+     */
+    public int getMaxExpressions() {
+        return maxExpressions;
+    }
+
+    /**
+     * @return The number of lookups which did not find an expression.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Caches the given expression, unless another thread has already cached
+     * one for the same key.
+     *
+     * @return The expression now cached for the key, which callers should use
+     *  in place of the given expression so that it is shared.
+     */
+    public Expression putExpression(final String key, final Expression expression) {
+        if (expressions.size() >= maxExpressions && !expressions.containsKey(key)) {
+            evict();
+        }
+        final Entry existing = (Entry) expressions.putIfAbsent(key, new Entry(expression));
+        return existing != null ? existing.use() : expression;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+    }
+
+    /**
+     * Sets the maximum number of expressions held by this cache.
+     */
+    public void setMaxExpressions(final int maxExpressions) {
+        if (maxExpressions < 1) {
+            throw new IllegalArgumentException("maxExpressions must be positive: " + maxExpressions);
+        }
+        this.maxExpressions = maxExpressions;
+    }
+
+    /**
+     * @return The number of expressions currently cached.
+     */
+    public int size() {
+        return expressions.size();
+    }
+}
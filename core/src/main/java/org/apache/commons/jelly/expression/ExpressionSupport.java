@@ -38,34 +38,16 @@ public abstract class ExpressionSupport implements Expression {
 
     protected static final Iterator EMPTY_ITERATOR = Collections.EMPTY_LIST.iterator();
 
-    // inherit javadoc from interface
-    @Override
-    public boolean evaluateAsBoolean(final JellyContext context) {
-        final Object value = evaluateRecurse(context);
-        if ( value instanceof Boolean ) {
-            final Boolean b = (Boolean) value;
-            return b.booleanValue();
-        }
-        if ( value instanceof String ) {
-            // return Boolean.getBoolean( (String) value );
-            final String str = (String) value;
-
-            return str.equalsIgnoreCase( "on" )
-                 ||
-                 str.equalsIgnoreCase( "yes" )
-                 ||
-                 str.equals( "1" )
-                 ||
-                 str.equalsIgnoreCase( "true" );
-
-        }
-        return false;
-    }
-
-    // inherit javadoc from interface
-    @Override
-    public Iterator evaluateAsIterator(final JellyContext context) {
-        final Object value = evaluateRecurse(context);
+    /**
+     * Returns an iterator over the given value, as {@link #evaluateAsIterator}
+     * does for the value of an expression: over the items of an Iterator,
+     * Collection, array or Enumeration, the entries of a Map, the trimmed parts
+     * of a comma separated String, the value alone or nothing for null.
+     *
+     * @param value The value to iterate over
+     * @return An iterator over the value
+     */
+    public static Iterator toIterator(final Object value) {
         if (value == null) {
             return EMPTY_ITERATOR;
         }
@@ -99,6 +81,36 @@ public abstract class ExpressionSupport implements Expression {
         return new SingletonIterator( value );
     }
 
+    // inherit javadoc from interface
+    @Override
+    public boolean evaluateAsBoolean(final JellyContext context) {
+        final Object value = evaluateRecurse(context);
+        if ( value instanceof Boolean ) {
+            final Boolean b = (Boolean) value;
+            return b.booleanValue();
+        }
+        if ( value instanceof String ) {
+            // return Boolean.getBoolean( (String) value );
+            final String str = (String) value;
+
+            return str.equalsIgnoreCase( "on" )
+                 ||
+                 str.equalsIgnoreCase( "yes" )
+                 ||
+                 str.equals( "1" )
+                 ||
+                 str.equalsIgnoreCase( "true" );
+
+        }
+        return false;
+    }
+
+    // inherit javadoc from interface
+    @Override
+    public Iterator evaluateAsIterator(final JellyContext context) {
+        return toIterator(evaluateRecurse(context));
+    }
+
     // inherit javadoc from interface
     @Override
     public String evaluateAsString(final JellyContext context) {
@@ -30,12 +30,25 @@ import org.apache.commons.logging.LogFactory;
 
 final class JellyJexlContext implements JexlContext {
 
-    private final Map vars;
+    private final JellyMap vars;
+
+    JellyJexlContext() {
+        this.vars = new JellyMap( null );
+    }
 
     JellyJexlContext(final JellyContext context) {
         this.vars = new JellyMap( context );
     }
 
+    JellyContext getContext() {
+        return vars.getContext();
+    }
+
+    /** Sets the JellyContext whose variables are seen by JEXL, so this object can be reused */
+    void setContext(final JellyContext context) {
+        vars.setContext( context );
+    }
+
     @Override
     public Map getVars() {
         return this.vars;
@@ -50,7 +63,7 @@ final class JellyJexlContext implements JexlContext {
 
 final class JellyMap implements Map {
 
-    private final JellyContext context;
+    private JellyContext context;
 
     JellyMap(final JellyContext context) {
         this.context = context;
@@ -81,6 +94,10 @@ final class JellyMap implements Map {
         return context.getVariable( (String) key );
     }
 
+    JellyContext getContext() {
+        return context;
+    }
+
     @Override
     public boolean isEmpty() {
         return false;
@@ -106,6 +123,10 @@ final class JellyMap implements Map {
         return null;
     }
 
+    void setContext(final JellyContext context) {
+        this.context = context;
+    }
+
     @Override
     public int size() {
         return -1;
@@ -128,6 +149,12 @@ public class JexlExpression extends ExpressionSupport {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(JexlExpression.class);
 
+    /**
+     * The JexlContext of the current thread, which is pointed at the JellyContext
+     * of each evaluation rather than creating a new JexlContext every time.
+     */
+    private static final ThreadLocal jexlContexts = ThreadLocal.withInitial(JellyJexlContext::new);
+
     /** The Jexl expression object */
     private final Expression expression;
 
@@ -137,8 +164,11 @@ public class JexlExpression extends ExpressionSupport {
 
     @Override
     public Object evaluate(final JellyContext context) {
+        final JellyJexlContext jexlContext = (JellyJexlContext) jexlContexts.get();
+        // an expression may call code which evaluates other expressions so restore the previous context
+        final JellyContext previousContext = jexlContext.getContext();
+        jexlContext.setContext( context );
         try {
-            final JexlContext jexlContext = new JellyJexlContext( context );
             if (log.isDebugEnabled()) {
                 log.debug("Evaluating EL: " + expression.getExpression());
             }
@@ -163,6 +193,9 @@ public class JexlExpression extends ExpressionSupport {
             }
             throw (IllegalStateException)new IllegalStateException (e.getMessage(), e);
         }
+        finally {
+            jexlContext.setContext( previousContext );
+        }
     }
 
     // Expression interface
@@ -20,6 +20,7 @@ package org.apache.commons.jelly.expression.jexl;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.expression.ExpressionCache;
 import org.apache.commons.jelly.expression.ExpressionFactory;
 import org.apache.commons.jelly.expression.ExpressionSupport;
 
@@ -34,7 +35,7 @@ import org.apache.commons.jelly.expression.ExpressionSupport;
 
 public class JexlExpressionFactory implements ExpressionFactory {
 
-    private final class ExpressionSupportLocal extends ExpressionSupport {
+    private static final class ExpressionSupportLocal extends ExpressionSupport {
 
         protected Expression jexlExpression = null;
         protected String text = null;
@@ -66,9 +67,22 @@ public class JexlExpressionFactory implements ExpressionFactory {
         }
     }
 
+    /** The expressions parsed by all JexlExpressionFactory instances, keyed by their text */
+    private static final ExpressionCache expressionCache = new ExpressionCache();
+
+    /**
+     * @return The cache of parsed expressions shared by all JexlExpressionFactory instances
+     */
+    public static ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
     /** Whether we should allow Ant-style expressions, using dots as part of variable name */
     private boolean supportAntVariables = true;
 
+    /** Whether parsed expressions are shared through the expression cache */
+    private boolean cacheExpressions = true;
+
     // Properties
     //-------------------------------------------------------------------------
 
@@ -76,6 +90,41 @@ public class JexlExpressionFactory implements ExpressionFactory {
     //-------------------------------------------------------------------------
     @Override
     public Expression createExpression(final String text) throws JellyException {
+        // subclasses may parse differently so only cache our own expressions
+        if ( !cacheExpressions || getClass() != JexlExpressionFactory.class ) {
+            return parseExpression(text);
+        }
+        final String key = (isSupportAntVariables() ? "ant:" : "jexl:") + text;
+        final Expression answer = expressionCache.getExpression(key);
+        if ( answer != null ) {
+            return answer;
+        }
+        return expressionCache.putExpression(key, parseExpression(text));
+    }
+
+    /**
+     * @return whether parsed expressions are shared through the cache returned by
+     * {@link #getExpressionCache()}
+     */
+    public boolean isCacheExpressions() {
+        return cacheExpressions;
+    }
+
+    /**
+     * @return whether we should allow Ant-style expressions, using dots as
+     * part of variable name
+     */
+    public boolean isSupportAntVariables() {
+        return supportAntVariables;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Parses the given text into a new Expression
+     */
+    protected Expression parseExpression(final String text) throws JellyException {
 /*
 
         org.apache.commons.jexl.Expression expr =
@@ -104,17 +153,6 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return jexlExpression;
     }
 
-    /**
-     * @return whether we should allow Ant-style expressions, using dots as
-     * part of variable name
-     */
-    public boolean isSupportAntVariables() {
-        return supportAntVariables;
-    }
-
-    // Implementation methods
-    //-------------------------------------------------------------------------
-
     /**
      * @return true if the given string is a valid Ant variable name,
      * typically thats alphanumeric text with '.' etc.
@@ -130,6 +168,14 @@ public class JexlExpressionFactory implements ExpressionFactory {
         return true;
     }
 
+    /**
+     * Sets whether parsed expressions are shared through the cache returned by
+     * {@link #getExpressionCache()}, which is the default.
+     */
+    public void setCacheExpressions(final boolean cacheExpressions) {
+        this.cacheExpressions = cacheExpressions;
+    }
+
     /**
      * Sets whether we should allow Ant-style expressions, using dots as
      * part of variable name
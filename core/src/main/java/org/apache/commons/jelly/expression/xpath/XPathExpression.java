@@ -16,7 +16,7 @@
  */
 package org.apache.commons.jelly.expression.xpath;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -59,12 +59,12 @@ public class XPathExpression extends ExpressionSupport implements VariableContex
     }
 
     /**
-     * Factory method to create a synchronized Map of non-null and non-blank
-     * namespace prefixes to namespace URIs
+     * Factory method to create a Map of non-null and non-blank
+     * namespace prefixes to namespace URIs, which is only read once created
      */
     protected Map createUriMap(final Map namespaceContext) {
         // now lets clone the Map but ignoring default or null prefixes
-        final Map uris = new Hashtable(namespaceContext.size());
+        final Map uris = new HashMap(namespaceContext.size());
         for (final Iterator iter = namespaceContext.entrySet().iterator(); iter.hasNext(); ) {
             final Map.Entry entry = (Map.Entry) iter.next();
             final String prefix = (String) entry.getKey();
@@ -34,6 +34,46 @@ public class CompositeTextScriptBlock extends ScriptBlock {
     }
 
 
+    /**
+     * Creates the trimmed copy of this block.
+     * In this case, trim the whitespace from the start of the first element
+     * and from the end of the last element.
+     */
+    @Override
+    protected ScriptBlock createTrimmedBlock() {
+        final CompositeTextScriptBlock answer = new CompositeTextScriptBlock();
+        final List list = getScriptList();
+        final int size = list.size();
+        for ( int i = 0; i < size; i++ ) {
+            Script script = (Script) list.get(i);
+            if ( script instanceof TextScript && ( i == 0 || i == size - 1 && size > 1 ) ) {
+                final TextScript textScript = new TextScript(((TextScript) script).getText());
+                if ( i == 0 ) {
+                    textScript.trimStartWhitespace();
+                }
+                else {
+                    textScript.trimEndWhitespace();
+                }
+                script = textScript;
+            }
+            answer.getScriptList().add(script);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the text output in place of the given text by the trimmed copy of
+     * this block. In this case, the whitespace is trimmed from the start of the
+     * first element and from the end of the last element.
+     */
+    @Override
+    String trimText(final String text, final boolean first, final boolean last) {
+        if (first) {
+            return TextScript.trimStart(text);
+        }
+        return last ? TextScript.trimEnd(text) : text;
+    }
+
     /**
      * Trim the body of the script.
      * In this case, trim the whitespace from the start of the first element
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.Script;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>{@code DefaultScriptCache} is a size bounded, least recently used
+ * {@link ScriptCache}.</p>
+ *
+ * <p>Each entry records the version of the resource it was parsed from; the
+ * last modified time for files and jar entries, or the ETag (falling back to the
+ * last modified header) for HTTP resources. An entry whose resource has changed
+ * since it was cached is discarded on lookup. Since checking a remote resource
+ * can be costly the check can be limited to once per {@link #setCheckInterval
+ * check interval}.</p>
+ */
+public class DefaultScriptCache implements ScriptCache {
+
+    /**
+     * A cached script and the version of the resource it was parsed from.
+     */
+    private static class Entry {
+        private final Script script;
+        private final String version;
+        private volatile long lastChecked;
+
+        Entry(final Script script, final String version, final long lastChecked) {
+            this.script = script;
+            this.version = version;
+            this.lastChecked = lastChecked;
+        }
+    }
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(DefaultScriptCache.class);
+
+    /** The default maximum number of scripts to cache */
+    public static final int DEFAULT_MAX_SCRIPTS = 256;
+
+    /** The cached entries in least recently used order, keyed by the URL text */
+    private final LinkedHashMap entries;
+
+    /** The maximum number of scripts to cache */
+    private int maxScripts;
+
+    /**
+     * The number of milliseconds to wait before checking whether a resource
+     * has changed again, or a negative value to never check
+     */
+    private volatile long checkInterval = 0;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a cache holding up to {@link #DEFAULT_MAX_SCRIPTS} scripts.
+     */
+    public DefaultScriptCache() {
+        this(DEFAULT_MAX_SCRIPTS);
+    }
+
+    /**
+     * Creates a cache holding up to the given number of scripts.
+     */
+    public DefaultScriptCache(final int maxScripts) {
+        if (maxScripts < 1) {
+            throw new IllegalArgumentException("maxScripts must be positive: " + maxScripts);
+        }
+        this.maxScripts = maxScripts;
+        this.entries = new LinkedHashMap(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry eldest) {
+                if (size() > DefaultScriptCache.this.maxScripts) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // ScriptCache interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public Script getScript(final URL url) {
+        final String key = url.toExternalForm();
+        final Entry entry;
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+        }
+
+        // check the resource outside of the lock as it may involve I/O
+        if (isStale(url, entry)) {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+                missCount++;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Discarding out of date script: " + key);
+            }
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+        }
+        return entry.script;
+    }
+
+    /**
+     * @return The version of the resource, as given by {@link #getVersion(URL)}
+     */
+    @Override
+    public Object getVersionToken(final URL url) {
+        return getVersion(url);
+    }
+
+    @Override
+    public synchronized void invalidate(final URL url) {
+        entries.remove(url.toExternalForm());
+    }
+
+    @Override
+    public void putScript(final URL url, final Script script) {
+        putScript(url, script, getVersion(url));
+    }
+
+    @Override
+    public void putScript(final URL url, final Script script, final Object versionToken) {
+        final Entry entry = new Entry(script, (String) versionToken, System.currentTimeMillis());
+        synchronized (this) {
+            entries.put(url.toExternalForm(), entry);
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The number of milliseconds between checks on whether a cached
+     * script's resource has changed. Zero means every lookup checks the resource,
+     * a negative value means the resource is never checked.
+     */
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * @return The number of scripts removed to make room for others.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return The number of lookups which found an up to date script.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The maximum number of scripts held by this cache.
+     */
+    public synchronized int getMaxScripts() {
+        return maxScripts;
+    }
+
+    /**
+     * @return The number of lookups which found no script or an out of date one.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    /**
+     * Sets the number of milliseconds between checks on whether a cached
+     * script's resource has changed. Zero means every lookup checks the resource,
+     * a negative value means the resource is never checked and scripts are only
+     * discarded when evicted or invalidated.
+     */
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Sets the maximum number of scripts held by this cache. If the cache
+     * currently holds more, the least recently used are evicted on the next store.
+     */
+    public synchronized void setMaxScripts(final int maxScripts) {
+        if (maxScripts < 1) {
+            throw new IllegalArgumentException("maxScripts must be positive: " + maxScripts);
+        }
+        this.maxScripts = maxScripts;
+    }
+
+    /**
+     * @return The number of scripts currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Returns a String identifying the current version of the given resource,
+     * or null if the version cannot be determined in which case the script will
+     * be reused until it is evicted or invalidated.
+     */
+    protected String getVersion(final URL url) {
+        return getResourceVersion(url);
+    }
+
+    /**
+     * Returns a String identifying the current version of the given resource,
+     * or null if the version cannot be determined.
+     */
+    static String getResourceVersion(final URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                final File file = new File(url.toURI());
+                return file.exists() ? String.valueOf(file.lastModified()) : null;
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // fall through and ask the URL connection
+            }
+        }
+        try {
+            final URLConnection connection = url.openConnection();
+            if (connection instanceof HttpURLConnection) {
+                final HttpURLConnection http = (HttpURLConnection) connection;
+                http.setRequestMethod("HEAD");
+                try {
+                    final String etag = http.getHeaderField("ETag");
+                    if (etag != null) {
+                        return etag;
+                    }
+                    final long lastModified = http.getLastModified();
+                    return lastModified != 0 ? String.valueOf(lastModified) : null;
+                } finally {
+                    http.disconnect();
+                }
+            }
+            final long lastModified = connection.getLastModified();
+            // some connections open the resource when connecting so lets close it
+            connection.getInputStream().close();
+            return lastModified != 0 ? String.valueOf(lastModified) : null;
+        } catch (final IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not determine the version of: " + url + ". Reason: " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the resource of the given cached entry has changed
+     */
+    private boolean isStale(final URL url, final Entry entry) {
+        final long interval = checkInterval;
+        if (interval < 0) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        if (interval > 0 && now - entry.lastChecked < interval) {
+            return false;
+        }
+        entry.lastChecked = now;
+        final String version = getVersion(url);
+        return version == null ? entry.version != null : !version.equals(entry.version);
+    }
+}
@@ -16,6 +16,10 @@
  */
 package org.apache.commons.jelly.impl;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.Tag;
 import org.xml.sax.Attributes;
@@ -26,6 +30,49 @@ import org.xml.sax.Attributes;
  */
 public class DefaultTagFactory implements TagFactory {
 
+    /**
+     * The no argument constructor of each tag class as a MethodHandle of type
+     * {@code ()Object}, resolved once per class, or null if the constructor
+     * cannot be accessed through a public lookup.
+     */
+    private static final ClassValue CONSTRUCTORS = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            try {
+                return MethodHandles.publicLookup()
+                    .findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            } catch (final NoSuchMethodException | IllegalAccessException e) {
+                // newTag() will use reflection which reports the problem
+                return null;
+            }
+        }
+    };
+
+    /**
+     * Creates a new instance of the given tag class using its no argument constructor,
+     * which is only looked up the first time a class is used.
+     *
+     * @throws JellyException if the tag could not be created
+     */
+    public static Tag newTag(final Class tagClass) throws JellyException {
+        final MethodHandle constructor = (MethodHandle) CONSTRUCTORS.get(tagClass);
+        if (constructor == null) {
+            try {
+                return (Tag) tagClass.getConstructor().newInstance();
+            } catch (final ReflectiveOperationException e) {
+                throw new JellyException(e.toString());
+            }
+        }
+        try {
+            return (Tag) (Object) constructor.invokeExact();
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new JellyException(e.toString(), e);
+        }
+    }
+
     private Class tagClass;
 
     public DefaultTagFactory() {
@@ -39,11 +86,7 @@ public class DefaultTagFactory implements TagFactory {
     //-------------------------------------------------------------------------
     @Override
     public Tag createTag(final String name, final Attributes attributes) throws JellyException {
-        try {
-          return (Tag) tagClass.getConstructor().newInstance();
-        } catch (final ReflectiveOperationException e) {
-            throw new JellyException(e.toString());
-        }
+        return newTag(tagClass);
     }
 
     // Properties
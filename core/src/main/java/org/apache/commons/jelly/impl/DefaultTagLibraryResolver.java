@@ -16,6 +16,15 @@
  */
 package org.apache.commons.jelly.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.commons.discovery.ResourceClass;
 import org.apache.commons.discovery.ResourceClassIterator;
 import org.apache.commons.discovery.resource.ClassLoaders;
@@ -31,12 +40,31 @@ import org.apache.commons.logging.LogFactory;
  * and class load the given Java class. Otherwise META-INF/services/jelly/uri
  * is searched for on the thread context's class path and, if found, that
  * class will be loaded.</p>
+ *
+ * <p>The {@code jelly:} URIs of the tag libraries named in
+ * {@code org/apache/commons/jelly/jelly.properties} are resolved without searching.
+ * The class each URI resolves to is remembered, as is the fact that a URI could
+ * not be resolved, so that the class path is only searched once for each URI
+ * until the cache is {@link #clearCache() cleared}. A new tag library is still
+ * created by each call.</p>
  */
 public class DefaultTagLibraryResolver implements TagLibraryResolver {
 
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(DefaultTagLibraryResolver.class);
 
+    /** The resource naming the tag libraries of the jelly: URIs */
+    private static final String JELLY_PROPERTIES = "org/apache/commons/jelly/jelly.properties";
+
+    /** Marks a URI for which no tag library class could be found */
+    private static final Object NOT_FOUND = new Object();
+
+    /** The tag library class each URI resolved to, or NOT_FOUND */
+    private final Map resolvedClasses = new ConcurrentHashMap();
+
+    /** The class name for each jelly: URI named in jelly.properties, loaded when first needed */
+    private volatile Map jellyClassNames;
+
     private DiscoverClasses discovery;
 
     /**
@@ -59,6 +87,15 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
     // TagLibraryResolver interface
     //-------------------------------------------------------------------------
 
+    /**
+     * Forgets the class each URI resolved to and the URIs which could not be
+     * resolved, so that they are searched for again.
+     */
+    public void clearCache() {
+        resolvedClasses.clear();
+        jellyClassNames = null;
+    }
+
     /**
      * Gets the class loader to be used for instantiating application objects
      * when required.  This is determined based upon the following rules:
@@ -78,11 +115,15 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
 
     /**
      * @return The DiscoverClasses instance to use to locate services.
-     *  This object is lazily created if it has not been configured.
+     *  This object is lazily created if it has not been configured, and
+     *  searches the class loader set by {@code setClassLoader()} as well.
      */
     public DiscoverClasses getDiscoverClasses() {
         if ( discovery == null ) {
             final ClassLoaders loaders = ClassLoaders.getAppLoaders(TagLibrary.class, getClass(), false);
+            if ( classLoader != null ) {
+                loaders.put(classLoader, true);
+            }
             discovery = new DiscoverClasses(loaders);
         }
         return discovery;
@@ -143,44 +184,18 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
      */
     @Override
     public TagLibrary resolveTagLibrary(final String uri) {
-        final DiscoverClasses discovery = getDiscoverClasses();
-        String name = uri;
-        if ( uri.startsWith( "jelly:" ) ) {
-            name = "jelly." + uri.substring(6);
-        }
-
-        log.info( "Looking up service name: " + name );
-
-/*
-        ClassLoaders loaders = ClassLoaders.getAppLoaders(TagLibrary.class, getClass(), false);
-
-        DiscoverClass discover = new DiscoverClass(loaders);
-        Class implClass = discover.find(TestInterface2.class);
-
-        TagLibrary answer = null;
-        try {
-            answer = (TagLibrary) DiscoverSingleton.find(TagLibrary.class, name);
-        }
-        catch (Exception e) {
-            log.error( "Could not load service: " + name );
-        }
-        return answer;
-*/
-        final ResourceClassIterator iter = discovery.findResourceClasses(name);
-        while (iter.hasNext()) {
-            final ResourceClass resource = iter.nextResourceClass();
-            try {
-                final Class typeClass = resource.loadClass();
-                if ( typeClass != null ) {
-                    return newInstance(uri, typeClass);
-                }
-            }
-            catch (final Exception e) {
-                log.error( "Could not load service: " + resource );
+        Object resolved = resolvedClasses.get(uri);
+        if (resolved == null) {
+            resolved = findTagLibraryClass(uri);
+            if (resolved == null) {
+                resolved = NOT_FOUND;
             }
+            resolvedClasses.put(uri, resolved);
         }
-        log.info( "Could not find any services for name: " + name );
-        return null;
+        if (resolved == NOT_FOUND) {
+            return null;
+        }
+        return newInstance(uri, (Class) resolved);
     }
 
     /**
@@ -192,6 +207,7 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
      */
     public void setClassLoader(final ClassLoader classLoader) {
         this.classLoader = classLoader;
+        clearCache();
     }
 
     // Implementation methods
@@ -203,6 +219,7 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
      */
     public void setDiscoverClasses(final DiscoverClasses discovery) {
         this.discovery = discovery;
+        clearCache();
     }
 
     /**
@@ -216,6 +233,70 @@ public class DefaultTagLibraryResolver implements TagLibraryResolver {
      */
     public void setUseContextClassLoader(final boolean use) {
         useContextClassLoader = use;
+        clearCache();
     }
 
+    /**
+     * @return The tag library class for the given URI or null if none could be found
+     */
+    private Class findTagLibraryClass(final String uri) {
+        String name = uri;
+        if ( uri.startsWith( "jelly:" ) ) {
+            final String className = (String) getJellyClassNames().get(uri);
+            if ( className != null ) {
+                try {
+                    return getClassLoader().loadClass(className);
+                }
+                catch (final ClassNotFoundException e) {
+                    log.error("Could not find the class: " + className + " when trying to resolve URI: " + uri, e);
+                }
+            }
+            name = "jelly." + uri.substring(6);
+        }
+
+        log.info( "Looking up service name: " + name );
+
+        final ResourceClassIterator iter = getDiscoverClasses().findResourceClasses(name);
+        while (iter.hasNext()) {
+            final ResourceClass resource = iter.nextResourceClass();
+            try {
+                final Class typeClass = resource.loadClass();
+                if ( typeClass != null ) {
+                    return typeClass;
+                }
+            }
+            catch (final Exception e) {
+                log.error( "Could not load service: " + resource );
+            }
+        }
+        log.info( "Could not find any services for name: " + name );
+        return null;
+    }
+
+    /**
+     * @return The class name for each jelly: URI named in jelly.properties,
+     * which is loaded the first time it is needed
+     */
+    private Map getJellyClassNames() {
+        Map answer = jellyClassNames;
+        if (answer == null) {
+            answer = new HashMap();
+            final URL url = getClassLoader().getResource(JELLY_PROPERTIES);
+            if (url != null) {
+                final Properties properties = new Properties();
+                try (InputStream in = url.openStream()) {
+                    properties.load(in);
+                }
+                catch (final IOException e) {
+                    log.error("Could not load jelly properties from: " + url + ". Reason: " + e, e);
+                }
+                for (final Iterator iter = properties.entrySet().iterator(); iter.hasNext();) {
+                    final Map.Entry entry = (Map.Entry) iter.next();
+                    answer.put("jelly:" + entry.getKey(), entry.getValue());
+                }
+            }
+            jellyClassNames = answer;
+        }
+        return answer;
+    }
 }
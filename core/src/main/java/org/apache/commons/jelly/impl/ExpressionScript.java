@@ -16,6 +16,7 @@
  */
 package org.apache.commons.jelly.impl;
 
+import org.apache.commons.jelly.ExecutionListener;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.Script;
@@ -53,7 +54,18 @@ public class ExpressionScript implements Script {
     /** Evaluates the body of a tag */
     @Override
     public void run(final JellyContext context, final XMLOutput output) throws JellyTagException {
-        final Object result = expression.evaluate(context);
+        final ExecutionListener listener = context.getExecutionListener();
+        final Object result;
+        if (listener == null) {
+            result = expression.evaluate(context);
+        } else {
+            listener.enterExpression(expression, null);
+            try {
+                result = expression.evaluate(context);
+            } finally {
+                listener.exitExpression(expression, null);
+            }
+        }
         if (result != null) {
 
             try {
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.parser.SAXEventBuffer;
+import org.apache.commons.jelly.parser.XMLParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>{@code PrecompiledScriptStore} keeps a precompiled form of each script in a
+ * directory so that a new JVM can create the script again without parsing its XML.</p>
+ *
+ * <p>The precompiled form is the sequence of SAX events the XML parser produced,
+ * recorded by a {@link SAXEventBuffer}, including the location of each element.
+ * Replaying them into an {@link XMLParser} builds the same script, with tag
+ * libraries and expressions resolved against the parser's context as usual. So a
+ * hit only saves reading and parsing the XML: the tag libraries are still looked
+ * up, the {@link TagScript}s built and the expressions parsed, and the script is
+ * still compiled, as they depend on the context and are not stored. A
+ * {@link ScriptCache} avoids all of these for scripts used again in the same JVM.</p>
+ *
+ * <p>Each file records the format version, the URL and version of the resource it
+ * was created from (as determined by {@link DefaultScriptCache}), the parser's
+ * default namespace and a checksum of the events. If any of these do not match, or
+ * the file cannot be read, the script is parsed from its XML again and the file is
+ * rewritten. Resources whose version cannot be determined are never precompiled.</p>
+ *
+ * <p>A store may be shared by many contexts and threads, and by many processes as
+ * files are replaced atomically where the file system allows it.</p>
+ */
+public class PrecompiledScriptStore {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(PrecompiledScriptStore.class);
+
+    /** The version of the file format, which changes whenever the format does */
+    public static final int FORMAT_VERSION = 2;
+
+    /** The extension of precompiled script files */
+    public static final String EXTENSION = ".jellyc";
+
+    /** The first four bytes of every precompiled script file */
+    private static final int MAGIC = 0x4A454C43;
+
+    /** The directory the precompiled scripts are kept in */
+    private final File directory;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a store which keeps precompiled scripts in the given directory,
+     * which is created if it does not exist.
+     */
+    public PrecompiledScriptStore(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Removes all the precompiled scripts from this store.
+     */
+    public void clear() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(EXTENSION)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The directory the precompiled scripts are kept in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The file holding the precompiled form of the script at the given URL
+     */
+    public File getFile(final URL url) {
+        return new File(directory, digest(url.toExternalForm()) + EXTENSION);
+    }
+
+    /**
+     * @return The number of scripts created from their precompiled form.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of scripts which had to be parsed from their XML.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Removes the precompiled form of the script at the given URL so that it
+     * will be parsed from its XML on its next use.
+     */
+    public void invalidate(final URL url) {
+        getFile(url).delete();
+    }
+
+    /**
+     * Creates the script at the given URL using the given parser, from its
+     * precompiled form if that is up to date or else by parsing its XML and
+     * storing the precompiled form for next time.
+     *
+     * @return The script, which has not been compiled yet.
+     */
+    public Script parse(final XMLParser parser, final URL url) throws IOException, SAXException {
+        final String version = DefaultScriptCache.getResourceVersion(url);
+        if (version != null) {
+            final SAXEventBuffer events = load(url, version, parser.getDefaultNamespaceURI());
+            if (events != null) {
+                hitCount.incrementAndGet();
+                return parser.parse(events);
+            }
+        }
+        missCount.incrementAndGet();
+        final SAXEventBuffer events = new SAXEventBuffer();
+        final Script script = parser.parse(new InputSource(url.toString()), events);
+        if (version != null) {
+            store(url, version, parser.getDefaultNamespaceURI(), events);
+        }
+        return script;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The hex encoded SHA-1 digest of the given text
+     */
+    private String digest(final String text) {
+        try {
+            final byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder buffer = new StringBuilder(bytes.length * 2);
+            for (final byte b : bytes) {
+                buffer.append(Character.forDigit(b >> 4 & 0xF, 16));
+                buffer.append(Character.forDigit(b & 0xF, 16));
+            }
+            return buffer.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-1
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    /**
+     * @return The events stored for the given version of the script or null if
+     * there are none or they are out of date or unreadable
+     */
+    private SAXEventBuffer load(final URL url, final String version, final String defaultNamespaceURI) {
+        final File file = getFile(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                || !url.toExternalForm().equals(in.readUTF())
+                || !version.equals(in.readUTF())
+                || !String.valueOf(defaultNamespaceURI).equals(in.readUTF())) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Precompiled script is out of date: " + url);
+                }
+                return null;
+            }
+            final long checksum = in.readLong();
+            final int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Bad length: " + length);
+            }
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            final CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if (crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            return SAXEventBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (final IOException e) {
+            log.warn("Ignoring unreadable precompiled script: " + file + " for: " + url + ". Reason: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the given file with the other one, atomically where the file
+     * system allows it so that other processes never read a partial file.
+     */
+    private void move(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the events for the given version of the script, logging rather
+     * than failing if they cannot be written
+     */
+    private void store(final URL url, final String version, final String defaultNamespaceURI,
+        final SAXEventBuffer events) {
+        final File file = getFile(url);
+        File temp = null;
+        try {
+            final ByteArrayOutputStream payload = new ByteArrayOutputStream(events.size() + 64);
+            try (DataOutputStream out = new DataOutputStream(payload)) {
+                events.writeTo(out);
+            }
+            final CRC32 crc = new CRC32();
+            final byte[] bytes = payload.toByteArray();
+            crc.update(bytes, 0, bytes.length);
+
+            directory.mkdirs();
+            temp = File.createTempFile("jelly", ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(url.toExternalForm());
+                out.writeUTF(version);
+                out.writeUTF(String.valueOf(defaultNamespaceURI));
+                out.writeLong(crc.getValue());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            move(temp, file);
+            temp = null;
+            if (log.isDebugEnabled()) {
+                log.debug("Stored precompiled script: " + file + " for: " + url);
+            }
+        } catch (final IOException e) {
+            log.warn("Could not store precompiled script for: " + url + ". Reason: " + e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>{@code ReloadingScriptCache} is a {@link ScriptCache} which watches the files
+ * of the scripts stored in it and recompiles a script in the background when its
+ * file changes, so that scripts need neither be checked on each lookup nor be
+ * left out of date.</p>
+ *
+ * <p>The scripts are stored in another cache, typically a {@link DefaultScriptCache}
+ * whose {@link DefaultScriptCache#setCheckInterval check interval} is negative, as
+ * the files no longer need to be checked on lookup. When a file changes the
+ * cached script is kept until the new one has been compiled, against the tag
+ * libraries of the given context, and then replaced, so that a lookup always
+ * finds a compiled script. Changes are gathered until there have been none for
+ * the {@link #setQuietPeriod quiet period}, so that a file being saved is only
+ * compiled once. If the changed script cannot be compiled its entry is
+ * invalidated, so that the next lookup compiles it and reports the error.</p>
+ *
+ * <p>Only scripts with {@code file:} URLs are watched. Each script run by the
+ * {@code <j:include>} and {@code <j:import>} tags is cached, and so watched, on
+ * its own, so a change to an included file only recompiles that file.</p>
+ *
+ * <p>The watching thread is started when the first file is stored and runs until
+ * the cache is {@link #close() closed}.</p>
+ */
+public class ReloadingScriptCache implements ScriptCache, Closeable {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(ReloadingScriptCache.class);
+
+    /** The default number of milliseconds without changes to wait for before reloading */
+    public static final long DEFAULT_QUIET_PERIOD = 100;
+
+    /** The cache the scripts are stored in */
+    private final ScriptCache cache;
+
+    /** The context whose tag libraries are used to recompile scripts */
+    private final JellyContext context;
+
+    /** Notified of changes to the directories of the cached files */
+    private final WatchService watchService;
+
+    /** The directory of each watch key */
+    private final Map directories = new HashMap();
+
+    /** The URLs of the cached scripts of each watched file */
+    private final Map fileURLs = new HashMap();
+
+    /** The thread waiting for changes, or null until a file is watched */
+    private Thread watcher;
+
+    private volatile boolean closed;
+
+    /** The number of milliseconds without changes to wait for before reloading */
+    private volatile long quietPeriod = DEFAULT_QUIET_PERIOD;
+
+    private long reloadCount;
+
+    /**
+     * Creates a cache which stores scripts in the given cache and recompiles
+     * them against the tag libraries of the given context.
+     *
+     * @throws IOException if the file system cannot be watched
+     */
+    public ReloadingScriptCache(final ScriptCache cache, final JellyContext context) throws IOException {
+        this.cache = cache;
+        this.context = context;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    // ScriptCache interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            for (final Iterator iter = directories.keySet().iterator(); iter.hasNext();) {
+                ((WatchKey) iter.next()).cancel();
+            }
+            directories.clear();
+            fileURLs.clear();
+        }
+        cache.clear();
+    }
+
+    @Override
+    public Script getScript(final URL url) {
+        return cache.getScript(url);
+    }
+
+    @Override
+    public Object getVersionToken(final URL url) {
+        return cache.getVersionToken(url);
+    }
+
+    @Override
+    public void invalidate(final URL url) {
+        cache.invalidate(url);
+    }
+
+    @Override
+    public void putScript(final URL url, final Script script) {
+        cache.putScript(url, script);
+        watch(url);
+    }
+
+    @Override
+    public void putScript(final URL url, final Script script, final Object versionToken) {
+        cache.putScript(url, script, versionToken);
+        watch(url);
+    }
+
+    // Closeable interface
+    //-------------------------------------------------------------------------
+
+    /**
+     * Stops watching the files of the cached scripts. The scripts stay cached.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The cache the scripts are stored in
+     */
+    public ScriptCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return The number of milliseconds without further changes to wait for
+     * before reloading changed scripts
+     */
+    public long getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    /**
+     * @return The number of times a changed script has been recompiled
+     */
+    public synchronized long getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * @return The number of files being watched
+     */
+    public synchronized int getWatchedFileCount() {
+        return fileURLs.size();
+    }
+
+    /**
+     * Sets the number of milliseconds without further changes to wait for before
+     * reloading changed scripts, so that a file which is written in several
+     * steps is only compiled once it is complete.
+     */
+    public void setQuietPeriod(final long quietPeriod) {
+        this.quietPeriod = quietPeriod;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Adds the URLs of the cached scripts whose files changed according to the
+     * given key to the given set, and resets the key.
+     */
+    private synchronized void collectChanges(final WatchKey key, final Set changed) {
+        final Path directory = (Path) directories.get(key);
+        for (final Iterator iter = key.pollEvents().iterator(); iter.hasNext();) {
+            final WatchEvent event = (WatchEvent) iter.next();
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // changes were lost so reload everything in the directory
+                for (final Iterator files = fileURLs.entrySet().iterator(); files.hasNext();) {
+                    final Map.Entry entry = (Map.Entry) files.next();
+                    if (directory.equals(((Path) entry.getKey()).getParent())) {
+                        changed.addAll((Set) entry.getValue());
+                    }
+                }
+                continue;
+            }
+            final Set urls = (Set) fileURLs.get(directory.resolve((Path) event.context()));
+            if (urls != null) {
+                changed.addAll(urls);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Recompiles the script of the given URL and replaces the cached one, or
+     * invalidates it if it cannot be compiled.
+     */
+    protected void reload(final URL url) {
+        // compile in a child context without the cache so that the
+        // cached script is kept until the new one is ready
+        final JellyContext compileContext = new JellyContext(context);
+        compileContext.setScriptCache(null);
+        try {
+            final Object version = cache.getVersionToken(url);
+            final Script script = compileContext.compileScript(url);
+            cache.putScript(url, script, version);
+            synchronized (this) {
+                reloadCount++;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Reloaded changed script: " + url);
+            }
+        } catch (final JellyException | RuntimeException e) {
+            cache.invalidate(url);
+            log.warn("Could not reload changed script: " + url + ". Reason: " + e);
+        }
+    }
+
+    /**
+     * @return The file of the given URL or null if it is not a file URL
+     */
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for changes to the watched directories and reloads the scripts of
+     * the files which changed, until the watch service is closed.
+     */
+    private void waitForChanges() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            // editors often write a file in several steps, so gather the
+            // changes until there have been none for the quiet period
+            final Set changed = new LinkedHashSet();
+            try {
+                while (key != null) {
+                    collectChanges(key, changed);
+                    key = watchService.poll(quietPeriod, TimeUnit.MILLISECONDS);
+                }
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (final Iterator iter = changed.iterator(); iter.hasNext();) {
+                try {
+                    reload(new URL((String) iter.next()));
+                } catch (final MalformedURLException e) {
+                    // cannot happen as the text was a URL
+                }
+            }
+        }
+    }
+
+    /**
+     * Watches the file of the given URL, if it has one, so that its script is
+     * reloaded when it changes.
+     */
+    private void watch(final URL url) {
+        final File file = toFile(url);
+        if (file != null && !closed) {
+            try {
+                watch(file.toPath().toAbsolutePath(), url);
+            } catch (final IOException | ClosedWatchServiceException e) {
+                log.warn("Cannot watch " + file + " for changes, so it will not be reloaded: " + e);
+            }
+        }
+    }
+
+    /**
+     * Watches the directory of the given file, starting the watching thread if
+     * needed, and remembers the URL of its script.
+     */
+    private synchronized void watch(final Path file, final URL url) throws IOException {
+        Set urls = (Set) fileURLs.get(file);
+        if (urls == null) {
+            final Path directory = file.getParent();
+            if (!directories.containsValue(directory)) {
+                final WatchKey key = directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory);
+            }
+            urls = new HashSet();
+            fileURLs.put(file, urls);
+        }
+        urls.add(url.toExternalForm());
+
+        if (watcher == null) {
+            watcher = new Thread("Jelly script reloader") {
+                @Override
+                public void run() {
+                    waitForChanges();
+                }
+            };
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+}
@@ -30,8 +30,61 @@ import org.apache.commons.jelly.XMLOutput;
   */
 public class ScriptBlock implements Script {
 
+    /**
+     * A list of scripts which keeps an array of its scripts to run them from,
+     * rebuilt whenever the list is modified, so that running a block costs no
+     * more than an indexed loop. The array is built when the block is compiled
+     * and published with the modification count it was built at, so that a
+     * thread running a compiled block sees the array and its count together.
+     */
+    private static final class ScriptList extends ArrayList {
+
+        /**
+         * The scripts of the list and the modification count of the list when
+         * they were copied.
+         */
+        private static final class Snapshot {
+
+            private final Script[] scripts;
+
+            private final int modCount;
+
+            Snapshot(final Script[] scripts, final int modCount) {
+                this.scripts = scripts;
+                this.modCount = modCount;
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+
+        /** The scripts in the list or null if they must be copied again */
+        private transient volatile Snapshot snapshot;
+
+        /**
+         * @return The scripts in this list, which must not be modified
+         */
+        Script[] getScripts() {
+            Snapshot answer = snapshot;
+            if (answer == null || answer.modCount != modCount) {
+                answer = new Snapshot((Script[]) toArray(new Script[size()]), modCount);
+                snapshot = answer;
+            }
+            return answer.scripts;
+        }
+
+        @Override
+        public Object set(final int index, final Object element) {
+            // replacing an element does not count as a modification
+            snapshot = null;
+            return super.set(index, element);
+        }
+    }
+
     /** The list of scripts */
-    private final List list = new ArrayList();
+    private final ScriptList list = new ScriptList();
+
+    /** The trimmed copy of this block, created lazily by {@link #getTrimmedScript()} */
+    private volatile Script trimmedScript;
 
     /**
      * Create a new instance.
@@ -42,6 +95,7 @@ public class ScriptBlock implements Script {
     /** Add a new script to the end of this block */
     public void addScript(final Script script) {
         list.add(script);
+        trimmedScript = null;
     }
 
     // Script interface
@@ -58,9 +112,170 @@ public class ScriptBlock implements Script {
             final Script script = (Script) list.get(i);
             list.set(i, script.compile());
         }
+        final Script answer = optimize();
+
+        // create the trimmed copy and the arrays to run from now rather than when the script is first run
+        if (answer instanceof ScriptBlock) {
+            ((ScriptBlock) answer).list.getScripts();
+            ((ScriptBlock) answer).getTrimmedScript();
+        }
+        else if (answer instanceof TextScript) {
+            ((TextScript) answer).getTrimmedScript();
+        }
+        return answer;
+    }
+
+    /**
+     * Joins nested blocks and adjacent text into this block and drops empty text,
+     * then unwraps the block if only one script is left. Each change is only made
+     * if the output of the block is unchanged by it, both when whitespace is
+     * trimmed and when it is not. Joining or dropping text never changes the output
+     * of the block untrimmed, and as the trimmed copy of the block only trims its
+     * text as given by {@link #trimText(String, boolean, boolean)}, whether it
+     * changes the trimmed output is decided from the texts involved alone.
+     *
+     * @return This block or the only script left in it
+     */
+    private Script optimize() {
+        if (!isOptimizable(this)) {
+            return this;
+        }
+        final List scripts = flatten();
+        final int size = scripts.size();
+        final List answer = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            final Script script = (Script) scripts.get(i);
+            final int last = answer.size() - 1;
+            if (isText(script) && last >= 0 && isText((Script) answer.get(last))) {
+                final String previous = getText((Script) answer.get(last));
+                final String text = getText(script);
+                final String joined = previous + text;
+                final boolean first = last == 0;
+                final boolean end = i == size - 1;
+                final String trimmed = trimText(previous, first, false) + trimText(text, false, end);
+                if (trimmed.equals(trimText(joined, first, end))) {
+                    answer.set(last, new TextScript(joined));
+                    continue;
+                }
+            }
+            if (!isText(script) || !getText(script).isEmpty() || !isDroppable(scripts, i, answer)) {
+                answer.add(script);
+            }
+        }
+        if (answer.size() == 1) {
+            final Script script = (Script) answer.get(0);
+            if (!(script instanceof ScriptBlock)) {
+                if (!(script instanceof TextScript)) {
+                    return script;
+                }
+                final String text = getText(script);
+                if (trimText(text, true, true).equals(text.trim())) {
+                    return script;
+                }
+            }
+        }
+        if (!answer.equals(list)) {
+            list.clear();
+            list.addAll(answer);
+            trimmedScript = null;
+        }
         return this;
     }
 
+    /**
+     * @return The scripts of this block with the scripts of the nested blocks
+     * which can be joined into it in their place
+     */
+    private List flatten() {
+        final int size = list.size();
+        final List answer = new ArrayList(size);
+        for (int i = 0; i < size; i++) {
+            final Script script = (Script) list.get(i);
+            if (isOptimizable(script) && isFlattenable(((ScriptBlock) script).list, i == 0, i == size - 1)) {
+                answer.addAll(((ScriptBlock) script).list);
+            }
+            else {
+                answer.add(script);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Returns whether a nested block with the given scripts can be joined into
+     * this block. It is run untrimmed by the trimmed copy of this block, so its
+     * text must be unchanged by trimming once joined. If it is empty, it must not
+     * be the first or last script, as that would change which scripts are trimmed.
+     *
+     * @param first whether the nested block is the first script of this block
+     * @param last whether the nested block is the last script of this block
+     */
+    private boolean isFlattenable(final List scripts, final boolean first, final boolean last) {
+        final int size = scripts.size();
+        if (size == 0) {
+            return !first && !last;
+        }
+        for (int i = 0; i < size; i++) {
+            final Script script = (Script) scripts.get(i);
+            if (script instanceof TextScript) {
+                final String text = getText(script);
+                if (!trimText(text, first && i == 0, last && i == size - 1).equals(text)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the empty text at the given index of the given scripts can
+     * be dropped, given the scripts kept so far. Only the first and the last text
+     * of a block may be trimmed differently from the others, so empty text can be
+     * dropped unless the text next to it would take its place as the first or last.
+     */
+    private static boolean isDroppable(final List scripts, final int index, final List kept) {
+        final int size = scripts.size();
+        if (index == 0) {
+            return size == 1 || !(scripts.get(1) instanceof TextScript);
+        }
+        if (index == size - 1) {
+            return kept.isEmpty() || !(kept.get(kept.size() - 1) instanceof TextScript);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the text output in place of the given text by the trimmed copy of
+     * this block. In this case, all text is trimmed.
+     *
+     * @param first whether the text is that of the first script of the block
+     * @param last whether the text is that of the last script of the block
+     */
+    String trimText(final String text, final boolean first, final boolean last) {
+        return text.trim();
+    }
+
+    private static String getText(final Script script) {
+        final String text = ((TextScript) script).getText();
+        return text != null ? text : "";
+    }
+
+    /**
+     * @return whether the script is text which can be joined with other text or dropped
+     */
+    private static boolean isText(final Script script) {
+        return script != null && script.getClass() == TextScript.class;
+    }
+
+    /**
+     * @return whether the script is a block whose behavior is known, so that it
+     * can be optimized or joined into another block
+     */
+    private static boolean isOptimizable(final Script script) {
+        return script != null
+            && (script.getClass() == ScriptBlock.class || script.getClass() == CompositeTextScriptBlock.class);
+    }
+
     /**
      * Gets the child scripts that make up this block. This list is live
      * so that it can be modified if required
@@ -72,20 +287,54 @@ public class ScriptBlock implements Script {
     /** Removes a script from this block */
     public void removeScript(final Script script) {
         list.remove(script);
+        trimmedScript = null;
+    }
+
+    /**
+     * Returns a copy of this block with its whitespace trimmed as by
+     * {@link #trimWhitespace()}, leaving this block unchanged so that it can
+     * be shared by tags which trim and tags which do not.
+     * The copy is created once and then reused.
+     */
+    public Script getTrimmedScript() {
+        Script answer = trimmedScript;
+        if (answer == null) {
+            final ScriptBlock block = createTrimmedBlock();
+            block.list.getScripts();
+            block.trimmedScript = block;
+            answer = block;
+            trimmedScript = answer;
+        }
+        return answer;
+    }
+
+    /**
+     * Creates the trimmed copy of this block.
+     * In this case, trim all elements, removing any that are empty text.
+     */
+    protected ScriptBlock createTrimmedBlock() {
+        final ScriptBlock answer = new ScriptBlock();
+        for (final Iterator iter = list.iterator(); iter.hasNext(); ) {
+            final Script script = (Script) iter.next();
+            if ( script instanceof TextScript ) {
+                final String text = ((TextScript) script).getText().trim();
+                if ( !text.isEmpty() ) {
+                    answer.list.add(new TextScript(text));
+                }
+            }
+            else {
+                answer.list.add(script);
+            }
+        }
+        return answer;
     }
 
     /** Evaluates the body of a tag */
     @Override
     public void run(final JellyContext context, final XMLOutput output) throws JellyTagException {
-/*
+        final Script[] scripts = list.getScripts();
         for (int i = 0, size = scripts.length; i < size; i++) {
-            Script script = scripts[i];
-            script.run(context, output);
-        }
-*/
-        for (final Iterator iter = list.iterator(); iter.hasNext(); ) {
-            final Script script = (Script) iter.next();
-            script.run(context, output);
+            scripts[i].run(context, output);
         }
     }
 
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.net.URL;
+
+import org.apache.commons.jelly.Script;
+
+/**
+ * <p>{@code ScriptCache} represents a store of compiled {@link Script} instances
+ * keyed by the URL they were parsed from, so that a script which is run many
+ * times is only parsed and compiled once.</p>
+ *
+ * <p>When a cache is set on a {@link org.apache.commons.jelly.JellyContext} it is
+ * consulted by {@code compileScript()} and {@code runScript()} and so also by the
+ * {@code <j:include>} and {@code <j:import>} tags. Implementations must be safe to
+ * use from multiple threads at once.</p>
+ *
+ * <p>A script is compiled against the tag libraries registered in the context which
+ * parsed it, so a cache should only be shared between contexts that are configured
+ * in the same way.</p>
+ */
+public interface ScriptCache {
+
+    /**
+     * Clears all the scripts in this cache.
+     */
+    void clear();
+
+    /**
+     * Returns the compiled script for the given URL or null if there is no such
+     * script in the cache or if the cached script is out of date with respect to
+     * the resource it was parsed from.
+     */
+    Script getScript(URL url);
+
+    /**
+     * Returns a token identifying the current version of the resource of the given
+     * URL, or null if versions are not tracked. It is read before the script is
+     * parsed and given back to {@link #putScript(URL, Script, Object)}, so that a
+     * resource changed while its script is being parsed is still seen to have
+     * changed. The default implementation returns null.
+     */
+    default Object getVersionToken(final URL url) {
+        return null;
+    }
+
+    /**
+     * Removes any compiled script for the given URL from this cache so that it
+     * will be parsed again on its next use.
+     */
+    void invalidate(URL url);
+
+    /**
+     * Stores the compiled script which was parsed from the given URL, taking the
+     * version of the resource as it is when the script is stored.
+     */
+    void putScript(URL url, Script script);
+
+    /**
+     * Stores the compiled script which was parsed from the given URL when it had
+     * the given version, as returned by {@link #getVersionToken(URL)} before the
+     * script was parsed. The default implementation ignores the version.
+     */
+    default void putScript(final URL url, final Script script, final Object versionToken) {
+        putScript(url, script);
+    }
+}
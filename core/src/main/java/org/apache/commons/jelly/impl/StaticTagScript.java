@@ -18,16 +18,24 @@ package org.apache.commons.jelly.impl;
 
 import java.net.URL;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.jelly.DynaTag;
+import org.apache.commons.jelly.ExecutionListener;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.Tag;
 import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
 import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.util.RecordingXMLOutput;
 import org.xml.sax.SAXException;
 
 /**
@@ -35,9 +43,77 @@ import org.xml.sax.SAXException;
  * though its attributes or element content may contain dynamic expressions.
  * The first time this tag evaluates, it may have become a dynamic tag, so it will check that
  * a new dynamic tag has not been generated.</p>
+ *
+ * <p>When compiled, a script whose attributes are constant and whose body holds
+ * only text and other such scripts is the root of a static subtree. The first time
+ * it runs its output is recorded, and from then on the recording is replayed in
+ * one call instead of creating and running each tag, so long as no tag library
+ * has since been registered for any of the subtree's namespaces.</p>
  */
 public class StaticTagScript extends TagScript {
 
+    /**
+     * Adds the namespace URIs of the given body to the set if it is static.
+     *
+     * @return whether the body holds only text and static subtrees
+     */
+    private static boolean addStaticURIs(final Script body, final Set uris) {
+        if (body == null || body instanceof TextScript) {
+            return true;
+        }
+        if (body instanceof StaticTagScript) {
+            final String[] childURIs = ((StaticTagScript) body).staticURIs;
+            if (childURIs == null) {
+                return false;
+            }
+            for (final String childURI : childURIs) {
+                uris.add(childURI);
+            }
+            return true;
+        }
+        if (body instanceof ScriptBlock && !(body instanceof CompositeTextScriptBlock)) {
+            final List list = ((ScriptBlock) body).getScriptList();
+            for (int i = 0, size = list.size(); i < size; i++) {
+                if (!addStaticURIs((Script) list.get(i), uris)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks the static subtrees in the given body as being rendered by an
+     * enclosing static subtree.
+     */
+    private static void setNested(final Script body) {
+        if (body instanceof StaticTagScript) {
+            ((StaticTagScript) body).nested = true;
+        }
+        else if (body instanceof ScriptBlock) {
+            final List list = ((ScriptBlock) body).getScriptList();
+            for (int i = 0, size = list.size(); i < size; i++) {
+                setNested((Script) list.get(i));
+            }
+        }
+    }
+
+    /**
+     * The namespace URIs of the elements of the static subtree rooted at this
+     * script or null if this script is not static
+     */
+    private String[] staticURIs;
+
+    /** Whether this script is rendered as part of an enclosing static subtree */
+    private boolean nested;
+
+    /** The output of the static subtree when its whitespace is trimmed, recorded on first use */
+    private volatile RecordingXMLOutput trimmedEvents;
+
+    /** The output of the static subtree when its whitespace is kept, recorded on first use */
+    private volatile RecordingXMLOutput untrimmedEvents;
+
     public StaticTagScript() {
     }
 
@@ -45,6 +121,32 @@ public class StaticTagScript extends TagScript {
         super(tagFactory);
     }
 
+    /**
+     * Compiles the body and then determines whether this script is the root of
+     * a static subtree which can be rendered once and replayed.
+     */
+    @Override
+    public Script compile() throws JellyException {
+        super.compile();
+        staticURIs = null;
+        for (final Iterator iter = attributes.values().iterator(); iter.hasNext();) {
+            if (!(((ExpressionAttribute) iter.next()).exp instanceof ConstantExpression)) {
+                return this;
+            }
+        }
+        final Tag tag = createTag();
+        if (!(tag instanceof StaticTag)) {
+            return this;
+        }
+        final Set uris = new LinkedHashSet();
+        uris.add(((StaticTag) tag).getUri());
+        if (addStaticURIs(getTagBody(), uris)) {
+            staticURIs = (String[]) uris.toArray(new String[uris.size()]);
+            setNested(getTagBody());
+        }
+        return this;
+    }
+
     /**
      * Attempts to find a dynamically created tag that has been created since this
      * script was compiled
@@ -63,10 +165,98 @@ public class StaticTagScript extends TagScript {
         return tag;
     }
 
+    /**
+     * @return whether no tag library is registered for any namespace of the
+     * static subtree rooted at this script, so that its recorded output can be used
+     */
+    private boolean isPrerendered(final JellyContext context) {
+        final String[] uris = staticURIs;
+        if (uris == null || nested) {
+            return false;
+        }
+        for (final String uri : uris) {
+            if (context.getTagLibrary(uri) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether this script is the root of a static subtree whose output
+     * is recorded and replayed
+     */
+    boolean isStaticSubtree() {
+        return staticURIs != null && !nested;
+    }
+
+    /**
+     * @return whether the whitespace of the static subtree is trimmed, which
+     * depends on the parent tag in the same way as {@link TagSupport#isTrim()}
+     */
+    private boolean isTrimmed(final JellyContext context) throws JellyException {
+        final TagScript parentScript = getParent();
+        if (parentScript == null) {
+            return true;
+        }
+        final Tag parentTag = parentScript.findTag(context);
+        return !(parentTag instanceof TagSupport) || ((TagSupport) parentTag).isTrim();
+    }
+
     // Script interface
     //-------------------------------------------------------------------------
     @Override
     public void run(final JellyContext context, final XMLOutput output) throws JellyTagException {
+        final ExecutionListener listener = context.getExecutionListener();
+        if (listener == null) {
+            runScript(context, output);
+            return;
+        }
+        listener.enterTag(this, context);
+        try {
+            runScript(context, output);
+        }
+        finally {
+            listener.exitTag(this, context);
+        }
+    }
+
+    /**
+     * Replays the output recorded for this script if its tag is static, and
+     * otherwise runs the tag.
+     */
+    private void runScript(final JellyContext context, final XMLOutput output) throws JellyTagException {
+        if (isPrerendered(context)) {
+            final boolean trim;
+            try {
+                trim = isTrimmed(context);
+            } catch (final JellyException e) {
+                throw new JellyTagException(e);
+            }
+            RecordingXMLOutput events = trim ? trimmedEvents : untrimmedEvents;
+            if (events == null) {
+                events = new RecordingXMLOutput();
+                runTag(context, events);
+                if (trim) {
+                    trimmedEvents = events;
+                } else {
+                    untrimmedEvents = events;
+                }
+            }
+            try {
+                events.replay(output);
+            } catch (final SAXException e) {
+                throw new JellyTagException("could not replay static content", e);
+            }
+            return;
+        }
+        runTag(context, output);
+    }
+
+    /**
+     * Runs the tag for this script, and so its body, without using any recorded output.
+     */
+    private void runTag(final JellyContext context, final XMLOutput output) throws JellyTagException {
         try {
             startNamespacePrefixes(output);
         } catch (final SAXException e) {
@@ -89,6 +279,7 @@ public class StaticTagScript extends TagScript {
 
         final URL rootURL = context.getRootURL();
         final URL currentURL = context.getCurrentURL();
+        final ExecutionListener listener = context.getExecutionListener();
         try {
             if (tag == null) {
                 return;
@@ -112,8 +303,10 @@ public class StaticTagScript extends TagScript {
 
                 if (Expression.class.isAssignableFrom(dynaTag.getAttributeType(name))) {
                     value = expression;
-                } else {
+                } else if (listener == null) {
                     value = expression.evaluate(context);
+                } else {
+                    value = evaluateAttribute(expression, context, listener, false);
                 }
 
                 if (expat.prefix != null && expat.prefix.length() > 0 && tag instanceof StaticTag) {
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.Tag;
+
+/**
+ * <p>{@code TagFrame} holds the Tag instances evaluated by the {@link TagScript}s
+ * of a run, so that the compiled scripts themselves hold no state and can be run
+ * by many threads at once.</p>
+ *
+ * <p>Each thread has a current frame. Unless another frame has been entered, it
+ * is the root frame of the thread, which lasts as long as the thread does. A run
+ * which must not share tags with the thread it runs on, such as an iteration of a
+ * parallel loop, enters a frame of its own whose parent is the frame the run was
+ * started from, and leaves it once done, dropping its tags. The tags of the
+ * enclosing scripts are found in the parent frames.</p>
+ *
+ * <p>A frame is only used by one thread at a time, while its parent frames are
+ * only read.</p>
+ */
+public final class TagFrame {
+
+    /** The frame the current thread is running in, if it has one */
+    private static final ThreadLocal CURRENT = new ThreadLocal();
+
+    /**
+     * @return the frame the current thread is running in, creating the root frame
+     * of the thread if it has none
+     */
+    public static TagFrame current() {
+        TagFrame frame = (TagFrame) CURRENT.get();
+        if (frame == null) {
+            frame = new TagFrame(null);
+            CURRENT.set(frame);
+        }
+        return frame;
+    }
+
+    /**
+     * Makes the given frame, as returned by {@link #enter()}, the current frame again.
+     *
+     * @param previous The frame to return to, or null to return to a new root frame
+     */
+    public static void leave(final TagFrame previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /** The frame this frame was started from, or null for a root frame */
+    private final TagFrame parent;
+
+    /** The tags of this frame, keyed by script */
+    private final Map tags = new IdentityHashMap();
+
+    /**
+     * Creates a frame whose scripts are enclosed by those of the given frame.
+     *
+     * @param parent The frame this frame is started from, or null
+     */
+    public TagFrame(final TagFrame parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Makes this frame the current frame of this thread.
+     *
+     * @return the previous current frame, to be passed to {@link #leave(TagFrame)}
+     */
+    public TagFrame enter() {
+        final TagFrame previous = (TagFrame) CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * @return the tag of the given script in this frame or, failing that, in the
+     * nearest parent frame which has one
+     */
+    Tag find(final TagScript script) {
+        for (TagFrame frame = this; frame != null; frame = frame.parent) {
+            final Tag tag = frame.get(script);
+            if (tag != null) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the tag of the given script in this frame
+     */
+    Tag get(final TagScript script) {
+        return (Tag) tags.get(script);
+    }
+
+    void put(final TagScript script, final Tag tag) {
+        tags.put(script, tag);
+    }
+
+    void remove(final TagScript script) {
+        tags.remove(script);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.beanutils2.ConvertUtils;
+import org.apache.commons.beanutils2.Converter;
+import org.apache.commons.beanutils2.MethodUtils;
+import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>{@code TagProperties} holds the bean properties of a bean tag class which can
+ * be set from attributes. They are introspected once per class and shared by all
+ * the TagScripts which use that class, so setting an attribute does not need a new
+ * {@code ConvertingWrapDynaBean} for each run.</p>
+ *
+ * <p>Values are converted in the same way as {@code ConvertingWrapDynaBean} does,
+ * using the converters registered with {@code ConvertUtils}. The converter of a
+ * property is looked up the first time it is needed, so a converter registered
+ * after that is not used for the property. Properties are set through a
+ * MethodHandle of their write method, resolved once per property.</p>
+ */
+final class TagProperties {
+
+    /**
+     * A property of a bean tag.
+     */
+    static final class TagProperty {
+
+        private final String name;
+        private final Class type;
+        private final Method writeMethod;
+        private final Class beanClass;
+
+        /**
+         * The write method as a MethodHandle of type {@code (Object, Object)void},
+         * or null if it cannot be accessed through a public lookup.
+         */
+        private final MethodHandle setter;
+
+        /** The type of the values taken by the write method, boxed if primitive */
+        private final Class valueType;
+
+        /** The converter to the type of this property, looked up when first needed */
+        private volatile Converter converter;
+
+        /** Whether the property is set to the attribute expression rather than its value */
+        private final boolean expression;
+
+        TagProperty(final String name, final Class type, final Method writeMethod, final Class beanClass) {
+            this.name = name;
+            this.type = type;
+            this.writeMethod = writeMethod;
+            this.beanClass = beanClass;
+            this.expression = type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class);
+            this.setter = writeMethod != null ? unreflect(writeMethod) : null;
+            this.valueType = MethodType.methodType(type).wrap().returnType();
+        }
+
+        /**
+         * Converts the given value to the type of this property
+         */
+        private Object convert(final Object value) {
+            if (type.isInstance(value)) {
+                return value;
+            }
+            if (value instanceof String[]) {
+                if (type.isArray()) {
+                    return ConvertUtils.convert((String[]) value, type);
+                }
+                final String[] values = (String[]) value;
+                return ConvertUtils.convert(values.length > 0 ? values[0] : null, type);
+            }
+            final Converter found = getConverter();
+            if (found != null) {
+                return found.convert(type, value);
+            }
+            if (value instanceof String) {
+                return ConvertUtils.convert((String) value, type);
+            }
+            return value;
+        }
+
+        /**
+         * @return the converter to the type of this property, or null if there is none
+         */
+        private Converter getConverter() {
+            Converter answer = converter;
+            if (answer == null) {
+                answer = ConvertUtils.lookup(type);
+                converter = answer;
+            }
+            return answer;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Class getType() {
+            return type;
+        }
+
+        /**
+         * @return whether this property takes the attribute's Expression rather than its value
+         */
+        boolean isExpression() {
+            return expression;
+        }
+
+        /**
+         * @return the exception thrown when the value could not be passed to the write method
+         */
+        private IllegalArgumentException setFailed(final Throwable cause) {
+            final IllegalArgumentException iae = new IllegalArgumentException(
+                "Error setting property '" + name + "', exception - " + cause);
+            iae.initCause(cause);
+            return iae;
+        }
+
+        /**
+         * Converts the value to the type of this property and sets it on the given bean.
+         *
+         * @throws IllegalArgumentException if the property could not be set, as
+         * {@code ConvertingWrapDynaBean} would.
+         */
+        void setValue(final Object bean, final Object value) {
+            if (writeMethod == null) {
+                throw new IllegalArgumentException("Error setting property '" + name
+                    + "' nested exception - java.lang.NoSuchMethodException: Property '" + name
+                    + "' has no setter method in class '" + beanClass + "'");
+            }
+            if (setter == null) {
+                try {
+                    writeMethod.invoke(bean, new Object[] { convert(value) });
+                } catch (final InvocationTargetException e) {
+                    throw setterFailed(e.getTargetException());
+                } catch (final IllegalAccessException | RuntimeException e) {
+                    throw setFailed(e);
+                }
+                return;
+            }
+            final Object converted;
+            try {
+                converted = convert(value);
+            } catch (final RuntimeException e) {
+                throw setFailed(e);
+            }
+            if (converted == null ? type.isPrimitive() : !valueType.isInstance(converted)) {
+                throw setFailed(new IllegalArgumentException("argument type mismatch"));
+            }
+            try {
+                setter.invokeExact(bean, converted);
+            } catch (final Throwable e) {
+                throw setterFailed(e);
+            }
+        }
+
+        /**
+         * @return the exception thrown when the write method failed
+         */
+        private IllegalArgumentException setterFailed(final Throwable cause) {
+            final IllegalArgumentException iae = new IllegalArgumentException(
+                "Error setting property '" + name + "' nested exception - " + cause);
+            iae.initCause(cause);
+            return iae;
+        }
+
+        /**
+         * @return the given write method as a MethodHandle of type
+         * {@code (Object, Object)void}, or null if it cannot be accessed
+         */
+        private static MethodHandle unreflect(final Method writeMethod) {
+            try {
+                return MethodHandles.publicLookup().unreflect(writeMethod)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (final IllegalAccessException e) {
+                // setValue() will use reflection which reports the problem
+                return null;
+            }
+        }
+    }
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(TagProperties.class);
+
+    /** The properties of each class, computed on first use */
+    private static final ClassValue CACHE = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            return new TagProperties(type);
+        }
+    };
+
+    /**
+     * @return The properties of the given bean tag class
+     */
+    static TagProperties forClass(final Class beanClass) {
+        return (TagProperties) CACHE.get(beanClass);
+    }
+
+    /** The properties keyed by name */
+    private final Map properties = new HashMap();
+
+    private TagProperties(final Class beanClass) {
+        PropertyDescriptor[] descriptors = null;
+        try {
+            final BeanInfo beanInfo = Introspector.getBeanInfo(beanClass);
+            descriptors = beanInfo.getPropertyDescriptors();
+        } catch (final IntrospectionException e) {
+            log.warn("Could not introspect tag class: " + beanClass.getName(), e);
+        }
+        if (descriptors != null) {
+            for (final PropertyDescriptor descriptor : descriptors) {
+                final String name = descriptor.getName();
+                final Class type = descriptor.getPropertyType();
+                // the class property is not exposed as an attribute, as with BeanUtils
+                if (type == null || "class".equals(name)) {
+                    continue;
+                }
+                Method writeMethod = descriptor.getWriteMethod();
+                if (writeMethod != null) {
+                    writeMethod = MethodUtils.getAccessibleMethod(beanClass, writeMethod);
+                }
+                properties.put(name, new TagProperty(name, type, writeMethod, beanClass));
+            }
+        }
+    }
+
+    /**
+     * @return The property of the given name or null if there is no such property
+     */
+    TagProperty getProperty(final String name) {
+        return (TagProperty) properties.get(name);
+    }
+}
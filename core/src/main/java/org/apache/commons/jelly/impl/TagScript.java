@@ -20,18 +20,15 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.WeakHashMap;
 
 import org.apache.commons.beanutils2.ConvertUtils;
-import org.apache.commons.beanutils2.ConvertingWrapDynaBean;
-import org.apache.commons.beanutils2.DynaBean;
-import org.apache.commons.beanutils2.DynaProperty;
 import org.apache.commons.jelly.CompilableTag;
 import org.apache.commons.jelly.DynaTag;
+import org.apache.commons.jelly.ExecutionListener;
 import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.JellyTagException;
@@ -41,7 +38,10 @@ import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.Tag;
 import org.apache.commons.jelly.TagLibrary;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.CompositeExpression;
 import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.impl.TagProperties.TagProperty;
+import org.apache.commons.jelly.util.TagUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xml.sax.Attributes;
@@ -69,9 +69,35 @@ final class ExpressionAttribute {
  * <p>{@code TagScript} is a Script that evaluates a custom tag.</p>
  *
  * <strong>Note</strong> that this class should be re-entrant and used
- * concurrently by multiple threads.
+ * concurrently by multiple threads. The compiled script itself is not modified
+ * when it is run; the Tag instances it evaluates are held in the current
+ * {@link TagFrame} of the thread running it. Runs which enter a frame of their
+ * own, such as the iterations of a parallel loop, drop their tags when they leave
+ * it, while the root frame of a thread keeps the last tag of each script it ran
+ * until the thread ends or the tag is cleared with {@link #clearTags()}.
  */
-public class TagScript implements Script {
+public class TagScript implements Script, LocationAware {
+
+    /**
+     * The attributes of a TagScript compiled into parallel arrays, along with
+     * the bean properties they set when the tag is a bean of the given class.
+     */
+    private static final class CompiledAttributes {
+        private final String[] names;
+        private final Expression[] expressions;
+
+        /** The bean tag class whose properties were resolved or null for a DynaTag */
+        private final Class tagClass;
+        private final TagProperty[] properties;
+
+        CompiledAttributes(final String[] names, final Expression[] expressions,
+                           final Class tagClass, final TagProperty[] properties) {
+            this.names = names;
+            this.expressions = expressions;
+            this.tagClass = tagClass;
+            this.properties = properties;
+        }
+    }
 
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(TagScript.class);
@@ -85,9 +111,15 @@ public class TagScript implements Script {
         return new TagScript(factory);
     }
 
-    /** The attribute expressions that are created */
+    /**
+     * The attribute expressions that are created. This stays a Hashtable, as its
+     * iteration order is the order in which static tags output their attributes.
+     */
     protected Map attributes = new Hashtable();
 
+    /** The attributes compiled lazily into arrays on first run */
+    private volatile CompiledAttributes compiledAttributes;
+
     /** The optional namespaces Map of prefix to URI of this single Tag */
     private Map tagNamespacesMap;
 
@@ -96,7 +128,7 @@ public class TagScript implements Script {
      * at the point this tag is used.
      * This Map is only created lazily if it is required by the NamespaceAwareTag.
      */
-    private Map namespaceContext;
+    private volatile Map namespaceContext;
 
     /** The Jelly file which caused the problem */
     private String fileName;
@@ -131,10 +163,6 @@ public class TagScript implements Script {
     /** The url of the script when parsed */
     private URL scriptURL = null;
 
-    /** A synchronized WeakHashMap from the current Thread (key) to a Tag object (value).
-     */
-    private final Map threadLocalTagCache = Collections.synchronizedMap(new WeakHashMap());
-
     public TagScript() {
     }
 
@@ -150,6 +178,7 @@ public class TagScript implements Script {
             log.debug("adding attribute name: " + name + " expression: " + expression);
         }
         attributes.put(name, new ExpressionAttribute(name, expression));
+        compiledAttributes = null;
     }
 
     /** Add an initialization attribute for the tag.
@@ -163,6 +192,7 @@ public class TagScript implements Script {
             name = prefix + ':' + name;
         }
         attributes.put(name, new ExpressionAttribute(name, prefix, nsURI, expression));
+        compiledAttributes = null;
     }
 
     protected void applyLocation(final LocationAware locationAware) {
@@ -182,21 +212,73 @@ public class TagScript implements Script {
      * Flushes the current cached tag so that it will be created, lazily, next invocation
      */
     protected void clearTag() {
-        final Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t, null);
+        TagFrame.current().remove(this);
     }
 
     /**
-     * Compiles the tags body
+     * Drops the tags held in the current frame of this thread by this script and
+     * by the scripts in its body.
+     *
+     * @see TagUtils#clearTags(Script)
+     */
+    public void clearTags() {
+        clearTag();
+        TagUtils.clearTags(tagBody);
+    }
+
+    /**
+     * Compiles the tags body and joins the constant parts of its attribute expressions
      */
     @Override
     public Script compile() throws JellyException {
         if (tagBody != null) {
             tagBody = tagBody.compile();
         }
+        for (final Iterator iter = attributes.values().iterator(); iter.hasNext();) {
+            final ExpressionAttribute attribute = (ExpressionAttribute) iter.next();
+            if (attribute.exp instanceof CompositeExpression) {
+                attribute.exp = ((CompositeExpression) attribute.exp).foldConstants();
+            }
+        }
+        compiledAttributes = null;
         return this;
     }
 
+    /**
+     * Compiles the attributes into arrays, resolving the bean properties they
+     * set if the tag class is given.
+     *
+     * @param tagClass The class of the bean tag or null for a DynaTag
+     * @throws JellyException if the bean tag does not have a property for an attribute
+     */
+    private CompiledAttributes compileAttributes(final Class tagClass) throws JellyException {
+        final int size = attributes.size();
+        final String[] names = new String[size];
+        final Expression[] expressions = new Expression[size];
+        TagProperties tagProperties = null;
+        TagProperty[] properties = null;
+        if (tagClass != null) {
+            tagProperties = TagProperties.forClass(tagClass);
+            properties = new TagProperty[size];
+        }
+        int i = 0;
+        for (final Iterator iter = attributes.entrySet().iterator(); iter.hasNext() && i < size; i++) {
+            final Map.Entry entry = (Map.Entry) iter.next();
+            final String name = (String) entry.getKey();
+            names[i] = name;
+            expressions[i] = ((ExpressionAttribute) entry.getValue()).exp;
+
+            if (tagProperties != null) {
+                final TagProperty property = tagProperties.getProperty(name);
+                if (property == null) {
+                    throw new JellyException("This tag does not understand the '" + name + "' attribute" );
+                }
+                properties[i] = property;
+            }
+        }
+        return new CompiledAttributes(names, expressions, tagClass, properties);
+    }
+
     /**
      * Compiles a newly created tag if required, sets its parent and body.
      */
@@ -207,7 +289,7 @@ public class TagScript implements Script {
         }
         Tag parentTag = null;
         if ( parent != null ) {
-            parentTag = parent.getTag(context);
+            parentTag = parent.findTag(context);
         }
         tag.setParent( parentTag );
         tag.setBody( tagBody );
@@ -298,6 +380,34 @@ public class TagScript implements Script {
         }
     }
 
+    /**
+     * Evaluates an attribute expression of this tag, telling the given listener
+     * before and after.
+     *
+     * @param recurse whether to call {@link Expression#evaluateRecurse} rather
+     * than {@link Expression#evaluate}
+     */
+    final Object evaluateAttribute(final Expression expression, final JellyContext context,
+        final ExecutionListener listener, final boolean recurse) {
+        listener.enterExpression(expression, this);
+        try {
+            return recurse ? expression.evaluateRecurse(context) : expression.evaluate(context);
+        }
+        finally {
+            listener.exitExpression(expression, this);
+        }
+    }
+
+    /**
+     * @return The tag of this script in the current frame or, failing that, in the
+     * frames enclosing it, creating it in the current frame if there is none. This is
+     * how the tags of the enclosing scripts are found.
+     */
+    Tag findTag(final JellyContext context) throws JellyException {
+        final Tag tag = TagFrame.current().find(this);
+        return tag != null ? tag : getTag(context);
+    }
+
     /**
      * @return The column number of the tag
      */
@@ -353,26 +463,29 @@ public class TagScript implements Script {
      * @return A Map with the keys are namespace prefixes and the values are
      * namespace URIs.
      */
-    public synchronized Map getNamespaceContext() {
-        if (namespaceContext == null) {
+    public Map getNamespaceContext() {
+        // no locking needed; racing threads would just compute equal maps
+        Map answer = namespaceContext;
+        if (answer == null) {
             if (parent != null) {
-                namespaceContext = getParent().getNamespaceContext();
+                answer = getParent().getNamespaceContext();
                 if (tagNamespacesMap != null && !tagNamespacesMap.isEmpty()) {
                     // create a new child context
-                    final Hashtable newContext = new Hashtable(namespaceContext.size()+1);
-                    newContext.putAll(namespaceContext);
+                    final Map newContext = new HashMap(answer.size()+1);
+                    newContext.putAll(answer);
                     newContext.putAll(tagNamespacesMap);
-                    namespaceContext = newContext;
+                    answer = newContext;
                 }
             }
             else {
-                namespaceContext = tagNamespacesMap;
-                if (namespaceContext == null) {
-                    namespaceContext = new Hashtable();
+                answer = tagNamespacesMap;
+                if (answer == null) {
+                    answer = new HashMap();
                 }
             }
+            namespaceContext = answer;
         }
-        return namespaceContext;
+        return answer;
     }
 
     /**
@@ -392,15 +505,15 @@ public class TagScript implements Script {
     }
 
     /**
-     * @return The tag to be evaluated, creating it lazily if required.
+     * @return The tag to be evaluated in the current frame, creating it lazily if required.
      */
     public Tag getTag(final JellyContext context) throws JellyException {
-        final Thread t = Thread.currentThread();
-        Tag tag = (Tag) threadLocalTagCache.get(t);
+        final TagFrame frame = TagFrame.current();
+        Tag tag = frame.get(this);
         if (tag == null) {
             tag = createTag();
             if (tag != null) {
-                threadLocalTagCache.put(t, tag);
+                frame.put(this, tag);
                 configureTag(tag, context);
             }
         }
@@ -516,6 +629,10 @@ public class TagScript implements Script {
         if ( ! context.isCacheTags() ) {
             clearTag();
         }
+        final ExecutionListener listener = context.getExecutionListener();
+        if (listener != null) {
+            listener.enterTag(this, context);
+        }
         try {
             final Tag tag = getTag(context);
             if ( tag == null ) {
@@ -527,51 +644,62 @@ public class TagScript implements Script {
             if ( tag instanceof DynaTag ) {
                 final DynaTag dynaTag = (DynaTag) tag;
 
-                // ### probably compiling this to 2 arrays might be quicker and smaller
-                for (final Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    final Map.Entry entry = (Map.Entry) iter.next();
-                    final String name = (String) entry.getKey();
-                    final Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
+                CompiledAttributes compiled = compiledAttributes;
+                if (compiled == null) {
+                    compiled = compileAttributes(null);
+                    compiledAttributes = compiled;
+                }
+                final String[] names = compiled.names;
+                final Expression[] expressions = compiled.expressions;
+                for (int i = 0; i < names.length; i++) {
+                    final String name = names[i];
+                    final Expression expression = expressions[i];
 
                     final Class type = dynaTag.getAttributeType(name);
                     Object value = null;
                     if (type != null && type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
                         value = expression;
                     }
-                    else {
+                    else if (listener == null) {
                         value = expression.evaluateRecurse(context);
                     }
+                    else {
+                        value = evaluateAttribute(expression, context, listener, true);
+                    }
                     dynaTag.setAttribute(name, value);
                 }
             }
             else {
-                // treat the tag as a bean
-                final DynaBean dynaBean = new ConvertingWrapDynaBean( tag );
-                for (final Iterator iter = attributes.entrySet().iterator(); iter.hasNext();) {
-                    final Map.Entry entry = (Map.Entry) iter.next();
-                    final String name = (String) entry.getKey();
-                    final Expression expression = ((ExpressionAttribute) entry.getValue()).exp;
-
-                    final DynaProperty property = dynaBean.getDynaClass().getDynaProperty(name);
-                    if (property == null) {
-                        throw new JellyException("This tag does not understand the '" + name + "' attribute" );
-                    }
-                    final Class type = property.getType();
+                // treat the tag as a bean, using the properties resolved for its class
+                final Class tagClass = tag.getClass();
+                CompiledAttributes compiled = compiledAttributes;
+                if (compiled == null || compiled.tagClass != tagClass) {
+                    compiled = compileAttributes(tagClass);
+                    compiledAttributes = compiled;
+                }
+                final Expression[] expressions = compiled.expressions;
+                final TagProperty[] properties = compiled.properties;
+                for (int i = 0; i < properties.length; i++) {
+                    final TagProperty property = properties[i];
+                    final Expression expression = expressions[i];
 
                     Object value = null;
-                    if (type.isAssignableFrom(Expression.class) && !type.isAssignableFrom(Object.class)) {
+                    if (property.isExpression()) {
                         value = expression;
                     }
-                    else {
+                    else if (listener == null) {
                         value = expression.evaluateRecurse(context);
                     }
-                    dynaBean.set(name, value);
+                    else {
+                        value = evaluateAttribute(expression, context, listener, true);
+                    }
+                    property.setValue(tag, value);
                 }
             }
 
             tag.doTag(output);
             if (output != null) {
-                output.flush();
+                output.tagCompleted(parent == null);
             }
         }
         catch (final JellyTagException e) {
@@ -591,6 +719,9 @@ public class TagScript implements Script {
         } finally {
             context.setRootURL(rootURL);
             context.setCurrentURL(currentURL);
+            if (listener != null) {
+                listener.exitTag(this, context);
+            }
         }
 
     }
@@ -688,8 +819,7 @@ public class TagScript implements Script {
      * when a StaticTag is switched with a DynamicTag
      */
     protected void setTag(final Tag tag, final JellyContext context) {
-        final Thread t = Thread.currentThread();
-        threadLocalTagCache.put(t, tag);
+        TagFrame.current().put(this, tag);
     }
 
     /**
@@ -719,12 +849,10 @@ public class TagScript implements Script {
      * Sets the optional namespaces prefix to URI map of
      * the namespaces attached to this Tag
      */
-    public void setTagNamespacesMap(Map tagNamespacesMap) {
-        // lets check that this is a thread-safe map
-        if ( ! (tagNamespacesMap instanceof Hashtable) ) {
-            tagNamespacesMap = new Hashtable( tagNamespacesMap );
-        }
-        this.tagNamespacesMap = tagNamespacesMap;
+    public void setTagNamespacesMap(final Map tagNamespacesMap) {
+        // take our own copy, a Hashtable as its iteration order is the order
+        // in which the namespaces are declared in the output
+        this.tagNamespacesMap = new Hashtable( tagNamespacesMap );
     }
 
     /**
@@ -29,6 +29,12 @@ public class TextScript implements Script {
     /** The text output by this script */
     private String text;
 
+    /** The trimmed copy of this script, created lazily by {@link #getTrimmedScript()} */
+    private volatile TextScript trimmedScript;
+
+    /** The characters of the text, copied once rather than every time they are output */
+    private volatile char[] characters;
+
     public TextScript() {
     }
 
@@ -52,17 +58,41 @@ public class TextScript implements Script {
     @Override
     public void run(final JellyContext context, final XMLOutput output) throws JellyTagException {
         if (text != null) {
+            char[] ch = characters;
+            if (ch == null) {
+                ch = text.toCharArray();
+                characters = ch;
+            }
             try {
-                output.write(text);
+                output.characters(ch, 0, ch.length);
             } catch (final SAXException e) {
                 throw new JellyTagException("could not write to XMLOutput", e);
             }
         }
     }
 
+    /**
+     * Returns a script for the text of this script with its whitespace trimmed,
+     * leaving this script unchanged.
+     */
+    public Script getTrimmedScript() {
+        if (text == null) {
+            return this;
+        }
+        TextScript answer = trimmedScript;
+        if (answer == null) {
+            final String trimmed = text.trim();
+            answer = trimmed.length() == text.length() ? this : new TextScript(trimmed);
+            trimmedScript = answer;
+        }
+        return answer;
+    }
+
     /** Sets the text output by this script */
     public void setText(final String text) {
         this.text = text;
+        this.trimmedScript = null;
+        this.characters = null;
     }
 
     @Override
@@ -74,6 +104,26 @@ public class TextScript implements Script {
      * Trims whitespace from the end of the text
      */
     public void trimEndWhitespace() {
+        final String trimmed = trimEnd(text);
+        if (trimmed.length() < text.length()) {
+            setText(trimmed);
+        }
+    }
+
+    /**
+     * Trims whitespace from the start of the text
+     */
+    public void trimStartWhitespace() {
+        final String trimmed = trimStart(text);
+        if (trimmed.length() < text.length()) {
+            setText(trimmed);
+        }
+    }
+
+    /**
+     * @return The given text without the whitespace at its end
+     */
+    static String trimEnd(final String text) {
         int index = text.length();
         while (--index >= 0) {
             final char ch = text.charAt(index);
@@ -81,16 +131,13 @@ public class TextScript implements Script {
                 break;
             }
         }
-        index++;
-        if (index < text.length()) {
-            this.text = text.substring(0, index);
-        }
+        return text.substring(0, index + 1);
     }
 
     /**
-     * Trims whitespace from the start of the text
+     * @return The given text without the whitespace at its start
      */
-    public void trimStartWhitespace() {
+    static String trimStart(final String text) {
         int index = 0;
         for ( final int length = text.length(); index < length; index++ ) {
             final char ch = text.charAt(index);
@@ -98,15 +145,13 @@ public class TextScript implements Script {
                 break;
             }
         }
-        if ( index > 0 ) {
-            this.text = text.substring(index);
-        }
+        return text.substring(index);
     }
 
     /**
      * Trims whitespace from the start and end of the text in this script
      */
     public void trimWhitespace() {
-        this.text = text.trim();
+        setText(text.trim());
     }
 }
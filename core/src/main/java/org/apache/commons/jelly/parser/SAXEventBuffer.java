@@ -0,0 +1,875 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * <p>{@code SAXEventBuffer} records SAX events so that they can be replayed later,
+ * as many times as needed, or written out and read back in, without parsing the
+ * XML again.</p>
+ *
+ * <p>The events are held in a few arrays: the event codes and their operands, a
+ * pool of all the characters and a table of the distinct strings and objects. Names,
+ * namespace URIs and attribute values are stored once and referred to by index
+ * thereafter, and text is replayed straight from the pool without being copied. A
+ * buffer may be {@link #clear() cleared} and reused, keeping the arrays it has
+ * allocated.</p>
+ *
+ * <p>If a {@link Locator} is supplied while recording then the line and column of
+ * each element and block of text are kept as well, and a locator reporting them is
+ * passed to the handler on replay. Objects passed to {@link #objectData(Object)}
+ * are kept as they are and passed on to an {@link XMLOutput} on replay, or written
+ * as text to any other handler.</p>
+ *
+ * <p>A buffer may be given a target handler to which each event is passed on as it
+ * is recorded, so that it can record the events of a parse as they happen.</p>
+ *
+ * <p>A buffer may be replayed by many threads at once, but must not be replayed
+ * while events are still being recorded.</p>
+ */
+public class SAXEventBuffer implements ContentHandler, LexicalHandler {
+
+    private static final int START_DOCUMENT = 1;
+    private static final int END_DOCUMENT = 2;
+    private static final int START_PREFIX_MAPPING = 3;
+    private static final int END_PREFIX_MAPPING = 4;
+    private static final int START_ELEMENT = 5;
+    private static final int END_ELEMENT = 6;
+    private static final int CHARACTERS = 7;
+    private static final int IGNORABLE_WHITESPACE = 8;
+    private static final int PROCESSING_INSTRUCTION = 9;
+    private static final int SKIPPED_ENTITY = 10;
+    private static final int COMMENT = 11;
+    private static final int START_CDATA = 12;
+    private static final int END_CDATA = 13;
+    private static final int START_DTD = 14;
+    private static final int END_DTD = 15;
+    private static final int START_ENTITY = 16;
+    private static final int END_ENTITY = 17;
+    private static final int OBJECT_DATA = 18;
+
+    /** Set on an event code if the event is followed by its line and column */
+    private static final int LOCATED = 0x80;
+
+    /** The event codes, each followed by its operands */
+    private int[] events;
+
+    /** The number of ints of events used */
+    private int eventsSize;
+
+    /** The characters of all the recorded text */
+    private char[] chars;
+
+    /** The number of characters used */
+    private int charsSize;
+
+    /** The distinct strings and the objects referred to by the events, by index plus one */
+    private Object[] values;
+
+    /** The number of values used */
+    private int valuesSize;
+
+    /** The index plus one of each string in the values */
+    private final Map stringIndexes = new HashMap();
+
+    /** Whether any event has been recorded with its location */
+    private boolean hasLocations;
+
+    /** The system ID of the recorded document if known */
+    private String systemId;
+
+    /** The locator of the parser whose events are being recorded */
+    private Locator locator;
+
+    /** The handler to which events are passed on as they are recorded */
+    private ContentHandler target;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public SAXEventBuffer() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty buffer which passes on events to the given handler as
+     * they are recorded.
+     */
+    public SAXEventBuffer(final ContentHandler target) {
+        this.target = target;
+        this.events = new int[64];
+        this.chars = new char[256];
+        this.values = new Object[32];
+    }
+
+    /**
+     * Reads a buffer previously written by {@link #writeTo}.
+     *
+     * @throws IOException if the data could not be read or is not a valid buffer
+     */
+    public static SAXEventBuffer readFrom(final DataInput in) throws IOException {
+        final SAXEventBuffer answer = new SAXEventBuffer();
+        final boolean hasSystemId = in.readBoolean();
+        answer.systemId = hasSystemId ? in.readUTF() : null;
+        answer.hasLocations = in.readBoolean();
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt SAX event buffer");
+        }
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        final Decoder decoder = new Decoder(data);
+
+        answer.valuesSize = decoder.readCount();
+        answer.values = new Object[Math.max(answer.valuesSize, 1)];
+        for (int i = 0; i < answer.valuesSize; i++) {
+            final int stringLength = decoder.readCount();
+            final String value = new String(decoder.readChars(new char[stringLength], 0, stringLength));
+            answer.values[i] = value;
+            answer.stringIndexes.put(value, Integer.valueOf(i + 1));
+        }
+        answer.eventsSize = decoder.readCount();
+        answer.events = new int[Math.max(answer.eventsSize, 1)];
+        for (int i = 0; i < answer.eventsSize; i++) {
+            answer.events[i] = decoder.readInt();
+        }
+        answer.charsSize = decoder.readCount();
+        answer.chars = decoder.readChars(new char[Math.max(answer.charsSize, 1)], 0, answer.charsSize);
+        if (decoder.position != length) {
+            throw new IOException("Corrupt SAX event buffer: " + (length - decoder.position) + " bytes left over");
+        }
+        answer.checkEvents();
+        return answer;
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        addLocatedEvent(CHARACTERS);
+        addChars(ch, start, length);
+        if (target != null) {
+            target.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        addInt(END_DOCUMENT);
+        if (target != null) {
+            target.endDocument();
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        addLocatedEvent(END_ELEMENT);
+        addString(uri);
+        addString(localName);
+        addString(qName);
+        if (target != null) {
+            target.endElement(uri, localName, qName);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        addInt(END_PREFIX_MAPPING);
+        addString(prefix);
+        if (target != null) {
+            target.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        addInt(IGNORABLE_WHITESPACE);
+        addChars(ch, start, length);
+        if (target != null) {
+            target.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(final String piTarget, final String piData) throws SAXException {
+        addInt(PROCESSING_INSTRUCTION);
+        addString(piTarget);
+        addString(piData);
+        if (target != null) {
+            target.processingInstruction(piTarget, piData);
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        this.locator = locator;
+        if (target != null) {
+            target.setDocumentLocator(locator);
+        }
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+        addInt(SKIPPED_ENTITY);
+        addString(name);
+        if (target != null) {
+            target.skippedEntity(name);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (locator != null && systemId == null) {
+            systemId = locator.getSystemId();
+        }
+        addInt(START_DOCUMENT);
+        if (target != null) {
+            target.startDocument();
+        }
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+        throws SAXException {
+        addLocatedEvent(START_ELEMENT);
+        addString(uri);
+        addString(localName);
+        addString(qName);
+        final int count = atts.getLength();
+        addInt(count);
+        for (int i = 0; i < count; i++) {
+            addString(atts.getURI(i));
+            addString(atts.getLocalName(i));
+            addString(atts.getQName(i));
+            addString(atts.getType(i));
+            addString(atts.getValue(i));
+        }
+        if (target != null) {
+            target.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        addInt(START_PREFIX_MAPPING);
+        addString(prefix);
+        addString(uri);
+        if (target != null) {
+            target.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        addInt(COMMENT);
+        addChars(ch, start, length);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).comment(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        addInt(END_CDATA);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).endCDATA();
+        }
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        addInt(END_DTD);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).endDTD();
+        }
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+        addInt(END_ENTITY);
+        addString(name);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).endEntity(name);
+        }
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        addInt(START_CDATA);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).startCDATA();
+        }
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId, final String dtdSystemId) throws SAXException {
+        addInt(START_DTD);
+        addString(name);
+        addString(publicId);
+        addString(dtdSystemId);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).startDTD(name, publicId, dtdSystemId);
+        }
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+        addInt(START_ENTITY);
+        addString(name);
+        if (target instanceof LexicalHandler) {
+            ((LexicalHandler) target).startEntity(name);
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The system ID of the recorded document or null if it is not known
+     */
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * @return The handler to which events are passed on as they are recorded
+     * or null if they are only recorded
+     */
+    public ContentHandler getTarget() {
+        return target;
+    }
+
+    /**
+     * @return Whether no events have been recorded
+     */
+    public boolean isEmpty() {
+        return eventsSize == 0;
+    }
+
+    /**
+     * Sets the system ID reported by the locator passed to handlers on replay.
+     */
+    public void setSystemId(final String systemId) {
+        this.systemId = systemId;
+    }
+
+    /**
+     * Sets the handler to which events are passed on as they are recorded.
+     */
+    public void setTarget(final ContentHandler target) {
+        this.target = target;
+    }
+
+    /**
+     * @return The number of ints of events and characters of text recorded, a
+     * guide to the size of the buffer when written
+     */
+    public int size() {
+        return eventsSize + charsSize;
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Records the given text as characters, without copying it to an array first.
+     */
+    public void characters(final String text) throws SAXException {
+        final int length = text.length();
+        addLocatedEvent(CHARACTERS);
+        addInt(charsSize);
+        addInt(length);
+        ensureCharsCapacity(length);
+        final int start = charsSize;
+        text.getChars(0, length, chars, start);
+        charsSize += length;
+        if (target != null) {
+            target.characters(chars, start, length);
+        }
+    }
+
+    /**
+     * Removes all the recorded events so that this buffer can be used again,
+     * keeping the space it has allocated.
+     */
+    public void clear() {
+        for (int i = 0; i < valuesSize; i++) {
+            values[i] = null;
+        }
+        eventsSize = 0;
+        charsSize = 0;
+        valuesSize = 0;
+        stringIndexes.clear();
+        hasLocations = false;
+        systemId = null;
+        locator = null;
+    }
+
+    /**
+     * Records the object itself, so that it is passed on to an {@link XMLOutput}
+     * on replay, or written as text to any other handler.
+     */
+    public void objectData(final Object object) throws SAXException {
+        addInt(OBJECT_DATA);
+        addValue(object);
+        if (target instanceof XMLOutput) {
+            ((XMLOutput) target).objectData(object);
+        } else if (target != null) {
+            final char[] text = String.valueOf(object).toCharArray();
+            target.characters(text, 0, text.length);
+        }
+    }
+
+    /**
+     * Replays the recorded events to the given handler, and to its
+     * {@link LexicalHandler} methods if it implements that interface.
+     */
+    public void replay(final ContentHandler handler) throws SAXException {
+        final LexicalHandler lexicalHandler = handler instanceof LexicalHandler ? (LexicalHandler) handler : null;
+        final XMLOutput output = handler instanceof XMLOutput ? (XMLOutput) handler : null;
+        final int[] events = this.events;
+        final char[] chars = this.chars;
+        final int size = eventsSize;
+        final LocatorImpl replayLocator = hasLocations ? new LocatorImpl() : null;
+        if (replayLocator != null) {
+            replayLocator.setSystemId(systemId);
+            handler.setDocumentLocator(replayLocator);
+        }
+        AttributesImpl attributes = null;
+        int i = 0;
+        while (i < size) {
+            final int code = events[i++];
+            if ((code & LOCATED) != 0) {
+                if (replayLocator != null) {
+                    replayLocator.setLineNumber(events[i]);
+                    replayLocator.setColumnNumber(events[i + 1]);
+                }
+                i += 2;
+            }
+            switch (code & ~LOCATED) {
+            case START_DOCUMENT:
+                handler.startDocument();
+                break;
+            case END_DOCUMENT:
+                handler.endDocument();
+                break;
+            case START_PREFIX_MAPPING:
+                handler.startPrefixMapping(getString(events[i]), getString(events[i + 1]));
+                i += 2;
+                break;
+            case END_PREFIX_MAPPING:
+                handler.endPrefixMapping(getString(events[i++]));
+                break;
+            case START_ELEMENT: {
+                if (attributes == null) {
+                    attributes = new AttributesImpl();
+                } else {
+                    attributes.clear();
+                }
+                final int count = events[i + 3];
+                for (int j = i + 4, end = j + count * 5; j < end; j += 5) {
+                    attributes.addAttribute(getString(events[j]), getString(events[j + 1]), getString(events[j + 2]),
+                        getString(events[j + 3]), getString(events[j + 4]));
+                }
+                handler.startElement(getString(events[i]), getString(events[i + 1]), getString(events[i + 2]),
+                    attributes);
+                i += 4 + count * 5;
+                break;
+            }
+            case END_ELEMENT:
+                handler.endElement(getString(events[i]), getString(events[i + 1]), getString(events[i + 2]));
+                i += 3;
+                break;
+            case CHARACTERS:
+                handler.characters(chars, events[i], events[i + 1]);
+                i += 2;
+                break;
+            case IGNORABLE_WHITESPACE:
+                handler.ignorableWhitespace(chars, events[i], events[i + 1]);
+                i += 2;
+                break;
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction(getString(events[i]), getString(events[i + 1]));
+                i += 2;
+                break;
+            case SKIPPED_ENTITY:
+                handler.skippedEntity(getString(events[i++]));
+                break;
+            case COMMENT:
+                if (lexicalHandler != null) {
+                    lexicalHandler.comment(chars, events[i], events[i + 1]);
+                }
+                i += 2;
+                break;
+            case START_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startCDATA();
+                }
+                break;
+            case END_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endCDATA();
+                }
+                break;
+            case START_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startDTD(getString(events[i]), getString(events[i + 1]), getString(events[i + 2]));
+                }
+                i += 3;
+                break;
+            case END_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endDTD();
+                }
+                break;
+            case START_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startEntity(getString(events[i]));
+                }
+                i++;
+                break;
+            case END_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endEntity(getString(events[i]));
+                }
+                i++;
+                break;
+            case OBJECT_DATA: {
+                final Object object = getValue(events[i++]);
+                if (output != null) {
+                    output.objectData(object);
+                } else {
+                    final char[] text = String.valueOf(object).toCharArray();
+                    handler.characters(text, 0, text.length);
+                }
+                break;
+            }
+            default:
+                throw new SAXException("Corrupt SAX event buffer: unknown event " + code + " at " + (i - 1));
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded events so that they can be read back by {@link #readFrom}.
+     * Numbers are written in as few bytes as possible and characters in one to three
+     * bytes each.
+     *
+     * @throws IOException if the data could not be written or an object other
+     * than a string was recorded by {@link #objectData(Object)}
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(size() + 64);
+        writeInt(data, valuesSize);
+        for (int i = 0; i < valuesSize; i++) {
+            if (!(values[i] instanceof String)) {
+                throw new IOException("Cannot write object data: " + values[i].getClass().getName());
+            }
+            final String value = (String) values[i];
+            writeInt(data, value.length());
+            writeChars(data, value.toCharArray(), 0, value.length());
+        }
+        writeInt(data, eventsSize);
+        for (int i = 0; i < eventsSize; i++) {
+            writeInt(data, events[i]);
+        }
+        writeInt(data, charsSize);
+        writeChars(data, chars, 0, charsSize);
+
+        out.writeBoolean(systemId != null);
+        if (systemId != null) {
+            out.writeUTF(systemId);
+        }
+        out.writeBoolean(hasLocations);
+        out.writeInt(data.size());
+        out.write(data.toByteArray());
+    }
+
+    /**
+     * Writes the characters, each in one to three bytes
+     */
+    private static void writeChars(final ByteArrayOutputStream data, final char[] ch, final int start,
+        final int length) {
+        for (int i = start, end = start + length; i < end; i++) {
+            final char c = ch[i];
+            if (c < 0x80) {
+                data.write(c);
+            } else if (c < 0x800) {
+                data.write(0xC0 | c >> 6);
+                data.write(0x80 | c & 0x3F);
+            } else {
+                data.write(0xE0 | c >> 12);
+                data.write(0x80 | c >> 6 & 0x3F);
+                data.write(0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    /**
+     * Writes an int in as few bytes as possible, seven bits to a byte
+     */
+    private static void writeInt(final ByteArrayOutputStream data, int value) {
+        while ((value & ~0x7F) != 0) {
+            data.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        data.write(value);
+    }
+
+    private void addChars(final char[] ch, final int start, final int length) {
+        addInt(charsSize);
+        addInt(length);
+        ensureCharsCapacity(length);
+        System.arraycopy(ch, start, chars, charsSize, length);
+        charsSize += length;
+    }
+
+    private void addInt(final int value) {
+        if (eventsSize == events.length) {
+            final int[] newEvents = new int[events.length * 2];
+            System.arraycopy(events, 0, newEvents, 0, eventsSize);
+            events = newEvents;
+        }
+        events[eventsSize++] = value;
+    }
+
+    /**
+     * Adds the event code with the current location of the parser if there is one
+     */
+    private void addLocatedEvent(final int code) {
+        if (locator == null) {
+            addInt(code);
+        } else {
+            hasLocations = true;
+            addInt(code | LOCATED);
+            addInt(locator.getLineNumber());
+            addInt(locator.getColumnNumber());
+        }
+    }
+
+    /**
+     * Adds a reference to the given string, which is stored only once
+     */
+    private void addString(final String value) {
+        if (value == null) {
+            addInt(0);
+            return;
+        }
+        final Integer index = (Integer) stringIndexes.get(value);
+        if (index != null) {
+            addInt(index.intValue());
+            return;
+        }
+        addValue(value);
+        stringIndexes.put(value, Integer.valueOf(valuesSize));
+    }
+
+    /**
+     * Adds a reference to the given value, or to null
+     */
+    private void addValue(final Object value) {
+        if (value == null) {
+            addInt(0);
+            return;
+        }
+        if (valuesSize == values.length) {
+            final Object[] newValues = new Object[values.length * 2];
+            System.arraycopy(values, 0, newValues, 0, valuesSize);
+            values = newValues;
+        }
+        values[valuesSize++] = value;
+        addInt(valuesSize);
+    }
+
+    /**
+     * Checks that the events read by {@link #readFrom} refer only to the
+     * values and characters read with them, so that they can be replayed
+     */
+    private void checkEvents() throws IOException {
+        int i = 0;
+        while (i < eventsSize) {
+            final int code = events[i++];
+            if ((code & LOCATED) != 0) {
+                i += 2;
+            }
+            switch (code & ~LOCATED) {
+            case START_DOCUMENT:
+            case END_DOCUMENT:
+            case START_CDATA:
+            case END_CDATA:
+            case END_DTD:
+                break;
+            case END_PREFIX_MAPPING:
+            case SKIPPED_ENTITY:
+            case START_ENTITY:
+            case END_ENTITY:
+            case OBJECT_DATA:
+                i = checkValues(i, 1);
+                break;
+            case START_PREFIX_MAPPING:
+            case PROCESSING_INSTRUCTION:
+                i = checkValues(i, 2);
+                break;
+            case END_ELEMENT:
+            case START_DTD:
+                i = checkValues(i, 3);
+                break;
+            case START_ELEMENT: {
+                i = checkValues(i, 3);
+                final int count = i < eventsSize ? events[i++] : -1;
+                if (count < 0 || count > (eventsSize - i) / 5) {
+                    throw new IOException("Corrupt SAX event buffer: bad attribute count at " + i);
+                }
+                i = checkValues(i, count * 5);
+                break;
+            }
+            case CHARACTERS:
+            case IGNORABLE_WHITESPACE:
+            case COMMENT: {
+                if (i + 2 > eventsSize || events[i] < 0 || events[i + 1] < 0
+                    || events[i] > charsSize - events[i + 1]) {
+                    throw new IOException("Corrupt SAX event buffer: bad text at " + i);
+                }
+                i += 2;
+                break;
+            }
+            default:
+                throw new IOException("Corrupt SAX event buffer: unknown event " + code + " at " + (i - 1));
+            }
+        }
+        if (i != eventsSize) {
+            throw new IOException("Corrupt SAX event buffer: truncated event at " + eventsSize);
+        }
+    }
+
+    /**
+     * @return The index after the given number of references to values, having
+     * checked that they refer to values which exist
+     */
+    private int checkValues(final int start, final int count) throws IOException {
+        if (start > eventsSize - count) {
+            throw new IOException("Corrupt SAX event buffer: truncated event at " + start);
+        }
+        for (int i = start; i < start + count; i++) {
+            if (events[i] < 0 || events[i] > valuesSize) {
+                throw new IOException("Corrupt SAX event buffer: unknown value " + events[i] + " at " + i);
+            }
+        }
+        return start + count;
+    }
+
+    private void ensureCharsCapacity(final int extra) {
+        if (charsSize + extra > chars.length) {
+            final char[] newChars = new char[Math.max(chars.length * 2, charsSize + extra)];
+            System.arraycopy(chars, 0, newChars, 0, charsSize);
+            chars = newChars;
+        }
+    }
+
+    private String getString(final int reference) {
+        return (String) getValue(reference);
+    }
+
+    private Object getValue(final int reference) {
+        return reference == 0 ? null : values[reference - 1];
+    }
+
+    /**
+     * Reads back the data written by {@link #writeTo}
+     */
+    private static final class Decoder {
+
+        private final byte[] data;
+
+        private int position;
+
+        Decoder(final byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Reads the given number of characters into the array
+         *
+         * @return The array
+         */
+        private char[] readChars(final char[] chars, final int start, final int length) throws IOException {
+            final byte[] bytes = data;
+            int pos = position;
+            try {
+                for (int i = start, end = start + length; i < end; i++) {
+                    final int b = bytes[pos++];
+                    if (b >= 0) {
+                        chars[i] = (char) b;
+                    } else if ((b & 0xE0) == 0xC0) {
+                        chars[i] = (char) ((b & 0x1F) << 6 | bytes[pos++] & 0x3F);
+                    } else {
+                        chars[i] = (char) ((b & 0x0F) << 12 | (bytes[pos++] & 0x3F) << 6 | bytes[pos++] & 0x3F);
+                    }
+                }
+            } catch (final ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Corrupt SAX event buffer: truncated text at " + position);
+            }
+            position = pos;
+            return chars;
+        }
+
+        /**
+         * Reads the number of items which follow, each of which takes at least a byte
+         */
+        private int readCount() throws IOException {
+            final int count = readInt();
+            if (count < 0 || count > data.length - position) {
+                throw new IOException("Corrupt SAX event buffer: bad count " + count + " at " + position);
+            }
+            return count;
+        }
+
+        private int readInt() throws IOException {
+            int answer = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= data.length) {
+                    throw new IOException("Corrupt SAX event buffer: truncated at " + position);
+                }
+                final int b = data[position++];
+                answer |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return answer;
+                }
+            }
+            throw new IOException("Corrupt SAX event buffer: bad number at " + position);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.util.ArrayDeque;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * <p>{@code SAXParserPool} keeps namespace aware SAXParsers which have been used
+ * and reset, so that parsing a script does not have to look up a
+ * SAXParserFactory and create and configure a new parser each time.</p>
+ *
+ * <p>There is one shared pool for each combination of validation and of whether
+ * DTDs may load external entities. The parsers of a pool that does not allow
+ * external entities have the external entity features of their XMLReader turned
+ * off, as {@link XMLParser} does.</p>
+ *
+ * <p>A parser is {@link #borrow() borrowed} for a parse and may be
+ * {@link #release(SAXParser) released} afterwards. Parsers which are never
+ * released are simply not reused. At most {@link #MAX_IDLE} parsers are kept
+ * by each pool.</p>
+ */
+public class SAXParserPool {
+
+    /** The Log to which logging calls will be made. */
+    private static final Log log = LogFactory.getLog(SAXParserPool.class);
+
+    /** The most parsers kept by a pool when they are not in use */
+    public static final int MAX_IDLE = 16;
+
+    /** Set as the handlers of a released parser so that it does not keep the last ones */
+    private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+
+    /** The shared pools, indexed by validation and then allowance of external entities */
+    private static final SAXParserPool[] pools = {
+        new SAXParserPool(false, false), new SAXParserPool(false, true),
+        new SAXParserPool(true, false), new SAXParserPool(true, true) };
+
+    /**
+     * @return The shared pool of parsers with the given validation and allowance
+     * for DTDs to load external entities
+     */
+    public static SAXParserPool getInstance(final boolean validating, final boolean allowDtdToCallExternalEntities) {
+        return pools[(validating ? 2 : 0) + (allowDtdToCallExternalEntities ? 1 : 0)];
+    }
+
+    private final boolean validating;
+
+    private final boolean allowDtdToCallExternalEntities;
+
+    /** The factory parsers are created by, created the first time it is needed */
+    private SAXParserFactory factory;
+
+    /** The parsers not in use */
+    private final ArrayDeque idle = new ArrayDeque();
+
+    /** The number of parsers this pool has created */
+    private long createdCount;
+
+    private SAXParserPool(final boolean validating, final boolean allowDtdToCallExternalEntities) {
+        this.validating = validating;
+        this.allowDtdToCallExternalEntities = allowDtdToCallExternalEntities;
+    }
+
+    /**
+     * @return A parser which is not in use, creating one if there are none
+     * @throws ParserConfigurationException if no parser can be created as configured
+     * @throws SAXException if the XMLReader of the parser cannot be configured
+     */
+    public SAXParser borrow() throws ParserConfigurationException, SAXException {
+        synchronized (idle) {
+            final SAXParser parser = (SAXParser) idle.pollFirst();
+            if (parser != null) {
+                return parser;
+            }
+        }
+        final SAXParser parser;
+        synchronized (this) {
+            if (factory == null) {
+                factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.setValidating(validating);
+            }
+            parser = factory.newSAXParser();
+            createdCount++;
+        }
+        configure(parser.getXMLReader());
+        return parser;
+    }
+
+    /**
+     * @return The number of parsers this pool has created, which is the number
+     * of times a parser could not be reused
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return The number of parsers waiting to be reused
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return Whether the parsers of this pool validate the documents they parse
+     */
+    public boolean isValidating() {
+        return validating;
+    }
+
+    /**
+     * @return Whether the parsers of this pool allow DTDs to load external entities
+     */
+    public boolean isAllowDtdToCallExternalEntities() {
+        return allowDtdToCallExternalEntities;
+    }
+
+    /**
+     * Resets the given parser, which must have been borrowed from this pool and
+     * no longer be in use, and keeps it for reuse if the pool is not full.
+     */
+    public void release(final SAXParser parser) {
+        try {
+            parser.reset();
+            final XMLReader reader = parser.getXMLReader();
+            reader.setContentHandler(NO_HANDLER);
+            reader.setDTDHandler(NO_HANDLER);
+            reader.setEntityResolver(NO_HANDLER);
+            reader.setErrorHandler(NO_HANDLER);
+            configure(reader);
+        }
+        catch (final Exception e) {
+            // the parser cannot be reset, so is not reused
+            if (log.isDebugEnabled()) {
+                log.debug("Discarding SAXParser which could not be reset: " + e);
+            }
+            return;
+        }
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE) {
+                idle.addFirst(parser);
+            }
+        }
+    }
+
+    /**
+     * Turns off the external entity features if this pool does not allow them,
+     * as reset parsers go back to the defaults of the factory
+     */
+    private void configure(final XMLReader reader) throws SAXException {
+        if (!allowDtdToCallExternalEntities) {
+            reader.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            reader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            reader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        }
+    }
+}
@@ -52,6 +52,7 @@ import org.apache.commons.jelly.util.ClassLoaderUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
@@ -68,12 +69,19 @@ public class XMLParser extends DefaultHandler {
 
     /**
      * Share the Jelly properties across parsers
+     *
+     * @deprecated No longer used, as the default tag libraries are found by the
+     *  {@link org.apache.commons.jelly.impl.TagLibraryResolver} of the context
      */
+    @Deprecated
     private static Properties jellyProperties;
 
     /**
      * The SAXParserFactory that is created the first time we need it.
+     *
+     * @deprecated No longer used, as parsers are borrowed from a {@link SAXParserPool}
      */
+    @Deprecated
     protected static SAXParserFactory factory = null;
 
     /** JellyContext which is used to locate tag libraries*/
@@ -125,6 +133,9 @@ public class XMLParser extends DefaultHandler {
      */
     protected SAXParser parser = null;
 
+    /** The pool the parser was borrowed from, or null if it was not borrowed */
+    private SAXParserPool parserPool;
+
     /**
      * The XMLReader used to parse digester rules.
      */
@@ -272,22 +283,11 @@ public class XMLParser extends DefaultHandler {
 
     /**
      * This method is called only once before parsing occurs
-     * which allows tag libraries to be registered and so forth
+     * which allows tag libraries to be registered and so forth.
+     * The libraries named in {@code jelly.properties} need not be registered,
+     * as the context resolves them when they are first used.
      */
     protected void configure() {
-        // load the properties file of libraries available
-        final Properties properties = getJellyProperties();
-        for (final Iterator iter = properties.entrySet().iterator(); iter.hasNext();) {
-            final Map.Entry entry = (Map.Entry) iter.next();
-            final String uri = (String) entry.getKey();
-            final String className = (String) entry.getValue();
-            final String libraryURI = "jelly:" + uri;
-
-            // don't overload any Mock Tags already
-            if ( ! context.isTagLibraryRegistered(libraryURI) ) {
-                context.registerTagLibrary(libraryURI, className);
-            }
-        }
     }
 
     /**
@@ -710,6 +710,14 @@ public class XMLParser extends DefaultHandler {
         return url != null ? url.toString() : null;
     }
 
+    /**
+     * @return The jelly namespace used for unprefixed elements or null if
+     * unprefixed elements are left in no namespace
+     */
+    public String getDefaultNamespaceURI() {
+        return defaultNamespaceURI;
+    }
+
     /**
      * Return the error handler for this XMLParser.
      */
@@ -759,7 +767,11 @@ public class XMLParser extends DefaultHandler {
 
     /**
      * A helper method which loads the static Jelly properties once on startup
+     *
+     * @deprecated No longer used, as the default tag libraries are found by the
+     *  {@link org.apache.commons.jelly.impl.TagLibraryResolver} of the context
      */
+    @Deprecated
     protected synchronized Properties getJellyProperties() {
         if (jellyProperties == null) {
             jellyProperties = new Properties();
@@ -801,21 +813,20 @@ public class XMLParser extends DefaultHandler {
     /**
      * Return the SAXParser we will use to parse the input stream.  If there
      * is a problem creating the parser, return {@code null}.
+     * Unless a parser was given to this XMLParser it is borrowed from the
+     * shared {@link SAXParserPool} and returned to it once a parse has finished.
      */
     public SAXParser getParser() {
         // Return the parser we already created (if any)
         if (parser != null) {
             return parser;
         }
-        // Create and return a new parser
+        // Borrow and return a parser
         synchronized (this) {
             try {
-                if (factory == null) {
-                    factory = SAXParserFactory.newInstance();
-                }
-                factory.setNamespaceAware(true);
-                factory.setValidating(validating);
-                parser = factory.newSAXParser();
+                final SAXParserPool pool = SAXParserPool.getInstance(validating, allowDtdToCallExternalEntities);
+                parser = pool.borrow();
+                parserPool = pool;
                 return parser;
             }
             catch (final Exception e) {
@@ -955,7 +966,12 @@ public class XMLParser extends DefaultHandler {
     public Script parse(final InputSource input) throws IOException, SAXException {
         ensureConfigured();
         this.fileName = input.getSystemId();
-        getXMLReader().parse(input);
+        try {
+            getXMLReader().parse(input);
+        }
+        finally {
+            releaseParser();
+        }
         return script;
     }
 
@@ -976,7 +992,12 @@ public class XMLParser extends DefaultHandler {
     public Script parse(final InputStream input) throws IOException, SAXException {
         ensureConfigured();
         this.fileName = getCurrentURI();
-        getXMLReader().parse(new InputSource(input));
+        try {
+            getXMLReader().parse(new InputSource(input));
+        }
+        finally {
+            releaseParser();
+        }
         return script;
     }
 
@@ -997,7 +1018,12 @@ public class XMLParser extends DefaultHandler {
     public Script parse(final Reader reader) throws IOException, SAXException {
         ensureConfigured();
         this.fileName = getCurrentURI();
-        getXMLReader().parse(new InputSource(reader));
+        try {
+            getXMLReader().parse(new InputSource(reader));
+        }
+        finally {
+            releaseParser();
+        }
         return script;
     }
 
@@ -1013,7 +1039,12 @@ public class XMLParser extends DefaultHandler {
     public Script parse(final String uri) throws IOException, SAXException {
         ensureConfigured();
         this.fileName = uri;
-        getXMLReader().parse(uri);
+        try {
+            getXMLReader().parse(uri);
+        }
+        finally {
+            releaseParser();
+        }
         return script;
     }
 
@@ -1032,7 +1063,61 @@ public class XMLParser extends DefaultHandler {
 
         final InputSource source = new InputSource(url.toString());
 
-        getXMLReader().parse(source);
+        try {
+            getXMLReader().parse(source);
+        }
+        finally {
+            releaseParser();
+        }
+        return script;
+    }
+
+    /**
+     * Parse the content of the specified input source using this XMLParser,
+     * recording the SAX events of the parse in the given buffer so that the
+     * same script can be created again by {@link #parse(SAXEventBuffer)}.
+     *
+     * @param input Input source containing the XML data to be parsed
+     * @param events The buffer to record the events in
+     * @return The script.
+     * @throws IOException Thrown if an input/output error occurs
+     * @throws SAXException Thrown if a parsing exception occurs
+     */
+    public Script parse(final InputSource input, final SAXEventBuffer events) throws IOException, SAXException {
+        ensureConfigured();
+        this.fileName = input.getSystemId();
+        final XMLReader xmlReader = getXMLReader();
+        final ContentHandler oldTarget = events.getTarget();
+        events.setTarget(this);
+        xmlReader.setContentHandler(events);
+        try {
+            xmlReader.parse(input);
+        }
+        finally {
+            xmlReader.setContentHandler(this);
+            events.setTarget(oldTarget);
+            releaseParser();
+        }
+        if (events.getSystemId() == null) {
+            events.setSystemId(input.getSystemId());
+        }
+        return script;
+    }
+
+    /**
+     * Creates a script from SAX events previously recorded by
+     * {@link #parse(InputSource, SAXEventBuffer)}, without parsing any XML.
+     * Tag libraries and expressions are resolved against the current context
+     * just as they are when parsing.
+     *
+     * @param events The recorded events of a Jelly script
+     * @return The script.
+     * @throws SAXException Thrown if the script could not be created
+     */
+    public Script parse(final SAXEventBuffer events) throws SAXException {
+        ensureConfigured();
+        this.fileName = events.getSystemId();
+        events.replay(this);
         return script;
     }
 
@@ -1049,6 +1134,21 @@ public class XMLParser extends DefaultHandler {
         // No processing is required
     }
 
+    /**
+     * Returns a parser borrowed from the pool once a parse has finished, so
+     * that the next parse borrows one again.
+     */
+    private synchronized void releaseParser() {
+        if (parserPool != null) {
+            final SAXParser borrowed = parser;
+            final SAXParserPool pool = parserPool;
+            parser = null;
+            reader = null;
+            parserPool = null;
+            pool.release(borrowed);
+        }
+    }
+
     /**
      * Sets the boolean
      * allowDtdToCallExternalEntities. If this is set to false,
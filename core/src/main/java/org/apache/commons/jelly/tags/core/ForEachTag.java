@@ -17,15 +17,21 @@
 
 package org.apache.commons.jelly.tags.core;
 
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
 import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 
 import javax.servlet.jsp.jstl.core.LoopTagStatus;
 
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.MissingAttributeException;
+import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.expression.ExpressionSupport;
 import org.apache.commons.jelly.impl.BreakException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,7 +39,8 @@ import org.apache.commons.logging.LogFactory;
 /**
   * Iterates over a collection, iterator or an array of objects.
   * Uses the same syntax as the <a href="https://java.sun.com/products/jsp/jstl/">JSTL</a>
-  * {@code forEach} tag does.
+  * {@code forEach} tag does. The body may be run for several items at once,
+  * see {@link #setParallel(int)}.
   */
 public class ForEachTag extends TagSupport {
 
@@ -160,6 +167,23 @@ public class ForEachTag extends TagSupport {
     /** The Log to which logging calls will be made. */
     private static final Log log = LogFactory.getLog(ForEachTag.class);
 
+    /**
+     * Whether an Expression class iterates over its value as ExpressionSupport
+     * does, so that the value can be looped over without an iterator
+     */
+    private static final ClassValue ITERATES_BY_VALUE = new ClassValue() {
+        @Override
+        protected Object computeValue(final Class type) {
+            try {
+                final Method method = type.getMethod("evaluateAsIterator", new Class[] { JellyContext.class });
+                return Boolean.valueOf(method.getDeclaringClass() == ExpressionSupport.class);
+            }
+            catch (final NoSuchMethodException e) {
+                return Boolean.FALSE;
+            }
+        }
+    };
+
     /** Holds the variable name to export for the item being iterated over. */
     private Expression items;
 
@@ -190,6 +214,15 @@ public class ForEachTag extends TagSupport {
     /** The iteration index */
     private int index;
 
+    /** The number of iterations run at once, sequentially if less than two */
+    private int parallel;
+
+    /** Whether the variables set by parallel iterations are exported to the context of this tag */
+    private boolean export;
+
+    /** Runs the iterations while the loop runs in parallel */
+    private ParallelLoop parallelLoop;
+
     // Tag interface
 
     public ForEachTag() {
@@ -206,71 +239,27 @@ public class ForEachTag extends TagSupport {
             log.debug("running with items: " + items);
         }
 
+        if (parallel > 1) {
+            parallelLoop = new ParallelLoop(getBody(), context, output, parallel, export);
+        }
         try {
             if (items != null) {
-                final Iterator iter = items.evaluateAsIterator(context);
-
-                if (log.isDebugEnabled()) {
-                    log.debug("Iterating through: " + iter);
-                }
-
-                // ignore the first items of the iterator
-                for (index = 0; index < begin && iter.hasNext(); index++ ) {
-                    iter.next();
-                }
-
-                // set up the status
-                LoopStatus status = null;
-                if (statusVar != null)
-                {
-                    // set up statii as required by JSTL
-                    final Integer statusBegin = begin == 0 ? null : Integer.valueOf(begin);
-                    final Integer statusEnd = end == Integer.MAX_VALUE ? null : Integer.valueOf(end);
-                    final Integer statusStep = step == 1 ? null : Integer.valueOf(step);
-                    status = new LoopStatus(statusBegin, statusEnd, statusStep);
-                    context.setVariable(statusVar, status);
+                if (!((Boolean) ITERATES_BY_VALUE.get(items.getClass())).booleanValue()) {
+                    loop(items.evaluateAsIterator(context), output);
                 }
-
-                boolean firstTime = true;
-                int count = 0;
-                while (iter.hasNext() && index <= end) {
-                    final Object value = iter.next();
-                    if (var != null) {
-                        context.setVariable(var, value);
-                    }
-                    if (indexVar != null) {
-                        context.setVariable(indexVar, Integer.valueOf(index));
+                else {
+                    // lists and arrays are looped over by index, so that no
+                    // iterator is needed and the first items are skipped at once
+                    final Object value = items.evaluateRecurse(context);
+                    if (value instanceof List && value instanceof RandomAccess) {
+                        loop(value, ((List) value).size(), output);
                     }
-                    // set the status var up
-                    if (statusVar != null) {
-                        count++;
-                        status.setCount(count);
-                        status.setCurrent(value);
-                        status.setFirst(firstTime);
-                        status.setIndex(index);
-                        // set first time up for the next iteration.
-                        if (firstTime) {
-                            firstTime = !firstTime;
-                        }
+                    else if (value != null && value.getClass().isArray()) {
+                        loop(value, Array.getLength(value), output);
                     }
-                    // now we need to work out the next index for status isLast
-                    // and also advance the iterator and index for the loop.
-                    boolean finished = false;
-                    index++;
-                    for ( int i = 1; i < step && !finished; i++, index++ ) {
-                        if ( ! iter.hasNext() ) {
-                           finished = true;
-                        }
-                        else {
-                            iter.next();
-                        }
-                    }
-
-                    if (statusVar != null) {
-                        status.setLast(finished || !iter.hasNext() || index > end);
+                    else {
+                        loop(ExpressionSupport.toIterator(value), output);
                     }
-                    invokeBody(output);
-
                 }
             } else if ( end == Integer.MAX_VALUE && begin == 0 ) {
                 throw new MissingAttributeException( "items" );
@@ -280,43 +269,175 @@ public class ForEachTag extends TagSupport {
                 if ( varName == null ) {
                     varName = indexVar;
                 }
-                // set up the status
-                LoopStatus status = null;
-                if (statusVar != null)
-                {
-                    // set up statii as required by JSTL
-                    final Integer statusBegin = Integer.valueOf(begin);
-                    final Integer statusEnd = Integer.valueOf(end);
-                    final Integer statusStep = Integer.valueOf(step);
-                    status = new LoopStatus(statusBegin, statusEnd, statusStep);
-                    context.setVariable(statusVar, status);
-                }
+                // set up statii as required by JSTL
+                final LoopStatus status =
+                    createStatus(Integer.valueOf(begin), Integer.valueOf(end), Integer.valueOf(step));
 
                 int count = 0;
                 for (index = begin; index <= end; index += step ) {
-
-                    final Object value = Integer.valueOf(index);
-                    if (varName != null) {
-                        context.setVariable(varName, value);
+                    // the index is only boxed if a variable shows it
+                    final Object value = varName != null || status != null ? Integer.valueOf(index) : null;
+                    iterate(varName, value, null, index, ++count, index > end - step, status, output);
+                    if (index > Integer.MAX_VALUE - step) {
+                        // the next index cannot be represented
+                        break;
                     }
-                    // set the status var up
-                    if (status != null) {
-                        count++;
-                        status.setIndex(index);
-                        status.setCount(count);
-                        status.setCurrent(value);
-                        status.setFirst(index == begin);
-                        status.setLast(index > end - step);
-                    }
-                    invokeBody(output);
                 }
             }
+            if (parallelLoop != null) {
+                parallelLoop.finish();
+            }
         }
         catch (final BreakException e) {
             if (log.isDebugEnabled()) {
                 log.debug("loop terminated by break: " + e, e);
             }
         }
+        finally {
+            if (parallelLoop != null) {
+                parallelLoop.cancel();
+                parallelLoop = null;
+            }
+        }
+    }
+
+    /**
+     * @return The status of a loop over items, which has been set as the
+     * status variable, or null if there is no status variable
+     */
+    private LoopStatus createItemsStatus() {
+        // set up statii as required by JSTL
+        final Integer statusBegin = begin == 0 ? null : Integer.valueOf(begin);
+        final Integer statusEnd = end == Integer.MAX_VALUE ? null : Integer.valueOf(end);
+        final Integer statusStep = step == 1 ? null : Integer.valueOf(step);
+        return createStatus(statusBegin, statusEnd, statusStep);
+    }
+
+    /**
+     * @return The status of the loop, which has been set as the status variable
+     * unless the loop runs in parallel, or null if there is no status variable
+     */
+    private LoopStatus createStatus(final Integer statusBegin, final Integer statusEnd, final Integer statusStep) {
+        if (statusVar == null) {
+            return null;
+        }
+        final LoopStatus status = new LoopStatus(statusBegin, statusEnd, statusStep);
+        if (parallelLoop == null) {
+            context.setVariable(statusVar, status);
+        }
+        return status;
+    }
+
+    /**
+     * Sets the variables for one item and runs the body, in the context of this
+     * tag or, when the loop runs in parallel, in a new child context with a
+     * status of its own.
+     */
+    private void iterate(final String varName, final Object value, final String indexName, final int itemIndex,
+        final int count, final boolean last, final LoopStatus status, final XMLOutput output) throws JellyTagException {
+        JellyContext iterationContext = context;
+        LoopStatus iterationStatus = status;
+        if (parallelLoop != null) {
+            iterationContext = context.newJellyContext();
+            if (status != null) {
+                iterationStatus = new LoopStatus(status.getBegin(), status.getEnd(), status.getStep());
+                iterationContext.setVariable(statusVar, iterationStatus);
+            }
+        }
+        if (varName != null) {
+            iterationContext.setVariable(varName, value);
+        }
+        if (indexName != null) {
+            iterationContext.setVariable(indexName, Integer.valueOf(itemIndex));
+        }
+        // set the status var up
+        if (iterationStatus != null) {
+            iterationStatus.setCount(count);
+            iterationStatus.setCurrent(value);
+            iterationStatus.setFirst(count == 1);
+            iterationStatus.setIndex(itemIndex);
+            iterationStatus.setLast(last);
+        }
+        if (parallelLoop != null) {
+            parallelLoop.submit(iterationContext);
+        }
+        else {
+            invokeBody(output);
+        }
+    }
+
+    /**
+     * Loops over the items of the given iterator.
+     */
+    private void loop(final Iterator iter, final XMLOutput output) throws JellyTagException {
+        if (log.isDebugEnabled()) {
+            log.debug("Iterating through: " + iter);
+        }
+
+        // ignore the first items of the iterator
+        for (index = 0; index < begin && iter.hasNext(); index++ ) {
+            iter.next();
+        }
+
+        // set up the status
+        final LoopStatus status = createItemsStatus();
+
+        int count = 0;
+        while (iter.hasNext() && index <= end) {
+            final Object value = iter.next();
+            final int itemIndex = index;
+            // now we need to work out the next index for status isLast
+            // and also advance the iterator and index for the loop.
+            boolean finished = false;
+            index++;
+            for ( int i = 1; i < step && !finished; i++, index++ ) {
+                if ( ! iter.hasNext() ) {
+                   finished = true;
+                }
+                else {
+                    iter.next();
+                }
+            }
+            final boolean last = finished || !iter.hasNext() || index > end;
+            iterate(var, value, indexVar, itemIndex, ++count, last, status, output);
+        }
+    }
+
+    /**
+     * Loops over the items of the given random access List or array, of the
+     * given size, by index.
+     */
+    private void loop(final Object items, final int size, final XMLOutput output) throws JellyTagException {
+        if (log.isDebugEnabled()) {
+            log.debug("Iterating by index through: " + items);
+        }
+
+        final List list = items instanceof List ? (List) items : null;
+        final Object[] array = items instanceof Object[] ? (Object[]) items : null;
+        // a step of less than one still moves on to the next item
+        final int increment = Math.max(step, 1);
+        final int last = Math.min(size - 1, end);
+
+        // set up the status
+        final LoopStatus status = createItemsStatus();
+
+        int count = 0;
+        for (index = Math.max(begin, 0); index <= last; ) {
+            final Object value;
+            if (list != null) {
+                value = list.get(index);
+            }
+            else if (array != null) {
+                value = array[index];
+            }
+            else {
+                value = Array.get(items, index);
+            }
+            final int itemIndex = index;
+            final boolean finished = index > last - increment;
+            index = finished ? last + 1 : index + increment;
+            iterate(var, value, indexVar, itemIndex, ++count, finished, status, output);
+        }
     }
 
     /** Sets the starting index value
@@ -331,6 +452,17 @@ public class ForEachTag extends TagSupport {
         this.end = end;
     }
 
+    /**
+     * Sets whether the variables set by the body of a parallel loop are
+     * exported to the context of this tag. They are copied in iteration order
+     * once each iteration has finished, so that after the loop they hold the
+     * values set by the last iteration to set them, as after a sequential loop.
+     * Otherwise the variables of each iteration are discarded.
+     */
+    public void setExport(final boolean export) {
+        this.export = export;
+    }
+
     /** Sets the variable name to export the current index counter to
      */
     public void setIndexVar(final String indexVar) {
@@ -346,6 +478,23 @@ public class ForEachTag extends TagSupport {
         this.items = items;
     }
 
+    /**
+     * Sets the number of iterations run at once. If it is more than one the
+     * body is run on the common fork-join pool, for up to that many items at once
+     * but no more than the parallelism of the pool, each in a child context of its
+     * own which holds the loop variables, and its output is
+     * buffered and then written in iteration order. An iteration does not see
+     * the variables set by other iterations, and the tags of the body are those
+     * of the thread running it, so they should not rely on the tags around the
+     * loop. A break ends the loop after the iteration which breaks, discarding
+     * the output of any later iterations already run.
+     *
+     * @param parallel The number of iterations run at once, the default being 1
+     */
+    public void setParallel(final int parallel) {
+        this.parallel = parallel;
+    }
+
     /** Sets the index increment step
      */
     public void setStep(final int step) {
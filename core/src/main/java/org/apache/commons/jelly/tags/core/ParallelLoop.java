@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.core;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.BreakException;
+import org.apache.commons.jelly.impl.TagFrame;
+import org.apache.commons.jelly.util.RecordingXMLOutput;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>{@code ParallelLoop} runs the iterations of a {@link ForEachTag} on the
+ * common fork-join pool. Each iteration runs the body in a context of its own, into
+ * a {@link RecordingXMLOutput}, and the recordings are replayed to the output of
+ * the loop in iteration order, so that the output is the same as that of a
+ * sequential loop.</p>
+ *
+ * <p>No more iterations than the parallelism run at once, and at most twice as
+ * many are pending, so that a long loop does not buffer all its output. The
+ * recordings are reused once they have been replayed. The thread running the loop
+ * waits by joining the first pending iteration.</p>
+ *
+ * <p>Each iteration evaluates the body with tags of its own, held in a
+ * {@link TagFrame} whose parent is the frame of the loop, whichever thread runs
+ * it. So a thread which runs an iteration while it joins another does not share
+ * tags with it, even when both run the same body, as in nested parallel loops. The
+ * frame is dropped once the iteration has run, so that the pool threads do not keep
+ * the contexts of the loop.</p>
+ */
+final class ParallelLoop {
+
+    /** The number of pending iterations allowed for each iteration running at once */
+    private static final int PENDING_PER_THREAD = 2;
+
+    /**
+     * Runs the body for one item, keeping anything it throws to be thrown by the
+     * thread running the loop.
+     */
+    private final class Iteration implements Runnable {
+
+        private final JellyContext iterationContext;
+
+        private final RecordingXMLOutput recording;
+
+        /** The task running this iteration */
+        private ForkJoinTask task;
+
+        /** Whether the body ended the loop */
+        private boolean broken;
+
+        /** What the body threw, other than a break */
+        private Throwable failure;
+
+        Iteration(final JellyContext iterationContext, final RecordingXMLOutput recording) {
+            this.iterationContext = iterationContext;
+            this.recording = recording;
+        }
+
+        @Override
+        public void run() {
+            final Thread thread = Thread.currentThread();
+            final ClassLoader oldClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(classLoader);
+            final TagFrame previous = new TagFrame(frame).enter();
+            try {
+                body.run(iterationContext, recording);
+            }
+            catch (final BreakException e) {
+                broken = true;
+            }
+            catch (final JellyTagException | RuntimeException | Error e) {
+                failure = e;
+            }
+            finally {
+                TagFrame.leave(previous);
+                thread.setContextClassLoader(oldClassLoader);
+                running.release();
+            }
+        }
+    }
+
+    private final Script body;
+
+    /** The context of the loop */
+    private final JellyContext context;
+
+    /** The output of the loop */
+    private final XMLOutput output;
+
+    /** Whether the variables set by each iteration are copied to the context of the loop */
+    private final boolean export;
+
+    /** Holds a permit for each iteration running, up to the parallelism */
+    private final Semaphore running;
+
+    /** The most iterations pending at once */
+    private final int maxPending;
+
+    /** The context class loader of the thread running the loop, used by the iterations */
+    private final ClassLoader classLoader;
+
+    /** The tag frame the loop runs in, which encloses those of the iterations */
+    private final TagFrame frame;
+
+    /** The pending iterations, in iteration order */
+    private final ArrayDeque pending = new ArrayDeque();
+
+    /** The recordings which have been replayed */
+    private final ArrayDeque recordings = new ArrayDeque();
+
+    ParallelLoop(final Script body, final JellyContext context, final XMLOutput output, final int parallelism,
+        final boolean export) {
+        this.body = body;
+        this.context = context;
+        this.output = output;
+        this.export = export;
+        this.running = new Semaphore(parallelism);
+        this.maxPending = parallelism * PENDING_PER_THREAD;
+        this.classLoader = Thread.currentThread().getContextClassLoader();
+        this.frame = TagFrame.current();
+    }
+
+    /**
+     * Cancels the iterations which are still pending, discarding their output.
+     * Iterations which have started run to completion.
+     */
+    void cancel() {
+        while (!pending.isEmpty()) {
+            ((Iteration) pending.removeFirst()).task.cancel(false);
+        }
+    }
+
+    /**
+     * Waits for the pending iterations and replays their output.
+     *
+     * @throws BreakException if an iteration ended the loop
+     */
+    void finish() throws JellyTagException {
+        while (!pending.isEmpty()) {
+            complete((Iteration) pending.removeFirst());
+        }
+    }
+
+    /**
+     * Runs the body in the given context, once earlier iterations have made room.
+     *
+     * @throws BreakException if an earlier iteration ended the loop
+     */
+    void submit(final JellyContext iterationContext) throws JellyTagException {
+        while (pending.size() >= maxPending || !running.tryAcquire()) {
+            complete((Iteration) pending.removeFirst());
+        }
+        RecordingXMLOutput recording = (RecordingXMLOutput) recordings.pollFirst();
+        if (recording == null) {
+            recording = new RecordingXMLOutput();
+        }
+        final Iteration iteration = new Iteration(iterationContext, recording);
+        iteration.task = ForkJoinPool.commonPool().submit(iteration);
+        pending.addLast(iteration);
+    }
+
+    /**
+     * Waits for the given iteration, the first pending one, replays its output
+     * and exports its variables.
+     */
+    private void complete(final Iteration iteration) throws JellyTagException {
+        iteration.task.join();
+        final Throwable failure = iteration.failure;
+        if (failure instanceof JellyTagException) {
+            throw (JellyTagException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        try {
+            iteration.recording.replay(output);
+        }
+        catch (final SAXException e) {
+            throw new JellyTagException(e);
+        }
+        iteration.recording.clear();
+        recordings.addFirst(iteration.recording);
+        if (export) {
+            final Map variables = iteration.iterationContext.getVariables();
+            for (final Iterator iter = variables.entrySet().iterator(); iter.hasNext(); ) {
+                final Map.Entry entry = (Map.Entry) iter.next();
+                if (!"parentScope".equals(entry.getKey())) {
+                    context.setVariable((String) entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (iteration.broken) {
+            throw new BreakException();
+        }
+    }
+}
@@ -20,13 +20,13 @@ import java.io.StringReader;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.MissingAttributeException;
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.TagSupport;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.parser.SAXParserPool;
 import org.apache.commons.jelly.parser.XMLParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +53,12 @@ public class ParseTag extends TagSupport {
     /** The XMLReader used to parser the document */
     private XMLReader xmlReader;
 
+    /** The parser the XMLReader was borrowed with, or null if it was not borrowed */
+    private SAXParser borrowedParser;
+
+    /** The pool the parser was borrowed from, or null if it was not borrowed */
+    private SAXParserPool parserPool;
+
     /** The Jelly parser */
     private XMLParser jellyParser;
 
@@ -73,12 +79,15 @@ public class ParseTag extends TagSupport {
     }
 
     /**
-     * Factory method to create a new XMLReader
+     * Factory method to create a new XMLReader, which is taken from a parser
+     * of the shared {@link SAXParserPool} rather than a new factory. The parser
+     * is returned to the pool once this tag has parsed its text.
      */
     protected XMLReader createXMLReader() throws ParserConfigurationException, SAXException {
-        final SAXParserFactory factory = SAXParserFactory.newInstance();
-        factory.setNamespaceAware(true);
-        final SAXParser parser = factory.newSAXParser();
+        final SAXParserPool pool = SAXParserPool.getInstance(false, true);
+        final SAXParser parser = pool.borrow();
+        borrowedParser = parser;
+        parserPool = pool;
         return parser.getXMLReader();
     }
 
@@ -90,11 +99,16 @@ public class ParseTag extends TagSupport {
         throws MissingAttributeException, JellyTagException {
 
         final String text = getText();
-        if (text != null) {
-            parseText(text);
+        try {
+            if (text != null) {
+                parseText(text);
+            }
+            else {
+                parseBody(output);
+            }
         }
-        else {
-            parseBody(output);
+        finally {
+            releaseXMLReader();
         }
 
         final Script script = getJellyParser().getScript();
@@ -174,6 +188,21 @@ public class ParseTag extends TagSupport {
         }
     }
 
+    /**
+     * Returns a parser borrowed from the pool once a parse has finished, so
+     * that the next parse borrows one again.
+     */
+    private void releaseXMLReader() {
+        if (parserPool != null) {
+            final SAXParser borrowed = borrowedParser;
+            final SAXParserPool pool = parserPool;
+            xmlReader = null;
+            borrowedParser = null;
+            parserPool = null;
+            pool.release(borrowed);
+        }
+    }
+
     /**
      * Sets the jellyParser.
      * @param jellyParser The jellyParser to set
@@ -35,6 +35,7 @@ import org.apache.commons.jelly.JellyContext;
 import org.apache.commons.jelly.JellyException;
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.PrecompiledScriptStore;
 
 /**
  * Utility class to parse command line options using CLI.
@@ -70,7 +71,7 @@ public class CommandLineParser {
 
         // check for -h or -v
         if (cmdLine.hasOption("h")) {
-            new HelpFormatter().printHelp("jelly [scriptFile] [-script scriptFile] [-o outputFile] [-Dsysprop=syspropval] [-awt]",
+            new HelpFormatter().printHelp("jelly [scriptFile] [-script scriptFile] [-o outputFile] [-precompiled directory] [-Dsysprop=syspropval] [-awt]",
                 cmdLineOptions);
             System.exit(1);
         }
@@ -110,6 +111,12 @@ public class CommandLineParser {
             final Jelly jelly = new Jelly();
             jelly.setScript(scriptFile);
 
+            // extract the -precompiled option for the directory of precompiled scripts
+            if (cmdLine.hasOption("precompiled")) {
+                jelly.getJellyContext().setPrecompiledScriptStore(
+                    new PrecompiledScriptStore(new File(cmdLine.getOptionValue("precompiled"))));
+            }
+
             final Script script = jelly.compileScript();
 
             // add the system properties and the command line arguments
@@ -161,7 +168,9 @@ public class CommandLineParser {
         cmdLineOptions.addOption("script", true, "Jelly script to run");
         cmdLineOptions.addOption("awt", false, "Wether to run in the AWT thread.");
         cmdLineOptions.addOption("swing", false, "Synonym of \"-awt\".");
-        final List builtinOptionNames = Arrays.asList(new String[] { "-o", "-script", "-h", "--help", "-v", "--version", "-awt", "-swing" });
+        cmdLineOptions.addOption("precompiled", true, "Directory of precompiled scripts");
+        final List builtinOptionNames = Arrays.asList(new String[] { "-o", "-script", "-h", "--help", "-v", "--version", "-awt", "-swing",
+            "-precompiled" });
 
         // -D options will be added to the system properties
         final Properties sysProps = System.getProperties();
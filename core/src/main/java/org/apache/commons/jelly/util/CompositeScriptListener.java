@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.ScriptListener;
+
+/**
+ * <p>{@code CompositeScriptListener} passes the events of whole scripts on to
+ * each of several listeners, in the order they were added, and the exit events
+ * in the reverse order. It is used by
+ * {@link JellyContext#addScriptListener(ScriptListener)} when a context has a
+ * listener already.</p>
+ */
+public class CompositeScriptListener implements ScriptListener {
+
+    /** The listeners, in the order they are called */
+    private final ScriptListener[] listeners;
+
+    /**
+     * Creates a listener which calls the given listener and then the other one.
+     * Either listener may be a composite itself, whose listeners are then called
+     * in turn.
+     */
+    public CompositeScriptListener(final ScriptListener first, final ScriptListener second) {
+        final ScriptListener[] firsts = listenersOf(first);
+        final ScriptListener[] seconds = listenersOf(second);
+        this.listeners = new ScriptListener[firsts.length + seconds.length];
+        System.arraycopy(firsts, 0, listeners, 0, firsts.length);
+        System.arraycopy(seconds, 0, listeners, firsts.length, seconds.length);
+    }
+
+    /**
+     * @return The listeners of the given composite, or the given listener alone
+     */
+    private static ScriptListener[] listenersOf(final ScriptListener listener) {
+        if (listener instanceof CompositeScriptListener) {
+            return ((CompositeScriptListener) listener).listeners;
+        }
+        if (listener instanceof CompositeExecutionListener) {
+            return ((CompositeExecutionListener) listener).getListeners();
+        }
+        return new ScriptListener[] { listener };
+    }
+
+    @Override
+    public void compiledScript(final String systemId, final long nanos) {
+        for (final ScriptListener listener : listeners) {
+            listener.compiledScript(systemId, nanos);
+        }
+    }
+
+    @Override
+    public void enterScript(final String systemId, final JellyContext context) {
+        for (final ScriptListener listener : listeners) {
+            listener.enterScript(systemId, context);
+        }
+    }
+
+    @Override
+    public void exitScript(final String systemId, final JellyContext context) {
+        for (int i = listeners.length - 1; i >= 0; i--) {
+            listeners[i].exitScript(systemId, context);
+        }
+    }
+
+    /**
+     * @return The listeners, in the order they are called
+     */
+    public ScriptListener[] getListeners() {
+        return listeners.clone();
+    }
+}
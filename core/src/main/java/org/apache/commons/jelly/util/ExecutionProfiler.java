@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.jelly.ExecutionListener;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.LocationAware;
+import org.apache.commons.jelly.expression.Expression;
+
+/**
+ * <p>{@code ExecutionProfiler} is an {@link ExecutionListener} which counts how
+ * often each script, tag and expression is compiled or run and how long it
+ * takes, adding up the times of all the scripts compiled from the same source
+ * location.</p>
+ *
+ * <p>The inclusive time of a tag includes its attributes and body, while its
+ * exclusive time leaves out the time of the nested tags and expressions which
+ * were listened to. The inclusive times of a tag which runs itself, as a
+ * recursive macro may, include the nested runs more than once.</p>
+ *
+ * <p>One profiler may be used by several threads at once:</p>
+ *
+ * <pre>
+ * ExecutionProfiler profiler = new ExecutionProfiler();
+ * context.setExecutionListener(profiler);
+ * context.runScript(url, output);
+ * profiler.writeReport(writer);
+ * </pre>
+ */
+public class ExecutionProfiler implements ExecutionListener {
+
+    /**
+     * The statistics of one source location.
+     */
+    public static final class Entry {
+
+        private final String location;
+
+        private long invocationCount;
+
+        private long inclusiveNanos;
+
+        private long exclusiveNanos;
+
+        private Entry(final String location) {
+            this.location = location;
+        }
+
+        private synchronized void add(final long count, final long inclusive, final long exclusive) {
+            invocationCount += count;
+            inclusiveNanos += inclusive;
+            exclusiveNanos += exclusive;
+        }
+
+        /**
+         * @return The time spent in the tags or expressions, leaving out those nested in them
+         */
+        public synchronized long getExclusiveNanos() {
+            return exclusiveNanos;
+        }
+
+        /**
+         * @return The time spent in the tags or expressions, including those nested in them
+         */
+        public synchronized long getInclusiveNanos() {
+            return inclusiveNanos;
+        }
+
+        /**
+         * @return The number of times the tags or expressions were run
+         */
+        public synchronized long getInvocationCount() {
+            return invocationCount;
+        }
+
+        /**
+         * @return The file, line and element name of the tags, followed by the text
+         * of the expressions for an expression, or the system ID of a script
+         * after "run" or "compile"
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        @Override
+        public String toString() {
+            return location + " count=" + getInvocationCount() + " inclusive=" + getInclusiveNanos()
+                + "ns exclusive=" + getExclusiveNanos() + "ns";
+        }
+    }
+
+    /**
+     * The start times of the tags and expressions being run by one thread, along
+     * with the time spent in what is nested in them.
+     */
+    private static final class Frames {
+
+        private long[] startTimes = new long[32];
+
+        private long[] nestedTimes = new long[32];
+
+        private int depth;
+
+        /** Adds time spent in something which was not pushed to the innermost frame */
+        private void nested(final long nanos) {
+            if (depth > 0) {
+                nestedTimes[depth - 1] += nanos;
+            }
+        }
+
+        /** Adds the time since the innermost start to the given entry */
+        private void pop(final long now, final Entry entry) {
+            depth--;
+            final long inclusive = now - startTimes[depth];
+            entry.add(1, inclusive, inclusive - nestedTimes[depth]);
+            nested(inclusive);
+        }
+
+        private void push(final long now) {
+            if (depth == startTimes.length) {
+                startTimes = Arrays.copyOf(startTimes, depth * 2);
+                nestedTimes = Arrays.copyOf(nestedTimes, depth * 2);
+            }
+            startTimes[depth] = now;
+            nestedTimes[depth] = 0;
+            depth++;
+        }
+    }
+
+    /** Orders entries by decreasing exclusive time */
+    private static final Comparator BY_EXCLUSIVE_TIME = new Comparator() {
+        @Override
+        public int compare(final Object o1, final Object o2) {
+            return Long.compare(((Entry) o2).getExclusiveNanos(), ((Entry) o1).getExclusiveNanos());
+        }
+    };
+
+    /** The key of the scripts with no system ID and of the expressions evaluated as text */
+    private static final Object NO_LOCATION = new Object();
+
+    /**
+     * Adds up the given entries into the entries of the given map, keyed by their locations
+     */
+    private static void addEntries(final Map byLocation, final Map entries) {
+        for (final Iterator iter = entries.values().iterator(); iter.hasNext();) {
+            final Entry entry = (Entry) iter.next();
+            Entry total = (Entry) byLocation.get(entry.getLocation());
+            if (total == null) {
+                total = new Entry(entry.getLocation());
+                byLocation.put(entry.getLocation(), total);
+            }
+            total.add(entry.getInvocationCount(), entry.getInclusiveNanos(), entry.getExclusiveNanos());
+        }
+    }
+
+    /**
+     * @return The file, line, column and element name of the given tag
+     */
+    private static String describe(final LocationAware location) {
+        if (location == null) {
+            return "(text)";
+        }
+        return location.getFileName() + ":" + location.getLineNumber() + ":" + location.getColumnNumber()
+            + " <" + location.getElementName() + ">";
+    }
+
+    /**
+     * @return The entry in the given map for the given key, adding one for the
+     * given location if there is none
+     */
+    private static Entry entry(final ConcurrentHashMap map, final Object key, final String location) {
+        final Entry entry = (Entry) map.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        final Entry added = new Entry(location);
+        final Entry existing = (Entry) map.putIfAbsent(key, added);
+        return existing != null ? existing : added;
+    }
+
+    /** The entry of each script run, keyed by system ID */
+    private final ConcurrentHashMap scriptEntries = new ConcurrentHashMap();
+
+    /** The entry of the compilation of each script, keyed by system ID */
+    private final ConcurrentHashMap compileEntries = new ConcurrentHashMap();
+
+    /** The entry of each tag script */
+    private final ConcurrentHashMap tagEntries = new ConcurrentHashMap();
+
+    /** For each tag script, or NO_LOCATION, the entry of each of its expressions */
+    private final ConcurrentHashMap expressionEntries = new ConcurrentHashMap();
+
+    /** The frames of each thread */
+    private final ThreadLocal frames = new ThreadLocal() {
+        @Override
+        protected Object initialValue() {
+            return new Frames();
+        }
+    };
+
+    public ExecutionProfiler() {
+    }
+
+    /**
+     * Forgets all that has been profiled so far. Tags and expressions which are
+     * running when this is called are counted once they have completed.
+     */
+    public void clear() {
+        scriptEntries.clear();
+        compileEntries.clear();
+        tagEntries.clear();
+        expressionEntries.clear();
+    }
+
+    @Override
+    public void compiledScript(final String systemId, final long nanos) {
+        final Object key = systemId != null ? systemId : NO_LOCATION;
+        Entry entry = (Entry) compileEntries.get(key);
+        if (entry == null) {
+            entry = entry(compileEntries, key, "compile " + systemId);
+        }
+        entry.add(1, nanos, nanos);
+        ((Frames) frames.get()).nested(nanos);
+    }
+
+    @Override
+    public void enterExpression(final Expression expression, final LocationAware location) {
+        ((Frames) frames.get()).push(System.nanoTime());
+    }
+
+    @Override
+    public void enterScript(final String systemId, final JellyContext context) {
+        ((Frames) frames.get()).push(System.nanoTime());
+    }
+
+    @Override
+    public void enterTag(final LocationAware location, final JellyContext context) {
+        ((Frames) frames.get()).push(System.nanoTime());
+    }
+
+    @Override
+    public void exitExpression(final Expression expression, final LocationAware location) {
+        final long now = System.nanoTime();
+        final Object key = location != null ? location : NO_LOCATION;
+        ConcurrentHashMap expressions = (ConcurrentHashMap) expressionEntries.get(key);
+        if (expressions == null) {
+            final ConcurrentHashMap added = new ConcurrentHashMap();
+            final ConcurrentHashMap existing = (ConcurrentHashMap) expressionEntries.putIfAbsent(key, added);
+            expressions = existing != null ? existing : added;
+        }
+        Entry entry = (Entry) expressions.get(expression);
+        if (entry == null) {
+            entry = entry(expressions, expression, describe(location) + " ${" + expression.getExpressionText() + "}");
+        }
+        ((Frames) frames.get()).pop(now, entry);
+    }
+
+    @Override
+    public void exitScript(final String systemId, final JellyContext context) {
+        final long now = System.nanoTime();
+        final Object key = systemId != null ? systemId : NO_LOCATION;
+        Entry entry = (Entry) scriptEntries.get(key);
+        if (entry == null) {
+            entry = entry(scriptEntries, key, "run " + systemId);
+        }
+        ((Frames) frames.get()).pop(now, entry);
+    }
+
+    @Override
+    public void exitTag(final LocationAware location, final JellyContext context) {
+        final long now = System.nanoTime();
+        Entry entry = (Entry) tagEntries.get(location);
+        if (entry == null) {
+            entry = entry(tagEntries, location, describe(location));
+        }
+        ((Frames) frames.get()).pop(now, entry);
+    }
+
+    /**
+     * @return The {@link Entry entries} profiled so far, one per source location,
+     * ordered by decreasing exclusive time
+     */
+    public List getEntries() {
+        final Map byLocation = new HashMap();
+        addEntries(byLocation, scriptEntries);
+        addEntries(byLocation, compileEntries);
+        addEntries(byLocation, tagEntries);
+        for (final Iterator iter = expressionEntries.values().iterator(); iter.hasNext();) {
+            addEntries(byLocation, (Map) iter.next());
+        }
+        final List answer = new ArrayList(byLocation.values());
+        Collections.sort(answer, BY_EXCLUSIVE_TIME);
+        return answer;
+    }
+
+    @Override
+    public String toString() {
+        final StringWriter buffer = new StringWriter();
+        try {
+            writeReport(buffer);
+        } catch (final IOException e) {
+            // cannot happen with a StringWriter
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Writes a table of the entries profiled so far, with times in microseconds.
+     */
+    public void writeReport(final Writer writer) throws IOException {
+        final PrintWriter out = new PrintWriter(writer);
+        out.println("      count   inclusive us   exclusive us  location");
+        for (final Iterator iter = getEntries().iterator(); iter.hasNext();) {
+            final Entry entry = (Entry) iter.next();
+            out.printf("%11d %14d %14d  %s%n", Long.valueOf(entry.getInvocationCount()),
+                Long.valueOf(entry.getInclusiveNanos() / 1000), Long.valueOf(entry.getExclusiveNanos() / 1000),
+                entry.getLocation());
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("could not write the profile");
+        }
+    }
+}
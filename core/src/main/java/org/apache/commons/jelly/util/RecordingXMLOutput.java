@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.parser.SAXEventBuffer;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * <p>{@code RecordingXMLOutput} is an XMLOutput which records the events it is
+ * sent so that they can be replayed to any ContentHandler or rendered as text,
+ * as many times as needed, without running the script which produced them again.</p>
+ *
+ * <p>Events are recorded in a {@link SAXEventBuffer} before any namespace
+ * processing, so replaying them to another XMLOutput is the same as sending them to
+ * it directly. Objects passed to {@link #objectData(Object)} are kept as they are
+ * and passed on to an XMLOutput on replay, or written as text to any other handler.
+ * A recording may be {@link #clear() cleared} and reused, keeping the space it has
+ * allocated.</p>
+ *
+ * <p>A recording may be replayed by many threads at once, but must not be
+ * replayed while events are still being recorded.</p>
+ */
+public class RecordingXMLOutput extends XMLOutput {
+
+    /** The recorded events */
+    private final SAXEventBuffer events = new SAXEventBuffer();
+
+    /**
+     * Creates an empty recording.
+     */
+    public RecordingXMLOutput() {
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        events.characters(ch, start, length);
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        events.endDocument();
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        events.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+        events.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        events.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        events.processingInstruction(target, data);
+    }
+
+    /**
+     * Locations are not recorded, as the output of a script has none.
+     */
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+        events.skippedEntity(name);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        events.startDocument();
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+        throws SAXException {
+        events.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        events.startPrefixMapping(prefix, uri);
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        events.comment(ch, start, length);
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        events.endCDATA();
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        events.endDTD();
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+        events.endEntity(name);
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        events.startCDATA();
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+        events.startDTD(name, publicId, systemId);
+    }
+
+    @Override
+    public void startEntity(final String name) throws SAXException {
+        events.startEntity(name);
+    }
+
+    // XMLOutput methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Nothing is written until the events are replayed, so there is nothing to flush.
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    /**
+     * Records the object itself, so that it is passed on to an XMLOutput on replay.
+     */
+    @Override
+    public void objectData(final Object object) throws SAXException {
+        events.objectData(object);
+    }
+
+    @Override
+    public void write(final String text) throws SAXException {
+        events.characters(text);
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The text of the recorded events, rendered as
+     * {@link XMLOutput#createXMLOutput(Writer, boolean)} would render them
+     */
+    public String getText(final boolean escapeText) throws SAXException {
+        final StringWriter writer = new StringWriter();
+        writeTo(writer, escapeText);
+        return writer.toString();
+    }
+
+    /**
+     * @return Whether no events have been recorded
+     */
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Removes all the recorded events so that this output can be used again,
+     * keeping the space it has allocated.
+     */
+    public void clear() {
+        events.clear();
+    }
+
+    /**
+     * Replays the recorded events to the given handler, and to its
+     * {@link LexicalHandler} methods if it implements that interface.
+     */
+    public void replay(final ContentHandler handler) throws SAXException {
+        events.replay(handler);
+    }
+
+    /**
+     * Renders the recorded events as text to the given writer, as
+     * {@link XMLOutput#createXMLOutput(Writer, boolean)} would render them.
+     */
+    public void writeTo(final Writer writer, final boolean escapeText) throws SAXException {
+        final XMLOutput output = XMLOutput.createXMLOutput(writer, escapeText);
+        replay(output);
+        try {
+            output.flush();
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+}
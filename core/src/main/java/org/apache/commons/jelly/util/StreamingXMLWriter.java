@@ -0,0 +1,724 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * <p>{@code StreamingXMLWriter} writes SAX events as XML text. It is a lighter
+ * alternative to dom4j's {@code XMLWriter} for the output of scripts: text is
+ * escaped straight from the given characters or String into a reusable buffer
+ * and, for UTF-8 output streams, encoded straight into bytes without a
+ * {@code Writer} in between.</p>
+ *
+ * <p>Elements are written in the same way as {@code XMLWriter} writes them, so an
+ * empty element is written as a start and end tag. Text is escaped unless
+ * {@link #setEscapeText(boolean)} is turned off, while attribute values are always
+ * escaped. Setting an {@link #setIndent(String) indent} pretty prints elements
+ * which contain other elements.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ */
+public class StreamingXMLWriter implements ContentHandler, LexicalHandler {
+
+    /** The number of characters buffered before they are encoded and written */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The encoding used by default and encoded without a Writer */
+    private static final String UTF_8 = "UTF-8";
+
+    /** The number of characters of a String escaped at a time */
+    private static final int CHUNK_SIZE = 1024;
+
+    /** Written in place of characters which cannot be encoded */
+    private static final byte UNENCODABLE = (byte) '?';
+
+    /**
+     * @return The highest character the given encoding can write, above which
+     * characters are written as character references
+     */
+    private static int maxCharacter(final String encoding) {
+        if ("US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding)) {
+            return 127;
+        }
+        if ("ISO-8859-1".equalsIgnoreCase(encoding) || "Latin1".equalsIgnoreCase(encoding)) {
+            return 255;
+        }
+        return Character.MAX_VALUE;
+    }
+
+    /** The Writer to write to, or null if UTF-8 is encoded straight to {@link #out} */
+    private final Writer writer;
+
+    /** The stream UTF-8 is encoded to, or null if writing to {@link #writer} */
+    private final OutputStream out;
+
+    /** The encoding named in the XML declaration */
+    private final String encoding;
+
+    /** The highest character written as itself rather than as a character reference */
+    private final int maxCharacter;
+
+    /** The characters not yet encoded */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /** The number of characters in the buffer */
+    private int count;
+
+    /** Holds the characters of a String while they are escaped */
+    private final char[] chunk = new char[CHUNK_SIZE];
+
+    /** The bytes UTF-8 is encoded into, or null if writing to a Writer */
+    private final byte[] bytes;
+
+    /** The namespace declarations to write on the next element, as prefix and URI pairs */
+    private String[] namespaces = new String[8];
+
+    /** The number of strings in {@link #namespaces} */
+    private int namespaceCount;
+
+    private boolean escapeText = true;
+
+    private boolean suppressDeclaration;
+
+    /** The indentation for each level of pretty printed elements or null if not pretty printing */
+    private String indent;
+
+    /** The depth of the current element */
+    private int depth;
+
+    /** Whether the last tag written was an end tag, so the next end tag goes on a new line */
+    private boolean lastElementClosed;
+
+    /** Whether anything has been written, so a new line is needed before an indented tag */
+    private boolean started;
+
+    private boolean inCDATA;
+
+    private boolean inDTD;
+
+    /**
+     * Creates a writer of UTF-8 encoded XML to the given stream.
+     */
+    public StreamingXMLWriter(final OutputStream out) {
+        this.writer = null;
+        this.out = out;
+        this.encoding = UTF_8;
+        this.maxCharacter = Character.MAX_VALUE;
+        this.bytes = new byte[BUFFER_SIZE * 3];
+    }
+
+    /**
+     * Creates a writer of XML in the given encoding to the given stream.
+     *
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    public StreamingXMLWriter(final OutputStream out, final String encoding) throws UnsupportedEncodingException {
+        if (UTF_8.equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding)) {
+            this.writer = null;
+            this.out = out;
+            this.bytes = new byte[BUFFER_SIZE * 3];
+        }
+        else {
+            this.writer = new OutputStreamWriter(out, encoding);
+            this.out = null;
+            this.bytes = null;
+        }
+        this.encoding = encoding;
+        this.maxCharacter = maxCharacter(encoding);
+    }
+
+    /**
+     * Creates a writer of XML to the given Writer. The XML declaration, if
+     * written, names the encoding as UTF-8.
+     */
+    public StreamingXMLWriter(final Writer writer) {
+        this.writer = writer;
+        this.out = null;
+        this.encoding = UTF_8;
+        this.maxCharacter = Character.MAX_VALUE;
+        this.bytes = null;
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The indentation for each level of pretty printed elements or null
+     * if elements are not pretty printed
+     */
+    public String getIndent() {
+        return indent;
+    }
+
+    /**
+     * @return whether text is escaped
+     */
+    public boolean isEscapeText() {
+        return escapeText;
+    }
+
+    /**
+     * @return whether the XML declaration is left out when the document starts
+     */
+    public boolean isSuppressDeclaration() {
+        return suppressDeclaration;
+    }
+
+    /**
+     * Sets whether text is escaped. This should be true if the output is XML
+     * and may be false if the output is textual. Attribute values are always escaped.
+     */
+    public void setEscapeText(final boolean escapeText) {
+        this.escapeText = escapeText;
+    }
+
+    /**
+     * Sets the indentation for each level of elements, which pretty prints
+     * elements which contain other elements on their own lines.
+     *
+     * @param indent The indentation such as two spaces, or null or empty to
+     *  write elements as they are
+     */
+    public void setIndent(final String indent) {
+        this.indent = indent == null || indent.isEmpty() ? null : indent;
+    }
+
+    /**
+     * Sets whether the XML declaration is left out when the document starts.
+     */
+    public void setSuppressDeclaration(final boolean suppressDeclaration) {
+        this.suppressDeclaration = suppressDeclaration;
+    }
+
+    // Output methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Writes the given text, escaping it if text is escaped, without copying
+     * it into a new array first.
+     */
+    public void characters(final String text) throws SAXException {
+        try {
+            if (escapeText && !inCDATA) {
+                writeEscaped(text, false);
+            }
+            else {
+                writeRaw(text);
+            }
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Writes any buffered characters to the underlying stream or Writer and flushes it.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        }
+        else {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes any buffered characters and closes the underlying stream or Writer.
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        if (count > 0) {
+            // a lone high surrogate at the very end
+            count = 0;
+            out.write(UNENCODABLE);
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        else {
+            out.close();
+        }
+    }
+
+    /**
+     * Discards any buffered characters and pending namespace declarations so
+     * that this writer can write a new document, keeping its buffers and
+     * properties.
+     */
+    public void reset() {
+        count = 0;
+        for (int i = 0; i < namespaceCount; i++) {
+            namespaces[i] = null;
+        }
+        namespaceCount = 0;
+        depth = 0;
+        lastElementClosed = false;
+        started = false;
+        inCDATA = false;
+        inDTD = false;
+    }
+
+    // ContentHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+        try {
+            if (escapeText && !inCDATA) {
+                writeEscaped(ch, start, length, false);
+            }
+            else {
+                writeRaw(ch, start, length);
+            }
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+        try {
+            --depth;
+            if (lastElementClosed) {
+                writeIndent();
+            }
+            writeRaw('<');
+            writeRaw('/');
+            writeRaw(qName.isEmpty() ? localName : qName);
+            writeRaw('>');
+            lastElementClosed = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+        try {
+            writeRaw(ch, start, length);
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data) throws SAXException {
+        try {
+            writeIndent();
+            writeRaw("<?");
+            writeRaw(target);
+            if (data != null && !data.isEmpty()) {
+                writeRaw(' ');
+                writeRaw(data);
+            }
+            writeRaw("?>");
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+    }
+
+    @Override
+    public void skippedEntity(final String name) throws SAXException {
+        try {
+            writeRaw('&');
+            writeRaw(name);
+            writeRaw(';');
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        if (!suppressDeclaration) {
+            try {
+                writeRaw("<?xml version=\"1.0\" encoding=\"");
+                writeRaw(encoding);
+                writeRaw("\"?>");
+                writeRaw('\n');
+            } catch (final IOException e) {
+                throw new SAXException(e);
+            }
+        }
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+        throws SAXException {
+        try {
+            writeIndent();
+            writeRaw('<');
+            writeRaw(qName.isEmpty() ? localName : qName);
+            for (int i = 0; i < namespaceCount; i += 2) {
+                final String prefix = namespaces[i];
+                writeRaw(" xmlns");
+                if (!prefix.isEmpty()) {
+                    writeRaw(':');
+                    writeRaw(prefix);
+                }
+                writeAttributeValue(namespaces[i + 1]);
+            }
+            namespaceCount = 0;
+            if (atts != null) {
+                for (int i = 0, size = atts.getLength(); i < size; i++) {
+                    final String name = atts.getQName(i);
+                    writeRaw(' ');
+                    writeRaw(name == null || name.isEmpty() ? atts.getLocalName(i) : name);
+                    writeAttributeValue(atts.getValue(i));
+                }
+            }
+            writeRaw('>');
+            depth++;
+            lastElementClosed = false;
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+        if (namespaceCount + 2 > namespaces.length) {
+            final String[] newNamespaces = new String[namespaces.length * 2];
+            System.arraycopy(namespaces, 0, newNamespaces, 0, namespaceCount);
+            namespaces = newNamespaces;
+        }
+        namespaces[namespaceCount++] = prefix == null ? "" : prefix;
+        namespaces[namespaceCount++] = uri == null ? "" : uri;
+    }
+
+    // LexicalHandler interface
+    //-------------------------------------------------------------------------
+
+    @Override
+    public void comment(final char[] ch, final int start, final int length) throws SAXException {
+        if (inDTD) {
+            return;
+        }
+        try {
+            writeIndent();
+            writeRaw("<!--");
+            writeRaw(ch, start, length);
+            writeRaw("-->");
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        try {
+            writeRaw("]]>");
+            inCDATA = false;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        inDTD = false;
+    }
+
+    @Override
+    public void endEntity(final String name) throws SAXException {
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        try {
+            writeRaw("<![CDATA[");
+            inCDATA = true;
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+        inDTD = true;
+        try {
+            writeRaw("<!DOCTYPE ");
+            writeRaw(name);
+            if (publicId != null) {
+                writeRaw(" PUBLIC \"");
+                writeRaw(publicId);
+                writeRaw('"');
+                if (systemId != null) {
+                    writeRaw(" \"");
+                    writeRaw(systemId);
+                    writeRaw('"');
+                }
+            }
+            else if (systemId != null) {
+                writeRaw(" SYSTEM \"");
+                writeRaw(systemId);
+                writeRaw('"');
+            }
+            writeRaw('>');
+            writeRaw('\n');
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Writes a reference to the entity, as dom4j's XMLWriter does. The text of
+     * the entity which follows is written as well. Entities within the DTD,
+     * which is not written, are ignored.
+     */
+    @Override
+    public void startEntity(final String name) throws SAXException {
+        if (inDTD) {
+            return;
+        }
+        try {
+            writeRaw('&');
+            writeRaw(name);
+            writeRaw(';');
+            started = true;
+        } catch (final IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    // Implementation methods
+    //-------------------------------------------------------------------------
+
+    /**
+     * Writes the buffered characters to the Writer or encodes them as UTF-8 to
+     * the stream. A trailing high surrogate is kept back until its pair arrives.
+     */
+    private void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.write(buffer, 0, count);
+            count = 0;
+            return;
+        }
+        int end = count;
+        if (end > 0 && Character.isHighSurrogate(buffer[end - 1])) {
+            end--;
+        }
+        final byte[] bytes = this.bytes;
+        int length = 0;
+        for (int i = 0; i < end; i++) {
+            final char c = buffer[i];
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | c >> 6);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(buffer[i + 1])) {
+                    final int codePoint = Character.toCodePoint(c, buffer[++i]);
+                    bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+                }
+                else {
+                    bytes[length++] = UNENCODABLE;
+                }
+            }
+            else {
+                bytes[length++] = (byte) (0xE0 | c >> 12);
+                bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        out.write(bytes, 0, length);
+        if (end < count) {
+            buffer[0] = buffer[end];
+            count = 1;
+        }
+        else {
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped attribute value.
+     */
+    private void writeAttributeValue(final String value) throws IOException {
+        writeRaw('=');
+        writeRaw('"');
+        if (value != null) {
+            writeEscaped(value, true);
+        }
+        writeRaw('"');
+    }
+
+    /**
+     * Writes the given characters, replacing markup characters, control
+     * characters other than whitespace and any characters which cannot be
+     * encoded with references.
+     */
+    private void writeEscaped(final char[] ch, final int start, final int length, final boolean attribute)
+        throws IOException {
+        final int end = start + length;
+        int run = start;
+        for (int i = start; i < end; i++) {
+            final char c = ch[i];
+            final String entity;
+            switch (c) {
+            case '<':
+                entity = "&lt;";
+                break;
+            case '>':
+                entity = "&gt;";
+                break;
+            case '&':
+                entity = "&amp;";
+                break;
+            case '"':
+                entity = attribute ? "&quot;" : null;
+                break;
+            case '\t':
+            case '\n':
+            case '\r':
+                // written as they are, as dom4j's XMLWriter does
+                entity = null;
+                break;
+            default:
+                entity = null;
+                if (c < ' ' || c > maxCharacter) {
+                    writeRaw(ch, run, i - run);
+                    int codePoint = c;
+                    if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ch[i + 1])) {
+                        codePoint = Character.toCodePoint(c, ch[++i]);
+                    }
+                    writeRaw("&#");
+                    writeRaw(Integer.toString(codePoint));
+                    writeRaw(';');
+                    run = i + 1;
+                }
+                break;
+            }
+            if (entity != null) {
+                writeRaw(ch, run, i - run);
+                writeRaw(entity);
+                run = i + 1;
+            }
+        }
+        writeRaw(ch, run, end - run);
+    }
+
+    /**
+     * Writes the given String escaped, a chunk at a time, without splitting a
+     * surrogate pair between chunks.
+     */
+    private void writeEscaped(final String text, final boolean attribute) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(length, start + CHUNK_SIZE);
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            text.getChars(start, end, chunk, 0);
+            writeEscaped(chunk, 0, end - start, attribute);
+            start = end;
+        }
+    }
+
+    /**
+     * Starts a new, indented line if pretty printing.
+     */
+    private void writeIndent() throws IOException {
+        if (indent == null) {
+            return;
+        }
+        if (started) {
+            writeRaw('\n');
+        }
+        for (int i = 0; i < depth; i++) {
+            writeRaw(indent);
+        }
+    }
+
+    private void writeRaw(final char c) throws IOException {
+        if (count == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[count++] = c;
+    }
+
+    private void writeRaw(final char[] ch, final int start, final int length) throws IOException {
+        if (length <= BUFFER_SIZE - count) {
+            System.arraycopy(ch, start, buffer, count, length);
+            count += length;
+            return;
+        }
+        int offset = start;
+        final int end = start + length;
+        while (offset < end) {
+            if (count == BUFFER_SIZE) {
+                flushBuffer();
+            }
+            final int size = Math.min(end - offset, BUFFER_SIZE - count);
+            System.arraycopy(ch, offset, buffer, count, size);
+            count += size;
+            offset += size;
+        }
+    }
+
+    private void writeRaw(final String text) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if (count == BUFFER_SIZE) {
+                flushBuffer();
+            }
+            final int chunk = Math.min(length - start, BUFFER_SIZE - count);
+            text.getChars(start, start + chunk, buffer, count);
+            count += chunk;
+            start += chunk;
+        }
+    }
+}
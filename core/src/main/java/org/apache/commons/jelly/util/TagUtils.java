@@ -16,17 +16,60 @@
  */
 package org.apache.commons.jelly.util;
 
+import java.util.Iterator;
+
 import org.apache.commons.jelly.Script;
 import org.apache.commons.jelly.impl.CompositeTextScriptBlock;
 import org.apache.commons.jelly.impl.ScriptBlock;
+import org.apache.commons.jelly.impl.TagScript;
 import org.apache.commons.jelly.impl.TextScript;
 
 /** Contains static methods to help tag developers.
  */
 public class TagUtils {
 
+    /**
+     * Drops the tags held in the current frame of this thread for the given
+     * script and the scripts in its body, so that they are created again the next
+     * time the script runs in this frame. A thread which will not run the script
+     * again calls this so that its root frame does not keep the context the tags
+     * ran in.
+     *
+     * @see TagScript#clearTags()
+     */
+    public static void clearTags(final Script script) {
+        if ( script instanceof TagScript ) {
+            ((TagScript) script).clearTags();
+        }
+        else if ( script instanceof ScriptBlock ) {
+            for ( final Iterator iter = ((ScriptBlock) script).getScriptList().iterator(); iter.hasNext(); ) {
+                clearTags( (Script) iter.next() );
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the given script with the whitespace trimmed from it and its
+     * children, leaving the given script unchanged. This is the non destructive form
+     * of {@link #trimScript(Script)} which is safe to use on scripts which may be
+     * running concurrently in other threads.
+     *
+     * @return The trimmed script, which is the given script if it has no text to trim
+     */
+    public static Script trimmedScript(final Script body) {
+        if ( body instanceof ScriptBlock ) {
+            return ((ScriptBlock) body).getTrimmedScript();
+        }
+        if ( body instanceof TextScript ) {
+            return ((TextScript) body).getTrimmedScript();
+        }
+        return body;
+    }
+
     /** Trims the whitespace from a script and its children.
+     * Note that this modifies the given script.
      *
+     * @see #trimmedScript(Script)
      */
     public static void trimScript(final Script body) {
         synchronized(body) {
@@ -18,6 +18,7 @@ package org.apache.commons.jelly;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 
 import org.apache.commons.jelly.impl.TextScript;
@@ -68,6 +69,19 @@ public class TestCoreTags extends TestCase {
         assertEquals("Produces the correct output", "one two three", text);
     }
 
+    public void testNestedBodyText() throws Exception {
+        final XMLParser parser = new XMLParser();
+        final Script script = parser.parse(new StringReader(
+            "<j:jelly xmlns:j='jelly:core'><j:set var='outer'>a &amp; <b x='1'>"
+                + "<j:set var='inner' encode='false'>c &amp; d</j:set>e</b></j:set></j:jelly>")).compile();
+        for (int i = 0; i < 2; i++) {
+            final JellyContext context = new JellyContext();
+            script.run(context, XMLOutput.createDummyXMLOutput());
+            assertEquals("c & d", context.getVariable("inner"));
+            assertEquals("a &amp;<b x=\"1\">e</b>", context.getVariable("outer"));
+        }
+    }
+
     public void testStaticNamespacedAttributes() throws Exception {
         final InputStream in = new FileInputStream("src/test/resources/org/apache/commons/jelly/testStaticNamespacedAttributes.jelly");
         final XMLParser parser = new XMLParser();
@@ -39,4 +39,112 @@ public class TestJellyContext extends TestCase
 
         assertNotNull( "Value after setVariables()", jc.getVariable( "context" ) );
     }
+
+    public void testVariableLookupWalksParents()
+    {
+        final JellyContext root = new JellyContext();
+        root.setVariable( "a", "root" );
+        final JellyContext child = root.newJellyContext();
+        final JellyContext grandChild = child.newJellyContext();
+        child.setVariable( "b", "child" );
+
+        assertEquals( "root", grandChild.getVariable( "a" ) );
+        assertEquals( "child", grandChild.getVariable( "b" ) );
+        assertNull( grandChild.getVariable( "undefined.variable" ) );
+
+        grandChild.setVariable( "a", "grandChild" );
+        assertEquals( "grandChild", grandChild.getVariable( "a" ) );
+
+        child.setInherit( false );
+        assertNull( "Not inherited", child.getVariable( "a" ) );
+        assertEquals( "Found regardless of inherit", "root", child.findVariable( "a" ) );
+    }
+
+    public void testVariableScopeWithoutSystemProperties()
+    {
+        final JellyContext root = new JellyContext();
+        assertEquals( System.getProperty( "java.version" ), root.getVariable( "java.version" ) );
+
+        root.setVariableScope( new DefaultVariableScope( false ) );
+        final JellyContext child = root.newJellyContext();
+        assertSame( root.getVariableScope(), child.getVariableScope() );
+        assertNull( child.getVariable( "java.version" ) );
+        assertNull( child.findVariable( "java.version" ) );
+
+        child.setVariable( "java.version", "defined" );
+        assertEquals( "defined", child.getVariable( "java.version" ) );
+    }
+
+    public void testCachedVariableScope()
+    {
+        final int[] systemLookups = new int[1];
+        final JellyContext root = new JellyContext();
+        root.setVariableScope( new DefaultVariableScope( true, true ) {
+            @Override
+            protected Object getSystemProperty( final String name )
+            {
+                systemLookups[0]++;
+                return super.getSystemProperty( name );
+            }
+        } );
+        final JellyContext child = root.newJellyContext();
+        final JellyContext grandChild = child.newJellyContext();
+
+        assertNull( grandChild.getVariable( "undefined.variable" ) );
+        assertNull( grandChild.getVariable( "undefined.variable" ) );
+        assertEquals( "Miss is remembered", 1, systemLookups[0] );
+
+        root.setVariable( "undefined.variable", "root" );
+        assertEquals( "root", grandChild.getVariable( "undefined.variable" ) );
+        child.setVariable( "undefined.variable", "child" );
+        assertEquals( "child", grandChild.getVariable( "undefined.variable" ) );
+        child.removeVariable( "undefined.variable" );
+        assertEquals( "root", grandChild.getVariable( "undefined.variable" ) );
+        root.setVariable( "undefined.variable", null );
+        assertNull( grandChild.getVariable( "undefined.variable" ) );
+
+        final HashMap variables = new HashMap();
+        variables.put( "a", "set" );
+        child.setVariables( variables );
+        assertEquals( "set", grandChild.getVariable( "a" ) );
+        child.clear();
+        assertNull( grandChild.getVariable( "a" ) );
+
+        root.setVariable( "b", "root" );
+        assertEquals( "root", child.getVariable( "b" ) );
+        child.setInherit( false );
+        assertNull( "Not inherited", child.getVariable( "b" ) );
+        assertEquals( "Found regardless of inherit", "root", child.findVariable( "b" ) );
+
+        // "Aa" and "BB" have the same hash, so share the counter of their changes
+        assertNull( root.getVariable( "Aa" ) );
+        root.setVariable( "BB", "BB" );
+        assertNull( root.getVariable( "Aa" ) );
+        root.setVariable( "Aa", "Aa" );
+        assertEquals( "Aa", root.getVariable( "Aa" ) );
+        assertEquals( "BB", root.getVariable( "BB" ) );
+    }
+
+    public void testConcurrentContexts()
+    {
+        final JellyContext root = new JellyContext();
+        assertTrue( "Concurrent by default", root.isConcurrent() );
+        root.setVariable( "a", "root" );
+
+        root.setConcurrent( false );
+        assertFalse( root.isConcurrent() );
+        assertEquals( "Variables are kept", "root", root.getVariable( "a" ) );
+        assertSame( root, root.getVariable( "context" ) );
+
+        final JellyContext child = root.newJellyContext();
+        assertFalse( "Child is confined too", child.isConcurrent() );
+        assertEquals( "root", child.getVariable( "a" ) );
+        assertSame( root.getVariables(), child.getVariable( "parentScope" ) );
+
+        child.getVariables().put( "a", null );
+        assertNull( "Defined as null", child.getVariable( "a" ) );
+
+        child.setConcurrent( true );
+        assertEquals( "Null variables are dropped", "root", child.getVariable( "a" ) );
+    }
 }
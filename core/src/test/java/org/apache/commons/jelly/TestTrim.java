@@ -17,7 +17,12 @@
 
 package org.apache.commons.jelly;
 
+import java.util.List;
+
+import org.apache.commons.jelly.impl.CompositeTextScriptBlock;
+import org.apache.commons.jelly.impl.ScriptBlock;
 import org.apache.commons.jelly.impl.TextScript;
+import org.apache.commons.jelly.util.TagUtils;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -91,4 +96,36 @@ public class TestTrim extends TestCase {
 
         assertEquals( "foo", script.getText() );
     }
+
+    public void testTrimmedBlockLeavesOriginal() throws Exception {
+        final ScriptBlock block = new ScriptBlock();
+        block.addScript( new TextScript( "  " ) );
+        block.addScript( new TextScript( " foo " ) );
+
+        final Script trimmed = TagUtils.trimmedScript( block );
+        assertNotSame( block, trimmed );
+        assertSame( "trimmed copy is reused", trimmed, TagUtils.trimmedScript( block ) );
+        assertSame( "trimmed copy is already trimmed", trimmed, TagUtils.trimmedScript( trimmed ) );
+
+        final List list = ((ScriptBlock) trimmed).getScriptList();
+        assertEquals( 1, list.size() );
+        assertEquals( "foo", ((TextScript) list.get(0)).getText() );
+
+        assertEquals( 2, block.getScriptList().size() );
+        assertEquals( " foo ", ((TextScript) block.getScriptList().get(1)).getText() );
+    }
+
+    public void testTrimmedCompositeBlockLeavesOriginal() throws Exception {
+        final CompositeTextScriptBlock block = new CompositeTextScriptBlock();
+        block.addScript( new TextScript( " foo " ) );
+        block.addScript( new TextScript( " bar " ) );
+
+        final ScriptBlock trimmed = (ScriptBlock) TagUtils.trimmedScript( block );
+        assertTrue( trimmed instanceof CompositeTextScriptBlock );
+        assertEquals( "foo ", ((TextScript) trimmed.getScriptList().get(0)).getText() );
+        assertEquals( " bar", ((TextScript) trimmed.getScriptList().get(1)).getText() );
+
+        assertEquals( " foo ", ((TextScript) block.getScriptList().get(0)).getText() );
+        assertEquals( " bar ", ((TextScript) block.getScriptList().get(1)).getText() );
+    }
 }
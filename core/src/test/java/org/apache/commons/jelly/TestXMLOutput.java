@@ -17,8 +17,13 @@
 package org.apache.commons.jelly;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.jelly.test.BaseJellyTest;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 
 /*
  */
@@ -31,6 +36,44 @@ public class TestXMLOutput extends BaseJellyTest {
         super(name);
     }
 
+    public void testNamespaceDeclarations() throws Exception {
+        final List events = new ArrayList();
+        final XMLOutput output = new XMLOutput(new DefaultHandler() {
+            @Override
+            public void endPrefixMapping(final String prefix) {
+                events.add("end " + prefix);
+            }
+
+            @Override
+            public void startPrefixMapping(final String prefix, final String uri) {
+                events.add(prefix + "=" + uri);
+            }
+        });
+
+        output.startElement("", "root", "root", new AttributesImpl());
+        for (int i = 0; i < 50; i++) {
+            output.startElement("urn:p", "e", "p:e", new AttributesImpl());
+        }
+        output.startElement("urn:q", "e", "p:e", new AttributesImpl());
+        output.endElement("urn:q", "e", "p:e");
+        for (int i = 0; i < 50; i++) {
+            output.endElement("urn:p", "e", "p:e");
+        }
+        output.endElement("", "root", "root");
+        assertEquals("[p=urn:p, p=urn:q, end p, end p]", events.toString());
+
+        events.clear();
+        output.startPrefixMapping("x", "urn:x");
+        output.startPrefixMapping("x", "urn:x");
+        try {
+            output.startPrefixMapping("x", "urn:y");
+            fail("Should reject a prefix bound twice in the same element");
+        } catch (final SAXException e) {
+            // expected
+        }
+        assertEquals("[x=urn:x]", events.toString());
+    }
+
     public void testOutputBad() throws Exception {
         setUpScript("outputBad.jelly");
         final Script script = getJelly().compileScript();
@@ -66,6 +109,60 @@ public class TestXMLOutput extends BaseJellyTest {
         assertEquals("[string]",bos.toString().trim());
 	}
 
+    public void testFlushPolicy() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final XMLOutput output = XMLOutput.createXMLOutput(bos);
+        assertEquals(XMLOutput.FLUSH_PER_DOCUMENT, output.getFlushPolicy());
+
+        output.write("a");
+        output.tagCompleted(false);
+        assertEquals("Not flushed by an inner tag", "", bos.toString());
+        output.tagCompleted(true);
+        assertEquals("Flushed by the outermost tag", "a", bos.toString());
+
+        output.setFlushPolicy(XMLOutput.FLUSH_PER_TAG);
+        output.write("b");
+        output.tagCompleted(false);
+        assertEquals("ab", bos.toString());
+
+        output.setFlushPolicy(XMLOutput.FLUSH_ON_THRESHOLD);
+        output.setFlushThreshold(4);
+        output.write("c");
+        output.tagCompleted(false);
+        assertEquals("Below the threshold", "ab", bos.toString());
+        output.write("def");
+        output.tagCompleted(false);
+        assertEquals("Reached the threshold", "abcdef", bos.toString());
+
+        output.setFlushPolicy(XMLOutput.FLUSH_NEVER);
+        output.write("g");
+        output.tagCompleted(true);
+        assertEquals("abcdef", bos.toString());
+        output.flush();
+        assertEquals("abcdefg", bos.toString());
+
+        try {
+            output.setFlushPolicy(42);
+            fail("Should reject an unknown policy");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testFlushTag() throws Exception {
+        setUpScript("outputFlush.jelly");
+        final Script script = getJelly().compileScript();
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final XMLOutput output = XMLOutput.createXMLOutput(bos);
+        output.setFlushPolicy(XMLOutput.FLUSH_NEVER);
+
+        script.run(getJellyContext(),output);
+        assertEquals("Flushed by the tag only","<html></html>",bos.toString());
+        output.flush();
+        assertEquals("<html></html>x",bos.toString());
+    }
+
     public void testOutputGood() throws Exception {
         setUpScript("outputGood.jelly");
         final Script script = getJelly().compileScript();
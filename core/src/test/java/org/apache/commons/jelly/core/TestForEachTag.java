@@ -16,9 +16,26 @@
  */
 package org.apache.commons.jelly.core;
 
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyException;
+import org.apache.commons.jelly.JellyTagException;
 import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.impl.BreakException;
+import org.apache.commons.jelly.tags.core.ForEachTag;
 import org.apache.commons.jelly.test.BaseJellyTest;
 import org.apache.commons.lang3.Strings;
+import org.xml.sax.InputSource;
 
 import junit.framework.TestSuite;
 
@@ -27,6 +44,80 @@ import junit.framework.TestSuite;
 public class TestForEachTag extends BaseJellyTest
 {
 
+    /**
+     * Records the loop variables each time the body is run
+     */
+    static final class RecordingScript implements Script
+    {
+        final StringBuilder buffer = new StringBuilder();
+
+        @Override
+        public Script compile() throws JellyException
+        {
+            return this;
+        }
+
+        @Override
+        public void run(final JellyContext context, final XMLOutput output)
+        {
+            final ForEachTag.LoopStatus status = (ForEachTag.LoopStatus) context.getVariable("status");
+            buffer.append(context.getVariable("item")).append('@').append(context.getVariable("index"));
+            if (status != null) {
+                buffer.append(':').append(status.getCount()).append(',').append(status.getCurrent())
+                    .append(status.isFirst() ? ",first" : "").append(status.isLast() ? ",last" : "");
+            }
+            buffer.append(' ');
+        }
+    }
+
+    /**
+     * Writes the item and sets a variable, taking longer for the first items so
+     * that parallel iterations finish out of order
+     */
+    static final class WritingScript implements Script
+    {
+        private final Object breakAt;
+
+        private final Object failAt;
+
+        WritingScript(final Object breakAt, final Object failAt)
+        {
+            this.breakAt = breakAt;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public Script compile() throws JellyException
+        {
+            return this;
+        }
+
+        @Override
+        public void run(final JellyContext context, final XMLOutput output) throws JellyTagException
+        {
+            final Integer item = (Integer) context.getVariable("item");
+            try {
+                Thread.sleep(Math.max(0, 10 - item.intValue()));
+                output.write("[" + item + ":" + context.getVariable("index") + "]");
+            }
+            catch (final Exception e) {
+                throw new JellyTagException(e);
+            }
+            context.setVariable("seen", item);
+            if (item.equals(breakAt)) {
+                throw new BreakException();
+            }
+            if (item.equals(failAt)) {
+                throw new JellyTagException("failed at " + item);
+            }
+        }
+    }
+
+    private static final int[][] RANGES = {
+        { 0, Integer.MAX_VALUE, 1 }, { 0, Integer.MAX_VALUE, 3 }, { 2, Integer.MAX_VALUE, 2 },
+        { 1, 4, 1 }, { 1, 4, 3 }, { 0, 5, 5 }, { 3, 3, 1 }, { 6, 9, 1 }, { -2, 2, 1 },
+        { 0, -1, 1 }, { 0, 6, 0 }, { 5, Integer.MAX_VALUE, 100 } };
+
     public static TestSuite suite() throws Exception
     {
         return new TestSuite(TestForEachTag.class);
@@ -37,6 +128,181 @@ public class TestForEachTag extends BaseJellyTest
         super(name);
     }
 
+    /**
+     * Runs a forEach tag over the given items and returns what its body saw
+     */
+    private String loop(final Object items, final int[] range) throws Exception
+    {
+        final JellyContext context = new JellyContext();
+        final RecordingScript body = new RecordingScript();
+        final ForEachTag tag = new ForEachTag();
+        tag.setContext(context);
+        tag.setBody(body);
+        if (items != null) {
+            tag.setItems(new ConstantExpression(items));
+        }
+        tag.setVar("item");
+        tag.setIndexVar("index");
+        tag.setVarStatus("status");
+        tag.setBegin(range[0]);
+        tag.setEnd(range[1]);
+        tag.setStep(range[2]);
+        tag.doTag(getXMLOutput());
+        return body.buffer.toString();
+    }
+
+    /**
+     * Runs a forEach tag over the numbers up to 20 and returns its output
+     */
+    private String loop(final JellyContext context, final int parallel, final boolean export, final Script body)
+        throws Exception
+    {
+        final List items = new ArrayList();
+        for (int i = 0; i < 20; i++) {
+            items.add(Integer.valueOf(i));
+        }
+        final StringWriter writer = new StringWriter();
+        final ForEachTag tag = new ForEachTag();
+        tag.setContext(context);
+        tag.setBody(body);
+        tag.setItems(new ConstantExpression(items));
+        tag.setVar("item");
+        tag.setIndexVar("index");
+        tag.setBegin(2);
+        tag.setStep(2);
+        tag.setParallel(parallel);
+        tag.setExport(export);
+        final XMLOutput output = XMLOutput.createXMLOutput(writer);
+        tag.doTag(output);
+        output.flush();
+        return writer.toString();
+    }
+
+    /**
+     * Compiles and runs the given script and returns its output
+     */
+    private String run(final String text) throws Exception
+    {
+        final JellyContext context = new JellyContext();
+        final Script script = context.compileScript(new InputSource(new StringReader(text)));
+        final StringWriter writer = new StringWriter();
+        final XMLOutput output = XMLOutput.createXMLOutput(writer);
+        script.run(context, output);
+        output.flush();
+        return writer.toString();
+    }
+
+    /**
+     * Lists and arrays are looped over by index, which must behave as looping
+     * over their iterator does
+     */
+    public void testIndexedLoopsMatchIterator() throws Exception
+    {
+        final List list = Arrays.asList(new Object[] { "a", "b", "c", "d", "e", "f", "g" });
+        final int[] ints = { 1, 2, 3, 4, 5, 6, 7 };
+        final List numbers = new ArrayList();
+        for (int i = 0; i < ints.length; i++) {
+            numbers.add(Integer.valueOf(ints[i]));
+        }
+        for (int i = 0; i < RANGES.length; i++) {
+            final int[] range = RANGES[i];
+            final String message = "range " + Arrays.toString(range);
+            final String expected = loop(list.iterator(), range);
+            assertEquals(message, expected, loop(list, range));
+            assertEquals(message, expected, loop(new ArrayList(list), range));
+            assertEquals(message, expected, loop(new LinkedList(list), range));
+            assertEquals(message, expected, loop(list.toArray(), range));
+            assertEquals(message, loop(numbers.iterator(), range), loop(ints, range));
+        }
+        assertEquals("a@0:1,a,first b@1:2,b,last ", loop(new String[] { "a", "b" }, RANGES[0]));
+        assertEquals("", loop(new Object[0], RANGES[0]));
+    }
+
+    public void testParallelBreak() throws Exception
+    {
+        final String output = loop(new JellyContext(), 4, false, new WritingScript(Integer.valueOf(8), null));
+        assertEquals("[2:2][4:4][6:6][8:8]", output);
+    }
+
+    public void testParallelExport() throws Exception
+    {
+        final JellyContext context = new JellyContext();
+        loop(context, 4, false, new WritingScript(null, null));
+        assertNull("Variables are isolated", context.getVariable("seen"));
+        assertNull(context.getVariable("item"));
+
+        loop(context, 4, true, new WritingScript(null, null));
+        assertEquals(Integer.valueOf(18), context.getVariable("seen"));
+        assertEquals(Integer.valueOf(18), context.getVariable("item"));
+        assertEquals(Integer.valueOf(18), context.getVariable("index"));
+    }
+
+    public void testParallelFailure() throws Exception
+    {
+        try {
+            loop(new JellyContext(), 3, false, new WritingScript(null, Integer.valueOf(6)));
+            fail("The failure of an iteration fails the loop");
+        }
+        catch (final JellyTagException e) {
+            assertEquals("failed at 6", e.getMessage());
+        }
+    }
+
+    /**
+     * The threads of the pool must not keep the tags of the body, which hold on
+     * to the context of the loop
+     */
+    public void testParallelIterationsDropTheirTags() throws Exception
+    {
+        final Script body = new JellyContext().compileScript(new InputSource(new StringReader(
+            "<j:set xmlns:j='jelly:core' var='seen' value='${item}'/>")));
+        JellyContext context = new JellyContext();
+        final WeakReference reference = new WeakReference(context);
+        loop(context, 4, false, body);
+        context = null;
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("The context of the loop is released", reference.get());
+    }
+
+    /**
+     * Each iteration of nested parallel loops has tags of its own, whichever
+     * thread runs it, so that an iteration run by a thread in the middle of
+     * another, here by helping the pool, does not change the tags of the other
+     */
+    public void testNestedParallelLoops() throws Exception
+    {
+        final String text = "<j:forEach xmlns:j='jelly:core' var='i' begin='1' end='8'{0}><j:choose>"
+            + "<j:when test='${i > 0}'>"
+            + "<j:invokeStatic className='java.util.concurrent.ForkJoinTask' method='helpQuiesce'/>"
+            + "<j:forEach var='k' begin='1' end='8'{0}><j:choose><j:when test='${(i + k) % 2 == 0}'>"
+            + "<j:set var='x' value='${i}.${k}'/>e${x}|</j:when><j:otherwise>o${i}.${k}|</j:otherwise>"
+            + "</j:choose></j:forEach></j:when><j:otherwise>unchosen|</j:otherwise></j:choose></j:forEach>";
+        final String expected = run(text.replace("{0}", ""));
+        assertTrue(expected, expected.startsWith("e1.1|o1.2|e1.3|"));
+        for (int i = 0; i < 20; i++) {
+            assertEquals(expected, run(text.replace("{0}", " parallel='3'")));
+        }
+    }
+
+    public void testParallelOutputInOrder() throws Exception
+    {
+        final String expected = loop(new JellyContext(), 1, false, new WritingScript(null, null));
+        assertTrue(expected, expected.startsWith("[2:2][4:4]"));
+        for (int parallel = 2; parallel <= 8; parallel *= 2) {
+            assertEquals(expected, loop(new JellyContext(), parallel, false, new WritingScript(null, null)));
+        }
+    }
+
+    public void testRangeLoop() throws Exception
+    {
+        assertEquals("1@null:1,1,first 3@null:2,3 5@null:3,5,last ", loop(null, new int[] { 1, 5, 2 }));
+        final int[] range = { Integer.MAX_VALUE - 3, Integer.MAX_VALUE, 2 };
+        assertEquals("The loop stops at the largest index", 2, loop(null, range).split(" ").length);
+    }
+
     public void testForEachTag() throws Exception
     {
         setUpScript("testForEachTag.jelly");
@@ -32,6 +32,22 @@ public class TestExpressions extends TestCase {
             super("Test Exception");
         }
     }
+    /**
+     * Evaluates an expression in another context when called from an expression
+     */
+    public static final class NestingHelper {
+        private final Expression expression;
+        private final JellyContext context;
+
+        public NestingHelper(final Expression expression, final JellyContext context) {
+            this.expression = expression;
+            this.context = context;
+        }
+
+        public Object nested() {
+            return expression.evaluate(context);
+        }
+    }
     public static final class TestHelper {
         public Object throwAnException() throws TestException {
             throw new TestException();
@@ -72,6 +88,68 @@ public class TestExpressions extends TestCase {
         assertExpression("${maven.home.foo.length()}", Integer.valueOf(6));
     }
 
+    public void testCachedExpressions() throws Exception {
+        final ExpressionCache cache = JexlExpressionFactory.getExpressionCache();
+        final long hits = cache.getHitCount();
+
+        final Expression expression = factory.createExpression("topping.length()");
+        assertSame( "Parsed expression is shared", expression, new JexlExpressionFactory().createExpression("topping.length()") );
+        assertTrue( "Cache was hit", cache.getHitCount() > hits );
+
+        final JexlExpressionFactory uncached = new JexlExpressionFactory();
+        uncached.setCacheExpressions(false);
+        assertNotSame( expression, uncached.createExpression("topping.length()") );
+
+        final JexlExpressionFactory noAnt = new JexlExpressionFactory();
+        noAnt.setSupportAntVariables(false);
+        assertNotSame( "Ant and non Ant expressions are cached apart", factory.createExpression("topping"), noAnt.createExpression("topping") );
+    }
+
+    public void testExpressionCacheIsBounded() throws Exception {
+        final ExpressionCache cache = new ExpressionCache(2);
+        final Expression a = new ConstantExpression("a");
+        assertSame( a, cache.putExpression("a", a) );
+        assertSame( a, cache.putExpression("a", new ConstantExpression("a")) );
+        cache.putExpression("b", new ConstantExpression("b"));
+        cache.putExpression("c", new ConstantExpression("c"));
+        assertEquals( 2, cache.size() );
+        assertEquals( 1, cache.getEvictionCount() );
+        assertNotNull( cache.getExpression("c") );
+        assertEquals( 1, cache.getHitCount() );
+    }
+
+    public void testExpressionCacheKeepsUsedExpressions() throws Exception {
+        final ExpressionCache cache = new ExpressionCache(3);
+        final String[] keys = { "a", "b", "c", "d", "e", "f" };
+        for (int i = 0; i < keys.length; i++) {
+            cache.putExpression(keys[i], new ConstantExpression(keys[i]));
+        }
+        cache.putExpression("used", new ConstantExpression("used"));
+        for (int i = 0; i < keys.length; i++) {
+            assertNotNull( cache.getExpression("used") );
+            cache.putExpression(keys[i], new ConstantExpression(keys[i]));
+        }
+        assertEquals( 3, cache.size() );
+        assertNotNull( "An expression in use is not evicted", cache.getExpression("used") );
+    }
+
+    public void testFoldConstants() throws Exception {
+        final CompositeExpression expression = new CompositeExpression();
+        expression.addTextExpression("a");
+        expression.addExpression(new ConstantExpression(null));
+        expression.addTextExpression("b");
+        expression.addExpression(factory.createExpression("topping"));
+        expression.addTextExpression("c");
+
+        final CompositeExpression folded = expression.foldConstants();
+        assertEquals(3, folded.getExpressions().size());
+        assertSame("Nothing left to fold", folded, folded.foldConstants());
+
+        context.setVariable("topping", "cheese");
+        assertEquals(expression.evaluate(context), folded.evaluate(context));
+        assertEquals("abcheesec", folded.evaluate(context));
+    }
+
     public void testExpressions() throws Exception {
         context.setVariable("topping", "cheese");
         context.setVariable("type", "deepPan");
@@ -152,6 +230,19 @@ public class TestExpressions extends TestCase {
         assertExpression("${!x.d}", Boolean.TRUE);
     }
 
+    public void testNestedEvaluation() throws Exception {
+        final JellyContext innerContext = new JellyContext();
+        innerContext.setVariable("name", "inner");
+        context.setVariable("name", "outer");
+        context.setVariable("suffix", " and outer");
+        context.setVariable("helper", new NestingHelper(factory.createExpression("name"), innerContext));
+
+        // the outer expression must see its own variables once the nested one has been evaluated
+        assertExpression("${helper.nested().concat(suffix)}", "inner and outer");
+        assertExpression("${helper.nested().concat(' then ').concat(name)}", "inner then outer");
+        assertExpression("${name}", "outer");
+    }
+
     public void testNull() throws Exception {
         context.setVariable("something.blank", "");
         context.setVariable("something.ok", "cheese");
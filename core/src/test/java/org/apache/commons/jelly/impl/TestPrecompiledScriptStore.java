@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.parser.SAXEventBuffer;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the precompiled form of scripts kept by a PrecompiledScriptStore.
+ */
+public class TestPrecompiledScriptStore extends TestCase {
+
+    /**
+     * Records the elements, text and locations it is sent
+     */
+    private static class RecordingHandler extends DefaultHandler {
+        private final List events = new ArrayList();
+        private Locator locator;
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            events.add("text:" + new String(ch, start, length));
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            events.add("end:" + qName);
+        }
+
+        @Override
+        public void setDocumentLocator(final Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes atts) {
+            final StringBuilder buffer = new StringBuilder("start:{" + uri + "}" + qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                buffer.append(' ').append(atts.getQName(i)).append('=').append(atts.getValue(i));
+            }
+            if (locator != null) {
+                buffer.append(" @").append(locator.getLineNumber());
+            }
+            events.add(buffer.toString());
+        }
+    }
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestPrecompiledScriptStore.class);
+    }
+
+    private File directory;
+    private File file;
+
+    public TestPrecompiledScriptStore(final String testName) {
+        super(testName);
+    }
+
+    private PrecompiledScriptStore createStore() {
+        return new PrecompiledScriptStore(directory);
+    }
+
+    private String run(final PrecompiledScriptStore store, final URL url) throws Exception {
+        final JellyContext context = new JellyContext();
+        context.setPrecompiledScriptStore(store);
+        final Script script = context.compileScript(url);
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        script.run(context, output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("jelly", "precompiled");
+        directory.delete();
+        file = File.createTempFile("jelly", ".jelly");
+        writeScript("<j:jelly xmlns:j='jelly:core'><j:if test='true'>hello</j:if> <b a='1'>world</b></j:jelly>");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        createStore().clear();
+        directory.delete();
+    }
+
+    public void testCorruptFileIsReparsed() throws Exception {
+        final URL url = file.toURL();
+        final String expected = run(createStore(), url);
+
+        final File precompiled = createStore().getFile(url);
+        try (RandomAccessFile raf = new RandomAccessFile(precompiled, "rw")) {
+            raf.seek(raf.length() - 3);
+            raf.write(0x7F);
+        }
+
+        final PrecompiledScriptStore store = createStore();
+        assertEquals(expected, run(store, url));
+        assertEquals("hits", 0, store.getHitCount());
+        assertEquals("misses", 1, store.getMissCount());
+        assertEquals("Rewritten file is used", expected, run(store, url));
+        assertEquals("hits", 1, store.getHitCount());
+    }
+
+    public void testEventsAreReplayed() throws Exception {
+        final String xml = "<a xmlns='urn:a' xmlns:p='urn:p'>\n  <p:b x='1' y='\u00e9\u20ac'>text &amp; more</p:b>\n  <c/>\n</a>";
+        final SAXEventBuffer events = new SAXEventBuffer();
+        final RecordingHandler parsed = new RecordingHandler();
+        events.setTarget(parsed);
+
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(events);
+        reader.parse(new InputSource(new StringReader(xml)));
+        assertFalse(events.isEmpty());
+
+        final RecordingHandler replayed = new RecordingHandler();
+        events.replay(replayed);
+        assertEquals(parsed.events, replayed.events);
+        assertTrue(replayed.events.toString(), replayed.events.contains("start:{urn:p}p:b x=1 y=\u00e9\u20ac @2"));
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        events.writeTo(new DataOutputStream(bytes));
+        final SAXEventBuffer copy = SAXEventBuffer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        final RecordingHandler copied = new RecordingHandler();
+        copy.replay(copied);
+        assertEquals(parsed.events, copied.events);
+    }
+
+    public void testModifiedScriptIsReparsed() throws Exception {
+        final URL url = file.toURL();
+        run(createStore(), url);
+
+        writeScript("<j:jelly xmlns:j='jelly:core'>goodbye</j:jelly>");
+        file.setLastModified(file.lastModified() + 10000);
+
+        final PrecompiledScriptStore store = createStore();
+        assertEquals("goodbye", run(store, url));
+        assertEquals("misses", 1, store.getMissCount());
+        assertEquals("goodbye", run(store, url));
+        assertEquals("hits", 1, store.getHitCount());
+    }
+
+    public void testPrecompiledScriptIsUsed() throws Exception {
+        final URL url = file.toURL();
+        final PrecompiledScriptStore first = createStore();
+        final String expected = run(first, url);
+        assertTrue(expected, expected.startsWith("hello<b") && expected.endsWith("world</b>"));
+        assertEquals("misses", 1, first.getMissCount());
+        assertTrue("Precompiled file", first.getFile(url).isFile());
+
+        // a new store over the same directory, as used by a new JVM
+        final PrecompiledScriptStore second = createStore();
+        assertEquals(expected, run(second, url));
+        assertEquals("hits", 1, second.getHitCount());
+        assertEquals("misses", 0, second.getMissCount());
+
+        second.invalidate(url);
+        assertFalse("Invalidated file", second.getFile(url).exists());
+    }
+
+    private void writeScript(final String text) throws Exception {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(text);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.net.URL;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the reloading of changed scripts by a ReloadingScriptCache.
+ */
+public class TestReloadingScriptCache extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestReloadingScriptCache.class);
+    }
+
+    private File directory;
+
+    private DefaultScriptCache scripts;
+
+    private ReloadingScriptCache cache;
+
+    private JellyContext context;
+
+    public TestReloadingScriptCache(final String testName) {
+        super(testName);
+    }
+
+    private File createScript(final String name, final String text) throws Exception {
+        final File answer = new File(directory, name);
+        writeScript(answer, text);
+        return answer;
+    }
+
+    private String run(final URL url) throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        context.runScript(url, output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("jelly", "");
+        directory.delete();
+        directory.mkdir();
+        scripts = new DefaultScriptCache();
+        scripts.setCheckInterval(-1);
+        context = new JellyContext();
+        cache = new ReloadingScriptCache(scripts, context);
+        context.setScriptCache(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.close();
+        final File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    public void testChangedScriptIsReloaded() throws Exception {
+        final File file = createScript("main.jelly", "<j:jelly xmlns:j='jelly:core'>one</j:jelly>");
+        final URL url = file.toURL();
+        assertEquals("one", run(url));
+        final Script script = cache.getScript(url);
+        assertNotNull(script);
+        assertEquals(1, cache.getWatchedFileCount());
+
+        writeScript(file, "<j:jelly xmlns:j='jelly:core'>two</j:jelly>");
+        waitForReloads(1);
+        final Script reloaded = cache.getScript(url);
+        assertNotNull("A compiled script is always cached", reloaded);
+        assertNotSame(script, reloaded);
+        assertEquals("two", run(url));
+        assertEquals("Only the reloaded script is compiled", 1, scripts.getMissCount());
+    }
+
+    public void testIncludedScriptIsReloadedAlone() throws Exception {
+        final File included = createScript("included.jelly", "<j:jelly xmlns:j='jelly:core'>one</j:jelly>");
+        final File main = createScript("main.jelly",
+            "<j:jelly xmlns:j='jelly:core'>[<j:include uri='" + included.toURL() + "'/>]</j:jelly>");
+        final URL url = main.toURL();
+        assertEquals("[one]", run(url));
+        assertEquals(2, cache.getWatchedFileCount());
+        final Script mainScript = cache.getScript(url);
+
+        writeScript(included, "<j:jelly xmlns:j='jelly:core'>two</j:jelly>");
+        waitForReloads(1);
+        assertSame("The including script is kept", mainScript, cache.getScript(url));
+        assertEquals("[two]", run(url));
+    }
+
+    public void testUncompilableScriptIsInvalidated() throws Exception {
+        final File file = createScript("main.jelly", "<j:jelly xmlns:j='jelly:core'>one</j:jelly>");
+        final URL url = file.toURL();
+        assertEquals("one", run(url));
+
+        writeScript(file, "<j:jelly xmlns:j='jelly:core'>");
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (cache.getScript(url) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNull(cache.getScript(url));
+        assertEquals(0, cache.getReloadCount());
+    }
+
+    private void waitForReloads(final long count) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (cache.getReloadCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("reloads", count, cache.getReloadCount());
+    }
+
+    private void writeScript(final File target, final String text) throws Exception {
+        try (FileWriter writer = new FileWriter(target)) {
+            writer.write(text);
+        }
+    }
+}
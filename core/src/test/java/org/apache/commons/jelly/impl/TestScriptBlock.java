@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringWriter;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.util.TagUtils;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests that a ScriptBlock runs its current scripts however its list is modified,
+ * and that compiling a block does not change its output.
+ */
+public class TestScriptBlock extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestScriptBlock.class);
+    }
+
+    public TestScriptBlock(final String testName) {
+        super(testName);
+    }
+
+    private ScriptBlock createBlock(final Script[] scripts) {
+        final ScriptBlock block = new ScriptBlock();
+        for (final Script script : scripts) {
+            block.addScript(script);
+        }
+        return block;
+    }
+
+    private String run(final Script script) throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createStreamingXMLOutput(buffer);
+        script.run(new JellyContext(), output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    public void testModifiedBlock() throws Exception {
+        final ScriptBlock block = new ScriptBlock();
+        final TextScript a = new TextScript("a");
+        block.addScript(a);
+        block.addScript(new TextScript("b"));
+        assertEquals("ab", run(block));
+
+        block.getScriptList().add(new TextScript("c"));
+        assertEquals("Added to the live list", "abc", run(block));
+
+        block.getScriptList().set(1, new TextScript("B"));
+        assertEquals("Replaced in the live list", "aBc", run(block));
+
+        block.removeScript(a);
+        assertEquals("Bc", run(block));
+
+        ((TextScript) block.getScriptList().get(0)).setText("X");
+        assertEquals("Text changed", "Xc", run(block));
+    }
+
+    public void testAdjacentTextIsJoined() throws Exception {
+        final ScriptBlock block = createBlock(new Script[] {
+            new TextScript("a"), new TextScript(""), createBlock(new Script[] { new TextScript("b"), new TextScript("c") })
+        });
+        final Script script = block.compile();
+        assertTrue("Joined into one text script", script instanceof TextScript);
+        assertEquals("abc", run(script));
+    }
+
+    /**
+     * @return A new script of the given kind, for the equivalence test
+     */
+    private Script createScript(final int kind) {
+        switch (kind) {
+        case 0: return new TextScript("");
+        case 1: return new TextScript(" ");
+        case 2: return new TextScript("a");
+        case 3: return new TextScript(" a ");
+        case 4: return new TextScript("a\t");
+        case 5: return new ExpressionScript(new ConstantExpression("x"));
+        case 6: return createBlock(new Script[] { new TextScript("b") });
+        case 7:
+            return createBlock(new Script[] { new TextScript(" b"), new ExpressionScript(new ConstantExpression("y")) });
+        default: return new ScriptBlock();
+        }
+    }
+
+    private ScriptBlock createBlock(final boolean composite, final int[] kinds) {
+        final ScriptBlock block = composite ? new CompositeTextScriptBlock() : new ScriptBlock();
+        for (final int kind : kinds) {
+            block.addScript(createScript(kind));
+        }
+        return block;
+    }
+
+    public void testCompiledOutputIsUnchanged() throws Exception {
+        final int kinds = 9;
+        // a block of one script compiles to that script, trimmed or not, so is left out
+        for (int length = 0; length <= 4; length = length == 0 ? 2 : length + 1) {
+            final int[] combination = new int[length];
+            for (int n = (int) Math.pow(kinds, length); --n >= 0; ) {
+                for (int i = 0, rest = n; i < length; i++, rest /= kinds) {
+                    combination[i] = rest % kinds;
+                }
+                for (int composite = 0; composite < 2; composite++) {
+                    final ScriptBlock block = createBlock(composite == 1, combination);
+                    final Script script = createBlock(composite == 1, combination).compile();
+                    final String message = block + " compiled to " + script;
+                    assertEquals(message, run(block), run(script));
+                    assertEquals(message, run(TagUtils.trimmedScript(block)), run(TagUtils.trimmedScript(script)));
+                }
+            }
+        }
+    }
+
+    public void testLargeBlockIsJoined() throws Exception {
+        final ScriptBlock block = new ScriptBlock();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            block.addScript(new TextScript(i % 2 == 0 ? "a" : "b"));
+            block.addScript(new ExpressionScript(new ConstantExpression("c")));
+            expected.append(i % 2 == 0 ? "ac" : "bc");
+        }
+        final Script script = block.compile();
+        assertSame(block, script);
+        assertEquals(200000, block.getScriptList().size());
+        assertEquals(expected.toString(), run(script));
+    }
+
+    public void testCompositeTextIsJoined() throws Exception {
+        final CompositeTextScriptBlock block = new CompositeTextScriptBlock();
+        block.addScript(new TextScript(" a"));
+        block.addScript(new TextScript("b"));
+        block.addScript(new ExpressionScript(new ConstantExpression("c")));
+        block.addScript(new TextScript(" d "));
+        block.addScript(new TextScript("e "));
+        final Script script = block.compile();
+        assertSame(block, script);
+        assertEquals(3, block.getScriptList().size());
+        assertEquals(" abc d e ", run(script));
+        assertEquals("abc d e", run(TagUtils.trimmedScript(script)));
+    }
+
+    public void testTrimmingIsUnchanged() throws Exception {
+        final ScriptBlock block = createBlock(new Script[] {
+            new TextScript("a "), new TextScript(" b"), new TextScript("c"), new TextScript("d")
+        });
+        final Script script = block.compile();
+        assertEquals("a  bcd", run(script));
+        assertEquals("Text is still trimmed separately", "abcd", run(TagUtils.trimmedScript(script)));
+        assertEquals(2, ((ScriptBlock) script).getScriptList().size());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.net.URL;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.ScriptListener;
+import org.apache.commons.jelly.XMLOutput;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the caching of compiled scripts by a JellyContext.
+ */
+public class TestScriptCache extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestScriptCache.class);
+    }
+
+    private File file;
+
+    public TestScriptCache(final String testName) {
+        super(testName);
+    }
+
+    private File createScript(final String text) throws Exception {
+        final File answer = File.createTempFile("jelly", ".jelly");
+        answer.deleteOnExit();
+        writeScript(answer, text);
+        return answer;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = createScript("<j:jelly xmlns:j='jelly:core'>hello ${name}</j:jelly>");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testCompiledScriptIsReused() throws Exception {
+        final DefaultScriptCache cache = new DefaultScriptCache();
+        final JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        final URL url = file.toURL();
+        final Script script = context.compileScript(url);
+        assertSame("Cached script", script, context.compileScript(url));
+        assertSame("Cached script by uri", script, context.compileScript(url.toString()));
+        assertSame("Child context shares the cache", cache, context.newJellyContext().getScriptCache());
+
+        assertEquals("hits", 2, cache.getHitCount());
+        assertEquals("misses", 1, cache.getMissCount());
+        assertEquals("size", 1, cache.size());
+    }
+
+    public void testEviction() throws Exception {
+        final File other = createScript("<j:jelly xmlns:j='jelly:core'>other</j:jelly>");
+        try {
+            final DefaultScriptCache cache = new DefaultScriptCache(1);
+            final JellyContext context = new JellyContext();
+            context.setScriptCache(cache);
+
+            final Script script = context.compileScript(file.toURL());
+            context.compileScript(other.toURL());
+            assertEquals("size", 1, cache.size());
+            assertEquals("evictions", 1, cache.getEvictionCount());
+            assertNotSame("Evicted script is recompiled", script, context.compileScript(file.toURL()));
+        } finally {
+            other.delete();
+        }
+    }
+
+    public void testInvalidate() throws Exception {
+        final DefaultScriptCache cache = new DefaultScriptCache();
+        final JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+
+        final URL url = file.toURL();
+        final Script script = context.compileScript(url);
+        cache.invalidate(url);
+        assertEquals("size", 0, cache.size());
+        assertNotSame("Invalidated script is recompiled", script, context.compileScript(url));
+    }
+
+    public void testModifiedScriptIsRecompiled() throws Exception {
+        final DefaultScriptCache cache = new DefaultScriptCache();
+        final JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+        context.setVariable("name", "James");
+
+        final URL url = file.toURL();
+        assertEquals("hello James", run(context, url));
+
+        writeScript(file, "<j:jelly xmlns:j='jelly:core'>goodbye ${name}</j:jelly>");
+        file.setLastModified(file.lastModified() + 10000);
+        assertEquals("goodbye James", run(context, url));
+        assertEquals("misses", 2, cache.getMissCount());
+    }
+
+    public void testScriptModifiedWhileCompilingIsRecompiled() throws Exception {
+        final DefaultScriptCache cache = new DefaultScriptCache();
+        final JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+        context.setVariable("name", "James");
+        final boolean[] modified = new boolean[1];
+        context.addScriptListener(new ScriptListener() {
+            @Override
+            public void compiledScript(final String systemId, final long nanos) {
+                // the file is saved after it was read but before the script is cached
+                if (!modified[0]) {
+                    modified[0] = true;
+                    try {
+                        writeScript(file, "<j:jelly xmlns:j='jelly:core'>goodbye ${name}</j:jelly>");
+                    }
+                    catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    file.setLastModified(file.lastModified() + 10000);
+                }
+            }
+
+            @Override
+            public void enterScript(final String systemId, final JellyContext context) {
+            }
+
+            @Override
+            public void exitScript(final String systemId, final JellyContext context) {
+            }
+        });
+
+        final URL url = file.toURL();
+        assertEquals("hello James", run(context, url));
+        assertEquals("The script cached before the change is stale", "goodbye James", run(context, url));
+    }
+
+    private String run(final JellyContext context, final URL url) throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        context.runScript(url, output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    private void writeScript(final File target, final String text) throws Exception {
+        try (FileWriter writer = new FileWriter(target)) {
+            writer.write(text);
+        }
+    }
+}
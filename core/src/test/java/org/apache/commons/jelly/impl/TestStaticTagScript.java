@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.apache.commons.jelly.DynaTagSupport;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the recording and replaying of static subtrees by StaticTagScript.
+ */
+public class TestStaticTagScript extends TestCase {
+
+    public static class ReplacementTag extends DynaTagSupport {
+        @Override
+        public void setAttribute(final String name, final Object value) {
+        }
+
+        @Override
+        public void doTag(final XMLOutput output) throws JellyTagException {
+            try {
+                output.write("replaced");
+            } catch (final SAXException e) {
+                throw new JellyTagException(e);
+            }
+        }
+    }
+
+    public static class ReplacementTagLibrary extends TagLibrary {
+        public ReplacementTagLibrary() {
+            registerTag("b", ReplacementTag.class);
+        }
+    }
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestStaticTagScript.class);
+    }
+
+    public TestStaticTagScript(final String testName) {
+        super(testName);
+    }
+
+    private Script compile(final JellyContext context, final String text) throws Exception {
+        return context.compileScript(new InputSource(new StringReader(text)));
+    }
+
+    private String run(final JellyContext context, final Script script) throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createXMLOutput(buffer);
+        script.run(context, output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    public void testDynamicContentIsNotStatic() throws Exception {
+        final JellyContext context = new JellyContext();
+        final Script script = compile(context,
+            "<j:jelly xmlns:j='jelly:core'><a><b>${name}</b></a><c x='${name}'/></j:jelly>");
+        final List scripts = ((ScriptBlock) ((TagScript) script).getTagBody()).getScriptList();
+        assertFalse(((StaticTagScript) scripts.get(0)).isStaticSubtree());
+        assertFalse(((StaticTagScript) scripts.get(1)).isStaticSubtree());
+    }
+
+    public void testStaticSubtreeIsReplayed() throws Exception {
+        final JellyContext context = new JellyContext();
+        final Script script = compile(context,
+            "<j:jelly xmlns:j='jelly:core'><a x='1'> <b>hello</b> <c/> </a></j:jelly>");
+        final StaticTagScript root = (StaticTagScript) ((TagScript) script).getTagBody();
+        assertTrue("Root is static", root.isStaticSubtree());
+        final StaticTagScript child = (StaticTagScript) ((ScriptBlock) root.getTagBody()).getScriptList().get(1);
+        assertFalse("Nested element is rendered by its parent", child.isStaticSubtree());
+
+        final String expected = run(context, script);
+        assertTrue(expected, expected.indexOf("hello</b>") > 0);
+        assertEquals("Replayed output", expected, run(context, script));
+    }
+
+    public void testTagLibraryRegisteredLater() throws Exception {
+        final JellyContext context = new JellyContext();
+        final Script script = compile(context,
+            "<j:jelly xmlns:j='jelly:core'><a xmlns:t='urn:test'><t:b>hello</t:b></a></j:jelly>");
+        assertTrue(run(context, script).indexOf("hello") > 0);
+
+        context.registerTagLibrary("urn:test", new ReplacementTagLibrary());
+        final String output = run(context, script);
+        assertTrue(output, output.indexOf("replaced") > 0);
+        assertTrue(output, output.indexOf("hello") < 0);
+    }
+
+    public void testWhitespaceIsKeptWhenNotTrimming() throws Exception {
+        final JellyContext context = new JellyContext();
+        final Script trimmed = compile(context, "<j:jelly xmlns:j='jelly:core'><a> <b> x </b> </a></j:jelly>");
+        final Script untrimmed = compile(context,
+            "<j:jelly xmlns:j='jelly:core' trim='false'><a> <b> x </b> </a></j:jelly>");
+        final String expected = run(context, trimmed);
+        assertTrue(expected, expected.indexOf("<b>x</b>") >= 0);
+        assertEquals(expected, run(context, trimmed));
+
+        final String output = run(context, untrimmed);
+        assertTrue(output, output.indexOf("<b> x </b>") >= 0);
+        assertEquals(output, run(context, untrimmed));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import java.io.StringReader;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.Tag;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests that the tags of a run are held in the frame it runs in.
+ */
+public class TestTagFrame extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagFrame.class);
+    }
+
+    public TestTagFrame(final String testName) {
+        super(testName);
+    }
+
+    /**
+     * A frame has tags of its own, while the tags of the enclosing scripts are
+     * those of the frame it was started from.
+     */
+    public void testFrameHasTagsOfItsOwn() throws Exception {
+        final JellyContext context = new JellyContext();
+        context.setCacheTags(true);
+        final Script script = context.compileScript(new InputSource(new StringReader(
+            "<j:if xmlns:j='jelly:core' test='true'><j:set var='x' value='1'/></j:if>")));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        final TagScript outer = (TagScript) script;
+        final TagScript inner = (TagScript) outer.getTagBody();
+        final Tag outerTag = outer.getTag(context);
+        final Tag innerTag = inner.getTag(context);
+        assertSame(outerTag, innerTag.getParent());
+
+        final TagFrame previous = new TagFrame(TagFrame.current()).enter();
+        try {
+            final Tag frameTag = inner.getTag(context);
+            assertNotSame("The frame creates its own tag", innerTag, frameTag);
+            assertSame("The parent is found in the enclosing frame", outerTag, frameTag.getParent());
+            inner.run(context, XMLOutput.createDummyXMLOutput());
+            assertSame(frameTag, inner.getTag(context));
+        }
+        finally {
+            TagFrame.leave(previous);
+        }
+        assertSame("Leaving the frame drops its tags", innerTag, inner.getTag(context));
+    }
+}
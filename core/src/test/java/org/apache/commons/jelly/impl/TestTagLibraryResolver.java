@@ -16,6 +16,20 @@
  */
 package org.apache.commons.jelly.impl;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.discovery.ResourceClass;
+import org.apache.commons.discovery.ResourceClassIterator;
+import org.apache.commons.discovery.resource.ClassLoaders;
+import org.apache.commons.discovery.resource.classes.DiscoverClasses;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.TagLibrary;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.tags.core.CoreTagLibrary;
+import org.xml.sax.InputSource;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -37,6 +51,95 @@ public class TestTagLibraryResolver extends TestCase {
         super(testName);
     }
 
+    /**
+     * Counts the searches for services
+     */
+    private static class CountingDiscoverClasses extends DiscoverClasses {
+        private int count;
+
+        CountingDiscoverClasses() {
+            super(ClassLoaders.getAppLoaders(TagLibrary.class, TestTagLibraryResolver.class, false));
+        }
+
+        @Override
+        public ResourceClassIterator findResourceClasses(final String name) {
+            count++;
+            return new ResourceClassIterator() {
+                @Override
+                public boolean hasNext() {
+                    return false;
+                }
+
+                @Override
+                public ResourceClass nextResourceClass() {
+                    return null;
+                }
+            };
+        }
+    }
+
+    public void testContextResolvesJellyProperties() throws Exception {
+        final JellyContext context = new JellyContext();
+        assertFalse(context.isTagLibraryRegistered("jelly:core"));
+        final TagLibrary library = context.getTagLibrary("jelly:core");
+        assertTrue(library instanceof CoreTagLibrary);
+        assertSame("Registered once resolved", library, context.getTagLibrary("jelly:core"));
+        assertSame(library, context.newJellyContext().getTagLibrary("jelly:core"));
+        assertNull(context.getTagLibrary("urn:unknown"));
+        assertFalse(context.isTagLibraryRegistered("urn:unknown"));
+    }
+
+    public void testContextResolverIsUsedByParser() throws Exception {
+        final List resolved = new ArrayList();
+        final JellyContext context = new JellyContext();
+        context.setTagLibraryResolver(uri -> {
+            resolved.add(uri);
+            return "urn:core".equals(uri) ? new CoreTagLibrary() : null;
+        });
+        final String xml = "<j:jelly xmlns:j='urn:core' xmlns:h='urn:html'><j:set var='x' value='1'/>"
+            + "<j:set var='y' value='2'/><h:p/></j:jelly>";
+        context.runScript(new InputSource(new StringReader(xml)), XMLOutput.createDummyXMLOutput());
+        assertEquals("1", context.getVariable("x"));
+        assertEquals("2", context.getVariable("y"));
+        assertTrue(resolved.toString(), resolved.contains("urn:core"));
+        assertEquals("Resolved once", resolved.indexOf("urn:core"), resolved.lastIndexOf("urn:core"));
+    }
+
+    public void testJellyPropertiesAreResolved() throws Exception {
+        final CountingDiscoverClasses discovery = new CountingDiscoverClasses();
+        final DefaultTagLibraryResolver resolver = new DefaultTagLibraryResolver();
+        resolver.setDiscoverClasses(discovery);
+        final TagLibrary library = resolver.resolveTagLibrary("jelly:core");
+        assertTrue(library instanceof CoreTagLibrary);
+        assertNotSame("A new library each time", library, resolver.resolveTagLibrary("jelly:core"));
+        assertEquals("No search", 0, discovery.count);
+    }
+
+    public void testUnavailableClassNameIsTriedOnce() throws Exception {
+        final JellyContext context = new JellyContext();
+        context.registerTagLibrary("urn:missing", "org.apache.commons.jelly.NoSuchTagLibrary");
+        assertNull(context.getTagLibrary("urn:missing"));
+        assertNull(context.newJellyContext().getTagLibrary("urn:missing"));
+        assertTrue(context.isTagLibraryRegistered("urn:missing"));
+
+        final TagLibrary library = new CoreTagLibrary();
+        context.registerTagLibrary("urn:missing", library);
+        assertSame(library, context.getTagLibrary("urn:missing"));
+    }
+
+    public void testUnknownURIIsRemembered() throws Exception {
+        final CountingDiscoverClasses discovery = new CountingDiscoverClasses();
+        final DefaultTagLibraryResolver resolver = new DefaultTagLibraryResolver();
+        resolver.setDiscoverClasses(discovery);
+        assertNull(resolver.resolveTagLibrary("urn:unknown"));
+        assertNull(resolver.resolveTagLibrary("urn:unknown"));
+        assertEquals("One search", 1, discovery.count);
+
+        resolver.clearCache();
+        assertNull(resolver.resolveTagLibrary("urn:unknown"));
+        assertEquals("Searched again", 2, discovery.count);
+    }
+
     public void testResolver() throws Exception {
 
         /**
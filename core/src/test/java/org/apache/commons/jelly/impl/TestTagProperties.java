@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.impl;
+
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.Expression;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the cached bean properties used to set the attributes of bean tags.
+ */
+public class TestTagProperties extends TestCase {
+
+    public static class SampleBean {
+        private String name;
+        private int count;
+        private Expression expression;
+
+        public int getCount() {
+            return count;
+        }
+
+        public Expression getExpression() {
+            return expression;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getReadOnly() {
+            return "readOnly";
+        }
+
+        public void setCount(final int count) {
+            this.count = count;
+        }
+
+        public void setExpression(final Expression expression) {
+            this.expression = expression;
+        }
+
+        public void setFailing(final String failing) {
+            throw new IllegalStateException("failing " + failing);
+        }
+
+        public void setName(final String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestTagProperties.class);
+    }
+
+    public TestTagProperties(final String testName) {
+        super(testName);
+    }
+
+    public void testPropertiesAreShared() throws Exception {
+        assertSame(TagProperties.forClass(SampleBean.class), TagProperties.forClass(SampleBean.class));
+    }
+
+    public void testReadOnlyProperty() throws Exception {
+        final TagProperties.TagProperty property = TagProperties.forClass(SampleBean.class).getProperty("readOnly");
+        assertNotNull(property);
+        try {
+            property.setValue(new SampleBean(), "foo");
+            fail("Should not be able to set a read only property");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testSetValues() throws Exception {
+        final TagProperties properties = TagProperties.forClass(SampleBean.class);
+        final SampleBean bean = new SampleBean();
+
+        properties.getProperty("name").setValue(bean, "James");
+        assertEquals("James", bean.getName());
+
+        properties.getProperty("count").setValue(bean, "3");
+        assertEquals(3, bean.getCount());
+
+        final TagProperties.TagProperty property = properties.getProperty("expression");
+        assertTrue("Expression property", property.isExpression());
+        final Expression expression = new ConstantExpression("foo");
+        property.setValue(bean, expression);
+        assertSame(expression, bean.getExpression());
+
+        assertFalse("String property", properties.getProperty("name").isExpression());
+    }
+
+    public void testSetValueFailures() throws Exception {
+        final TagProperties properties = TagProperties.forClass(SampleBean.class);
+        try {
+            properties.getProperty("failing").setValue(new SampleBean(), "foo");
+            fail("The failure of the setter fails the set");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("failing foo", e.getCause().getMessage());
+        }
+        try {
+            properties.getProperty("expression").setValue(new SampleBean(), Integer.valueOf(1));
+            fail("A value which cannot be converted is not set");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testUnknownProperties() throws Exception {
+        final TagProperties properties = TagProperties.forClass(SampleBean.class);
+        assertNull(properties.getProperty("doesNotExist"));
+        assertNull(properties.getProperty("class"));
+    }
+}
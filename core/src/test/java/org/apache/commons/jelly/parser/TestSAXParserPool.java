@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.parser;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.SAXParser;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.InputSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the reuse of SAXParsers by XMLParsers.
+ */
+public class TestSAXParserPool extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestSAXParserPool.class);
+    }
+
+    public TestSAXParserPool(final String testName) {
+        super(testName);
+    }
+
+    public void testExternalEntitiesStayDisabled() throws Exception {
+        final SAXParserPool pool = SAXParserPool.getInstance(false, false);
+        final SAXParser parser = pool.borrow();
+        pool.release(parser);
+        final SAXParser reused = pool.borrow();
+        try {
+            assertFalse(reused.getXMLReader().getFeature("http://xml.org/sax/features/external-general-entities"));
+            assertFalse(reused.getXMLReader().getFeature("http://xml.org/sax/features/external-parameter-entities"));
+        }
+        finally {
+            pool.release(reused);
+        }
+    }
+
+    public void testParseTagReturnsParser() throws Exception {
+        final SAXParserPool pool = SAXParserPool.getInstance(false, true);
+        final JellyContext context = new JellyContext();
+        final Script script = context.compileScript(new InputSource(new StringReader(
+            "<j:parse xmlns:j='jelly:core' var='parsed' text='&lt;a/&gt;'/>")));
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        final long created = pool.getCreatedCount();
+        for (int i = 0; i <= SAXParserPool.MAX_IDLE; i++) {
+            script.run(context, XMLOutput.createDummyXMLOutput());
+            assertTrue(context.getVariable("parsed") instanceof Script);
+        }
+        assertEquals("No new parsers", created, pool.getCreatedCount());
+    }
+
+    public void testParserIsReused() throws Exception {
+        final SAXParserPool pool = SAXParserPool.getInstance(false, true);
+        final SAXParser parser = pool.borrow();
+        pool.release(parser);
+        assertSame(parser, pool.borrow());
+        assertNotSame("Borrowed parsers are not shared", parser, pool.borrow());
+        assertTrue(pool.isAllowDtdToCallExternalEntities());
+        assertFalse(pool.isValidating());
+    }
+
+    public void testScriptsParsedWithPooledParsers() throws Exception {
+        final SAXParserPool pool = SAXParserPool.getInstance(false, false);
+        new XMLParser().parse(new StringReader("<a/>"));
+        final long created = pool.getCreatedCount();
+        for (int i = 0; i < 3; i++) {
+            final XMLParser parser = new XMLParser();
+            final Script script = parser.parse(new StringReader("<j:jelly xmlns:j='jelly:core'>text " + i + "</j:jelly>"));
+            assertNotNull(script);
+            assertNull("Parser is returned after the parse", parser.parser);
+        }
+        assertEquals("No new parsers", created, pool.getCreatedCount());
+    }
+}
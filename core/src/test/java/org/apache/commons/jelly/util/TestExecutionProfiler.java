@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.jelly.ExecutionListener;
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.LocationAware;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.ScriptListener;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.expression.ConstantExpression;
+import org.apache.commons.jelly.expression.Expression;
+import org.xml.sax.InputSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the events given to an ExecutionListener and their profiling.
+ */
+public class TestExecutionProfiler extends TestCase {
+
+    private static final String SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'>\n"
+        + "<j:forEach begin='1' end='3' var='i'>\n"
+        + "<j:set var='x' value='a'/>\n"
+        + "</j:forEach>\n"
+        + "</j:jelly>";
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestExecutionProfiler.class);
+    }
+
+    public TestExecutionProfiler(final String testName) {
+        super(testName);
+    }
+
+    private InputSource source() {
+        final InputSource source = new InputSource(new StringReader(SCRIPT));
+        source.setSystemId("file:/profiled.jelly");
+        return source;
+    }
+
+    private ExecutionProfiler.Entry find(final ExecutionProfiler profiler, final String location) {
+        for (final Iterator iter = profiler.getEntries().iterator(); iter.hasNext();) {
+            final ExecutionProfiler.Entry entry = (ExecutionProfiler.Entry) iter.next();
+            if (entry.getLocation().equals(location)) {
+                return entry;
+            }
+        }
+        fail("No entry for " + location + " in " + profiler);
+        return null;
+    }
+
+    private ExecutionProfiler.Entry find(final ExecutionProfiler profiler, final int line, final String name) {
+        final String file = "file:/profiled.jelly:" + line + ":";
+        for (final Iterator iter = profiler.getEntries().iterator(); iter.hasNext();) {
+            final ExecutionProfiler.Entry entry = (ExecutionProfiler.Entry) iter.next();
+            if (entry.getLocation().startsWith(file) && entry.getLocation().endsWith(name)) {
+                return entry;
+            }
+        }
+        fail("No entry for " + name + " at line " + line + " in " + profiler);
+        return null;
+    }
+
+    public void testClearWhileProfiling() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        final Expression expression = new ConstantExpression("x");
+        final Throwable[] failure = new Throwable[1];
+        final Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200000; i++) {
+                    profiler.enterExpression(expression, null);
+                    profiler.exitExpression(expression, null);
+                }
+            }
+            catch (final Throwable t) {
+                failure[0] = t;
+            }
+        });
+        thread.start();
+        while (thread.isAlive()) {
+            profiler.clear();
+        }
+        thread.join();
+        assertNull("Profiling failed while cleared", failure[0]);
+    }
+
+    public void testEventsAreNested() throws Exception {
+        final List events = new ArrayList();
+        final List expressions = new ArrayList();
+        final JellyContext context = new JellyContext();
+        context.setExecutionListener(new ExecutionListener() {
+            @Override
+            public void compiledScript(final String systemId, final long nanos) {
+                events.add("compiled " + systemId);
+            }
+
+            @Override
+            public void enterExpression(final Expression expression, final LocationAware location) {
+                expressions.add(expression.getExpressionText());
+                events.add("${");
+            }
+
+            @Override
+            public void enterScript(final String systemId, final JellyContext context) {
+                events.add("run " + systemId);
+            }
+
+            @Override
+            public void enterTag(final LocationAware location, final JellyContext context) {
+                events.add("<" + location.getElementName() + ":" + location.getLineNumber());
+            }
+
+            @Override
+            public void exitExpression(final Expression expression, final LocationAware location) {
+                events.add("$");
+            }
+
+            @Override
+            public void exitScript(final String systemId, final JellyContext context) {
+                events.add("ran");
+            }
+
+            @Override
+            public void exitTag(final LocationAware location, final JellyContext context) {
+                events.add(">");
+            }
+        });
+        context.runScript(source(), XMLOutput.createDummyXMLOutput());
+
+        // the value of j:set is an Expression property, which the tag evaluates itself
+        final String set = "<j:set:3, ${, $, >";
+        assertEquals("[compiled file:/profiled.jelly, run file:/profiled.jelly, <j:jelly:1, <j:forEach:2, ${, $, ${, $, ${, $, "
+            + set + ", " + set + ", " + set + ", >, >, ran]", events.toString());
+        assertEquals(6, expressions.size());
+        assertTrue(expressions.containsAll(Arrays.asList(new String[] { "1", "3", "i", "x" })));
+    }
+
+    public void testListenersAreAdded() throws Exception {
+        final List events = new ArrayList();
+        final JellyContext context = new JellyContext();
+        final ExecutionProfiler first = new ExecutionProfiler();
+        final ExecutionProfiler second = new ExecutionProfiler();
+        context.addExecutionListener(first);
+        context.addExecutionListener(second);
+        context.addScriptListener(new ScriptListener() {
+            @Override
+            public void compiledScript(final String systemId, final long nanos) {
+                events.add("compiled " + systemId);
+            }
+
+            @Override
+            public void enterScript(final String systemId, final JellyContext context) {
+                events.add("run " + systemId);
+            }
+
+            @Override
+            public void exitScript(final String systemId, final JellyContext context) {
+                events.add("ran");
+            }
+        });
+        context.runScript(source(), XMLOutput.createDummyXMLOutput());
+
+        assertEquals(2, ((CompositeExecutionListener) context.getExecutionListener()).getListeners().length);
+        assertEquals("[compiled file:/profiled.jelly, run file:/profiled.jelly, ran]", events.toString());
+        assertEquals(3, find(first, 3, " <j:set>").getInvocationCount());
+        assertEquals(3, find(second, 3, " <j:set>").getInvocationCount());
+        assertEquals(1, find(second, "run file:/profiled.jelly").getInvocationCount());
+        // the first listener is told first of each tag and last that it has run
+        final long firstNanos = find(first, 2, " <j:forEach>").getInclusiveNanos();
+        assertTrue(firstNanos >= find(second, 2, " <j:forEach>").getInclusiveNanos());
+    }
+
+    public void testTagsAreProfiled() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        final JellyContext context = new JellyContext();
+        context.setExecutionListener(profiler);
+        final Script script = context.compileScript(source());
+        script.run(context, XMLOutput.createDummyXMLOutput());
+        context.runScript(source(), XMLOutput.createDummyXMLOutput());
+
+        final ExecutionProfiler.Entry forEach = find(profiler, 2, " <j:forEach>");
+        final ExecutionProfiler.Entry set = find(profiler, 3, " <j:set>");
+        assertEquals(2, find(profiler, "compile file:/profiled.jelly").getInvocationCount());
+        assertEquals(1, find(profiler, "run file:/profiled.jelly").getInvocationCount());
+        assertEquals(2, forEach.getInvocationCount());
+        assertEquals(6, set.getInvocationCount());
+        assertEquals(6, find(profiler, 3, "<j:set> ${x}").getInvocationCount());
+        assertTrue(forEach.getInclusiveNanos() >= set.getInclusiveNanos());
+        assertTrue(forEach.getExclusiveNanos() <= forEach.getInclusiveNanos() - set.getInclusiveNanos());
+        assertTrue(profiler.toString().indexOf("<j:forEach>") > 0);
+
+        profiler.clear();
+        assertTrue(profiler.getEntries().isEmpty());
+    }
+}
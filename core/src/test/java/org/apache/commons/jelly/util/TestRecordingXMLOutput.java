@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the replay of events recorded by a RecordingXMLOutput.
+ */
+public class TestRecordingXMLOutput extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestRecordingXMLOutput.class);
+    }
+
+    public TestRecordingXMLOutput(final String testName) {
+        super(testName);
+    }
+
+    private String render(final RecordingXMLOutput recording) throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createStreamingXMLOutput(buffer);
+        recording.replay(output);
+        output.flush();
+        return buffer.toString();
+    }
+
+    private void writeEvents(final XMLOutput output) throws Exception {
+        final AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "a", "a", "CDATA", "1 < 2");
+        output.startPrefixMapping("p", "urn:p");
+        output.startElement("urn:p", "root", "p:root", attributes);
+        output.write("caf\u00e9 & ");
+        output.characters("chars".toCharArray(), 0, 5);
+        output.startElement("child");
+        output.writeCDATA("<raw>");
+        output.endElement("child");
+        output.writeComment("note");
+        output.endElement("urn:p", "root", "p:root");
+        output.endPrefixMapping("p");
+    }
+
+    public void testClearedRecordingIsReused() throws Exception {
+        final RecordingXMLOutput recording = new RecordingXMLOutput();
+        writeEvents(recording);
+        recording.clear();
+        assertTrue(recording.isEmpty());
+        recording.write("again");
+        assertEquals("again", render(recording));
+    }
+
+    public void testEventsAreReplayed() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput direct = XMLOutput.createStreamingXMLOutput(buffer);
+        writeEvents(direct);
+        direct.flush();
+
+        final RecordingXMLOutput recording = new RecordingXMLOutput();
+        assertTrue(recording.isEmpty());
+        writeEvents(recording);
+        assertFalse(recording.isEmpty());
+        assertEquals(buffer.toString(), render(recording));
+        assertEquals("Replayed again", buffer.toString(), render(recording));
+    }
+
+    public void testObjectDataIsKept() throws Exception {
+        final Object data = new Object();
+        final List received = new ArrayList();
+        final RecordingXMLOutput recording = new RecordingXMLOutput();
+        recording.write("a");
+        recording.objectData(data);
+
+        recording.replay(new XMLOutput(new DefaultHandler()) {
+            @Override
+            public void objectData(final Object object) {
+                received.add(object);
+            }
+        });
+        assertEquals(1, received.size());
+        assertSame(data, received.get(0));
+
+        final StringBuilder text = new StringBuilder();
+        recording.replay(new DefaultHandler() {
+            @Override
+            public void characters(final char[] ch, final int start, final int length) {
+                text.append(ch, start, length);
+            }
+        });
+        assertEquals("a" + data, text.toString());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.dom4j.io.XMLWriter;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the XML written by the StreamingXMLWriter.
+ */
+public class TestStreamingXMLWriter extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestStreamingXMLWriter.class);
+    }
+
+    public TestStreamingXMLWriter(final String testName) {
+        super(testName);
+    }
+
+    /**
+     * Sends events which need escaping to the given handler
+     */
+    private void writeEscapedEvents(final ContentHandler handler) throws Exception {
+        final AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "a", "a", "CDATA", "tab\tline\nreturn\r<\"&'>\u0001");
+        handler.startElement("", "root", "root", attributes);
+        final char[] text = "tab\tline\n<&>'\"\u0001".toCharArray();
+        handler.characters(text, 0, text.length);
+        ((LexicalHandler) handler).startEntity("x");
+        handler.characters(new char[] { 'y' }, 0, 1);
+        ((LexicalHandler) handler).endEntity("x");
+        handler.endElement("", "root", "root");
+    }
+
+    public void testElements() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(buffer);
+
+        final AttributesImpl attributes = new AttributesImpl();
+        attributes.addAttribute("", "a", "a", "CDATA", "x < \"y\" & z\n");
+        writer.startPrefixMapping("p", "urn:p");
+        writer.startElement("urn:p", "root", "p:root", attributes);
+        writer.characters("1 < 2 & 3 > 2");
+        writer.startElement("", "empty", "empty", new AttributesImpl());
+        writer.endElement("", "empty", "empty");
+        writer.startCDATA();
+        writer.characters("<raw>");
+        writer.endCDATA();
+        writer.comment("note".toCharArray(), 0, 4);
+        writer.processingInstruction("pi", "data");
+        writer.endElement("urn:p", "root", "p:root");
+        writer.flush();
+
+        assertEquals(
+            "<p:root xmlns:p=\"urn:p\" a=\"x &lt; &quot;y&quot; &amp; z\n\">"
+                + "1 &lt; 2 &amp; 3 &gt; 2<empty></empty><![CDATA[<raw>]]><!--note--><?pi data?></p:root>",
+            buffer.toString());
+    }
+
+    public void testUnescapedText() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(buffer);
+        writer.setEscapeText(false);
+        writer.characters("a < b");
+        writer.flush();
+        assertEquals("a < b", buffer.toString());
+    }
+
+    public void testEntities() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(buffer);
+        writer.startEntity("x");
+        writer.characters("y");
+        writer.endEntity("x");
+        writer.flush();
+        assertEquals("&x;y", buffer.toString());
+    }
+
+    public void testEscapingMatchesDom4j() throws Exception {
+        final StringWriter expected = new StringWriter();
+        final XMLWriter xmlWriter = new XMLWriter(expected);
+        writeEscapedEvents(xmlWriter);
+        xmlWriter.flush();
+
+        final StringWriter buffer = new StringWriter();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(buffer);
+        writeEscapedEvents(writer);
+        writer.flush();
+        assertEquals(expected.toString(), buffer.toString());
+    }
+
+    public void testPrettyPrint() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(buffer);
+        writer.setIndent("  ");
+        writer.startElement("", "a", "a", new AttributesImpl());
+        writer.startElement("", "b", "b", new AttributesImpl());
+        writer.characters("text");
+        writer.endElement("", "b", "b");
+        writer.endElement("", "a", "a");
+        writer.flush();
+        assertEquals("<a>\n  <b>text</b>\n</a>", buffer.toString());
+    }
+
+    public void testUtf8Encoding() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        // enough text to fill the buffer several times, with surrogate pairs across its boundaries
+        for (int i = 0; i < 5000; i++) {
+            text.append("\u00e9\u20ac\ud83d\ude00x");
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(bytes);
+        writer.characters(text.toString());
+        writer.characters("<".toCharArray(), 0, 1);
+        writer.close();
+        assertEquals(text.toString() + "&lt;", bytes.toString("UTF-8"));
+    }
+
+    public void testCharacterReferences() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final StreamingXMLWriter writer = new StreamingXMLWriter(bytes, "US-ASCII");
+        writer.startDocument();
+        writer.characters("\u00e9\ud83d\ude00");
+        writer.flush();
+        assertEquals("<?xml version=\"1.0\" encoding=\"US-ASCII\"?>\n&#233;&#128512;", bytes.toString("US-ASCII"));
+    }
+
+    public void testXMLOutput() throws Exception {
+        final StringWriter buffer = new StringWriter();
+        final XMLOutput output = XMLOutput.createStreamingXMLOutput(buffer, true);
+        output.startElement("html");
+        output.write("a & b");
+        output.writeCDATA("<c>");
+        output.endElement("html");
+        output.flush();
+        assertEquals("<html>a &amp; b<![CDATA[<c>]]></html>", buffer.toString());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.impl.PrecompiledScriptStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures compiling a script for the first time in a new JVM, as when an
+ * application starts, either by parsing its XML or from the precompiled form a
+ * {@link PrecompiledScriptStore} kept from an earlier JVM. The precompiled form
+ * is stored by another JVM, so that nothing in the measured JVM has been loaded
+ * or run beforehand.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Thread)
+public class ColdStartBenchmark {
+
+    /**
+     * Compiles the script file given as the first argument with a store in the
+     * directory given as the second, so that the store holds its precompiled form.
+     */
+    public static void main(final String[] args) throws Exception {
+        final JellyContext context = new JellyContext();
+        context.setPrecompiledScriptStore(new PrecompiledScriptStore(new File(args[1])));
+        context.compileScript(new File(args[0]).toURI().toURL());
+    }
+
+    @Param({ "page.jelly", "logic.jelly" })
+    public String script;
+
+    @Param({ "none", "precompiled" })
+    public String store;
+
+    private File directory;
+
+    private URL url;
+
+    private PrecompiledScriptStore precompiledScriptStore;
+
+    @Setup
+    public void setUp() throws Exception {
+        // a file rather than a resource of the jar, so that its version is known
+        directory = Files.createTempDirectory("jelly-cold-start").toFile();
+        final File file = new File(directory, script);
+        try (InputStream in = ColdStartBenchmark.class.getResourceAsStream(script)) {
+            Files.copy(in, file.toPath());
+        }
+        url = file.toURI().toURL();
+        if ("precompiled".equals(store)) {
+            final File storeDirectory = new File(directory, "store");
+            final Process process = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                ColdStartBenchmark.class.getName(), file.getPath(), storeDirectory.getPath())
+                .inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException("Could not precompile " + script);
+            }
+            precompiledScriptStore = new PrecompiledScriptStore(storeDirectory);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (precompiledScriptStore != null && precompiledScriptStore.getHitCount() != 1) {
+            throw new IllegalStateException("The precompiled form of " + script + " was not used");
+        }
+        if (precompiledScriptStore != null) {
+            precompiledScriptStore.clear();
+            precompiledScriptStore.getDirectory().delete();
+        }
+        new File(directory, script).delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public Script compile() throws Exception {
+        final JellyContext context = new JellyContext();
+        context.setPrecompiledScriptStore(precompiledScriptStore);
+        return context.compileScript(url);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures looking up and setting variables from several threads at once, in
+ * a concurrent context shared by the threads, in a thread-confined context per
+ * thread and, for comparison, in a shared Hashtable as contexts used to hold.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContextBenchmark {
+
+    /**
+     * State shared by all the threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        JellyContext context;
+        Map hashtable;
+
+        @Setup
+        public void setUp() {
+            context = new JellyContext().newJellyContext();
+            context.getParent().setVariable("parentVariable", "parent");
+            context.setVariable("variable", "value");
+            hashtable = new Hashtable(context.getVariables());
+        }
+    }
+
+    /**
+     * State confined to each thread.
+     */
+    @State(Scope.Thread)
+    public static class Confined {
+        JellyContext context;
+
+        @Setup
+        public void setUp() {
+            final JellyContext parent = new JellyContext();
+            parent.setConcurrent(false);
+            parent.setVariable("parentVariable", "parent");
+            context = parent.newJellyContext();
+            context.setVariable("variable", "value");
+        }
+    }
+
+    @Benchmark
+    public Object confinedGetVariable(final Confined state) {
+        return state.context.getVariable("variable");
+    }
+
+    @Benchmark
+    public Object confinedGetParentVariable(final Confined state) {
+        return state.context.getVariable("parentVariable");
+    }
+
+    @Benchmark
+    public void confinedSetVariable(final Confined state) {
+        state.context.setVariable("written", "value");
+    }
+
+    @Benchmark
+    public Object sharedGetVariable(final Shared state) {
+        return state.context.getVariable("variable");
+    }
+
+    @Benchmark
+    public Object sharedGetParentVariable(final Shared state) {
+        return state.context.getVariable("parentVariable");
+    }
+
+    @Benchmark
+    public void sharedSetVariable(final Shared state) {
+        state.context.setVariable("written", "value");
+    }
+
+    @Benchmark
+    public Object hashtableGet(final Shared state) {
+        return state.hashtable.get("variable");
+    }
+
+    @Benchmark
+    public Object hashtablePut(final Shared state) {
+        return state.hashtable.put("written", "value");
+    }
+}
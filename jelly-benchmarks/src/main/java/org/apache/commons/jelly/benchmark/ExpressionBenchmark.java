@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.expression.CompositeExpression;
+import org.apache.commons.jelly.expression.Expression;
+import org.apache.commons.jelly.expression.ExpressionFactory;
+import org.apache.commons.jelly.expression.jexl.JexlExpressionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures evaluating the kinds of expression found in scripts, along with
+ * parsing them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+
+    public static class Address {
+        public String getCity() {
+            return "Bristol";
+        }
+    }
+
+    public static class Customer {
+        private final Address address = new Address();
+
+        public Address getAddress() {
+            return address;
+        }
+    }
+
+    public static class Order {
+        private final Customer customer = new Customer();
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    /** The number of contexts between the one evaluating and the one holding the variable */
+    private static final int CHAIN_DEPTH = 10;
+
+    private static final String COMPOSITE_TEXT = "Hello ${name}, your order goes to ${order.customer.address.city}";
+
+    private final ExpressionFactory factory = new JexlExpressionFactory();
+
+    private JellyContext context;
+
+    private JellyContext chainContext;
+
+    private Expression constant;
+
+    private Expression variable;
+
+    private Expression deepProperty;
+
+    private Expression composite;
+
+    private Expression chainProperty;
+
+    @Setup
+    public void setUp() throws Exception {
+        // a child context, as tags usually evaluate expressions in one
+        final JellyContext parent = new JellyContext();
+        parent.setVariable("name", "Jelly");
+        parent.setVariable("order", new Order());
+        context = parent.newJellyContext();
+
+        // as in nested tags, the variable is found after missing in every context of the chain
+        chainContext = new JellyContext();
+        chainContext.setVariable("a", Collections.singletonMap("b", Collections.singletonMap("c", "value")));
+        for (int i = 0; i < CHAIN_DEPTH; i++) {
+            chainContext = chainContext.newJellyContext();
+        }
+
+        constant = CompositeExpression.parse("some constant text", factory);
+        variable = CompositeExpression.parse("${name}", factory);
+        deepProperty = CompositeExpression.parse("${order.customer.address.city}", factory);
+        composite = CompositeExpression.parse(COMPOSITE_TEXT, factory);
+        chainProperty = CompositeExpression.parse("${a.b.c}", factory);
+    }
+
+    @Benchmark
+    public Object chainProperty() {
+        return chainProperty.evaluate(chainContext);
+    }
+
+    @Benchmark
+    public Object composite() {
+        return composite.evaluateAsString(context);
+    }
+
+    @Benchmark
+    public Object constant() {
+        return constant.evaluate(context);
+    }
+
+    @Benchmark
+    public Object deepProperty() {
+        return deepProperty.evaluate(context);
+    }
+
+    @Benchmark
+    public Expression parseComposite() throws Exception {
+        return CompositeExpression.parse(COMPOSITE_TEXT, factory);
+    }
+
+    @Benchmark
+    public Object variable() {
+        return variable.evaluate(context);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ * Measures {@code <j:forEach>} over a large collection, over the second half
+ * of a primitive array and over a range of indices, outputting each item.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ForEachBenchmark {
+
+    private static final String ITEMS_SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'><j:forEach var='item' items='${items}'><i>${item}</i></j:forEach></j:jelly>";
+
+    private static final String ARRAY_SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'><j:forEach var='item' items='${array}' begin='${half}'>"
+            + "<i>${item}</i></j:forEach></j:jelly>";
+
+    private static final String RANGE_SCRIPT =
+        "<j:jelly xmlns:j='jelly:core'><j:forEach var='i' begin='1' end='${count}' varStatus='status'>"
+            + "<i>${status.index}</i></j:forEach></j:jelly>";
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private Script array;
+
+    private JellyContext context;
+
+    private Script items;
+
+    private Script range;
+
+    private XMLOutput output;
+
+    @Setup
+    public void setUp() throws Exception {
+        final List list = new ArrayList(size);
+        final int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            list.add("item" + i);
+            ints[i] = i;
+        }
+        context = new JellyContext();
+        context.setVariable("array", ints);
+        context.setVariable("items", list);
+        context.setVariable("count", Integer.valueOf(size));
+        context.setVariable("half", Integer.valueOf(size / 2));
+        array = context.compileScript(new InputSource(new StringReader(ARRAY_SCRIPT)));
+        items = context.compileScript(new InputSource(new StringReader(ITEMS_SCRIPT)));
+        range = context.compileScript(new InputSource(new StringReader(RANGE_SCRIPT)));
+        output = Outputs.createNullXMLOutput();
+    }
+
+    @Benchmark
+    public XMLOutput array() throws Exception {
+        array.run(context, output);
+        return output;
+    }
+
+    @Benchmark
+    public XMLOutput items() throws Exception {
+        items.run(context, output);
+        return output;
+    }
+
+    @Benchmark
+    public XMLOutput range() throws Exception {
+        range.run(context, output);
+        return output;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.io.StringReader;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.DefaultScriptCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ * Measures the tags which parse scripts while a script runs: {@code <j:include>}
+ * of a script, with and without a script cache, and {@code <j:parse>} of some
+ * text. Both borrow their SAX parsers from the shared pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IncludeBenchmark {
+
+    private JellyContext context;
+
+    private JellyContext cachingContext;
+
+    private Script include;
+
+    private Script parse;
+
+    private XMLOutput output;
+
+    /**
+     * @return A context whose current URL is the directory of the included script
+     */
+    private static JellyContext createContext(final URL url) {
+        final JellyContext answer = new JellyContext(url, url);
+        answer.setVariable("count", Integer.valueOf(10));
+        answer.setVariable("markup", RunBenchmark.createScript(30));
+        return answer;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final URL url = new URL(IncludeBenchmark.class.getResource("logic.jelly"), ".");
+        context = createContext(url);
+        cachingContext = createContext(url);
+        cachingContext.setScriptCache(new DefaultScriptCache());
+        include = context.compileScript(new InputSource(new StringReader(
+            "<j:include xmlns:j='jelly:core' uri='logic.jelly'/>")));
+        parse = context.compileScript(new InputSource(new StringReader(
+            "<j:parse xmlns:j='jelly:core' var='parsed' text='${markup}'/>")));
+        output = Outputs.createNullXMLOutput();
+    }
+
+    @Benchmark
+    public XMLOutput include() throws Exception {
+        // the included script is parsed and compiled each time
+        include.run(context, output);
+        return output;
+    }
+
+    @Benchmark
+    public XMLOutput includeCached() throws Exception {
+        include.run(cachingContext, output);
+        return output;
+    }
+
+    @Benchmark
+    public Object parse() throws Exception {
+        parse.run(context, output);
+        return context.getVariable("parsed");
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Measures the namespace bookkeeping of XMLOutput on a deeply nested document,
+ * whose elements are unqualified, share one prefix declared at the root, or
+ * each declare a prefix of their own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NamespaceBenchmark {
+
+    @Param({ "none", "shared", "perLevel" })
+    public String namespaces;
+
+    @Param({ "50" })
+    public int depth;
+
+    /** The number of times the nested elements are written per document */
+    @Param({ "100" })
+    public int repeats;
+
+    private XMLOutput output;
+
+    private String[] uris;
+
+    private String[] qNames;
+
+    private String[] prefixes;
+
+    private final AttributesImpl attributes = new AttributesImpl();
+
+    @Setup
+    public void setUp() throws Exception {
+        output = XMLOutput.createStreamingXMLOutput(new Outputs.NullOutputStream(), false);
+        uris = new String[depth];
+        qNames = new String[depth];
+        prefixes = new String[depth];
+        for (int i = 0; i < depth; i++) {
+            if ("none".equals(namespaces)) {
+                uris[i] = "";
+                qNames[i] = "e";
+            } else if ("shared".equals(namespaces)) {
+                uris[i] = "urn:shared";
+                qNames[i] = "s:e";
+                prefixes[i] = "s";
+            } else {
+                uris[i] = "urn:level:" + i;
+                prefixes[i] = "p" + i;
+                qNames[i] = prefixes[i] + ":e";
+            }
+        }
+        attributes.addAttribute("", "id", "id", "CDATA", "1");
+    }
+
+    @Benchmark
+    public XMLOutput write() throws Exception {
+        output.startElement("root");
+        for (int r = 0; r < repeats; r++) {
+            for (int i = 0; i < depth; i++) {
+                if (prefixes[i] != null) {
+                    output.startPrefixMapping(prefixes[i], uris[i]);
+                }
+                output.startElement(uris[i], "e", qNames[i], attributes);
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                output.endElement(uris[i], "e", qNames[i]);
+            }
+        }
+        output.endElement("root");
+        output.flush();
+        return output;
+    }
+}
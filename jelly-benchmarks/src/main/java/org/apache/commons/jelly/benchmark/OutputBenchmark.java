@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Measures serializing a large generated document to a UTF-8 stream, through
+ * dom4j's XMLWriter or the StreamingXMLWriter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark {
+
+    @Param({ "dom4j", "streaming" })
+    public String writer;
+
+    @Param({ "10000" })
+    public int rows;
+
+    @Param({ "false", "true" })
+    public boolean escapeText;
+
+    private XMLOutput output;
+
+    private String[] texts;
+
+    private final AttributesImpl attributes = new AttributesImpl();
+
+    @Setup
+    public void setUp() throws Exception {
+        final Outputs.NullOutputStream out = new Outputs.NullOutputStream();
+        output = "streaming".equals(writer)
+            ? XMLOutput.createStreamingXMLOutput(out, escapeText)
+            : XMLOutput.createXMLOutput(out, escapeText);
+        texts = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            texts[i] = "row " + i + " of some generated text & markup <b>";
+        }
+        attributes.addAttribute("", "class", "class", "CDATA", "row \"even\"");
+    }
+
+    @Benchmark
+    public XMLOutput write() throws Exception {
+        output.startElement("table");
+        for (int i = 0; i < rows; i++) {
+            output.startElement("tr", attributes);
+            output.startElement("td");
+            output.write(texts[i]);
+            output.endElement("td");
+            output.endElement("tr");
+        }
+        output.endElement("table");
+        output.flush();
+        return output;
+    }
+}
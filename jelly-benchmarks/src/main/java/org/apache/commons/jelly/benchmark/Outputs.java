@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.apache.commons.jelly.XMLOutput;
+
+/**
+ * Outputs which discard what is written to them, so that benchmarks measure
+ * the work of producing output rather than of storing it.
+ */
+final class Outputs {
+
+    /**
+     * A stream which discards all bytes.
+     */
+    static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+
+        @Override
+        public void write(final int b) {
+        }
+    }
+
+    /**
+     * A Writer which discards all characters.
+     */
+    static final class NullWriter extends Writer {
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+        }
+    }
+
+    /**
+     * @return An XMLOutput using dom4j's XMLWriter which discards its output
+     */
+    static XMLOutput createNullXMLOutput() {
+        return XMLOutput.createXMLOutput(new NullWriter());
+    }
+
+    private Outputs() {
+    }
+}
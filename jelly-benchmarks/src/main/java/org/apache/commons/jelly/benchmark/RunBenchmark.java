@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.benchmark;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.Script;
+import org.apache.commons.jelly.XMLOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+
+/**
+ * Measures running a compiled script made of the given number of tags, a mix
+ * of core tags, static tags and text with expressions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RunBenchmark {
+
+    /**
+     * @return A script of roughly the given number of tags
+     */
+    static String createScript(final int tags) {
+        final StringBuilder buffer = new StringBuilder("<j:jelly xmlns:j='jelly:core'>\n");
+        for (int i = 0; i < tags; i += 3) {
+            buffer.append("<j:set var='value' value='${").append(i).append("}'/>\n");
+            buffer.append("<p class='row'>row ${value} of ${name}</p>\n");
+            buffer.append("<j:if test='${value > 0}'>positive</j:if>\n");
+        }
+        return buffer.append("</j:jelly>").toString();
+    }
+
+    @Param({ "10", "100", "1000", "5000" })
+    public int tags;
+
+    @Param({ "false", "true" })
+    public boolean cacheTags;
+
+    private JellyContext context;
+
+    private Script script;
+
+    private XMLOutput output;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = new JellyContext();
+        context.setCacheTags(cacheTags);
+        context.setVariable("name", "Jelly");
+        script = context.compileScript(new InputSource(new StringReader(createScript(tags))));
+        output = Outputs.createNullXMLOutput();
+    }
+
+    @Benchmark
+    public XMLOutput run() throws Exception {
+        script.run(context, output);
+        return output;
+    }
+}
@@ -36,6 +36,7 @@ public class JMXTagLibrary extends BeanTagLibrary {
 
     public JMXTagLibrary() {
         registerTag("mbean", BeanTag.class);
+        registerTag("metrics", MetricsTag.class);
         registerTag("operation", OperationTag.class);
         registerTag("register", RegisterTag.class);
         registerTag("server", ServerTag.class);
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jmx;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.ScriptListener;
+import org.apache.commons.jelly.impl.DefaultScriptCache;
+import org.apache.commons.jelly.impl.ScriptCache;
+import org.apache.commons.jelly.parser.SAXParserPool;
+
+/**
+ * <p>{@code JellyMetrics} is a {@link ScriptListener} which counts the scripts
+ * compiled and run by {@link JellyContext#compileScript(java.net.URL)},
+ * {@link JellyContext#runScript(java.net.URL, org.apache.commons.jelly.XMLOutput)}
+ * and their other forms, and publishes them along with the statistics of the
+ * script cache and parser pools as a JMX MBean.</p>
+ *
+ * <p>As a script listener it is told of each script compiled and run, but not of
+ * their tags and expressions, so the tags run at the same cost as they do without
+ * it. It is added to the script listeners of the context scripts are run from
+ * and registered with an MBeanServer, for example by the {@code <jmx:metrics>} tag:</p>
+ *
+ * <pre>
+ * JellyMetrics metrics = new JellyMetrics(context.getScriptCache());
+ * context.addScriptListener(metrics);
+ * server.registerMBean(metrics, new ObjectName("Jelly:type=Metrics"));
+ * </pre>
+ */
+public class JellyMetrics implements JellyMetricsMBean, ScriptListener {
+
+    /**
+     * The runs of one script.
+     */
+    private static final class ScriptRuns {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(LATENCY_LIMITS_MILLIS.length + 1);
+
+        private void add(final long nanos) {
+            count.incrementAndGet();
+            int bucket = 0;
+            while (bucket < LATENCY_LIMITS_MILLIS.length && nanos > LATENCY_LIMITS_MILLIS[bucket] * 1000000L) {
+                bucket++;
+            }
+            histogram.incrementAndGet(bucket);
+        }
+
+        private long[] getHistogram() {
+            final long[] answer = new long[histogram.length()];
+            for (int i = 0; i < answer.length; i++) {
+                answer[i] = histogram.get(i);
+            }
+            return answer;
+        }
+    }
+
+    /**
+     * The start times of the scripts being run by one thread.
+     */
+    private static final class StartTimes {
+        private long[] times = new long[8];
+        private int depth;
+    }
+
+    /** The upper bounds of the latency buckets */
+    private static final long[] LATENCY_LIMITS_MILLIS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000 };
+
+    /** The key of the scripts with no system ID */
+    private static final String UNKNOWN_SCRIPT = "(unknown)";
+
+    /** The cache whose statistics are published, or null */
+    private volatile ScriptCache scriptCache;
+
+    /** The runs of each script, keyed by system ID */
+    private final ConcurrentHashMap scripts = new ConcurrentHashMap();
+
+    /** The runs of all scripts */
+    private volatile ScriptRuns allScripts = new ScriptRuns();
+
+    private final AtomicLong compileCount = new AtomicLong();
+
+    private final AtomicLong compileNanos = new AtomicLong();
+
+    private final AtomicInteger activeThreadCount = new AtomicInteger();
+
+    /** The start times of each thread */
+    private final ThreadLocal startTimes = new ThreadLocal() {
+        @Override
+        protected Object initialValue() {
+            return new StartTimes();
+        }
+    };
+
+    public JellyMetrics() {
+    }
+
+    /**
+     * @param scriptCache The cache whose statistics are published, or null
+     */
+    public JellyMetrics(final ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    // ScriptListener interface
+    //-------------------------------------------------------------------------
+    @Override
+    public void compiledScript(final String systemId, final long nanos) {
+        compileCount.incrementAndGet();
+        compileNanos.addAndGet(nanos);
+    }
+
+    @Override
+    public void enterScript(final String systemId, final JellyContext context) {
+        final StartTimes starts = (StartTimes) startTimes.get();
+        if (starts.depth == 0) {
+            activeThreadCount.incrementAndGet();
+        } else if (starts.depth == starts.times.length) {
+            starts.times = Arrays.copyOf(starts.times, starts.depth * 2);
+        }
+        starts.times[starts.depth++] = System.nanoTime();
+    }
+
+    @Override
+    public void exitScript(final String systemId, final JellyContext context) {
+        final long now = System.nanoTime();
+        final StartTimes starts = (StartTimes) startTimes.get();
+        final long nanos = now - starts.times[--starts.depth];
+        if (starts.depth == 0) {
+            activeThreadCount.decrementAndGet();
+        }
+        final String key = systemId != null ? systemId : UNKNOWN_SCRIPT;
+        ScriptRuns runs = (ScriptRuns) scripts.get(key);
+        if (runs == null) {
+            final ScriptRuns added = new ScriptRuns();
+            runs = (ScriptRuns) scripts.putIfAbsent(key, added);
+            if (runs == null) {
+                runs = added;
+            }
+        }
+        runs.add(nanos);
+        allScripts.add(nanos);
+    }
+
+    // JellyMetricsMBean interface
+    //-------------------------------------------------------------------------
+    @Override
+    public int getActiveThreadCount() {
+        return activeThreadCount.get();
+    }
+
+    @Override
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    @Override
+    public long getCompileTimeMillis() {
+        return compileNanos.get() / 1000000L;
+    }
+
+    @Override
+    public int getIdleParserCount() {
+        int answer = 0;
+        for (int i = 0; i < 4; i++) {
+            answer += SAXParserPool.getInstance(i >= 2, i % 2 == 1).getIdleCount();
+        }
+        return answer;
+    }
+
+    @Override
+    public long[] getLatencyBucketLimitsMillis() {
+        return LATENCY_LIMITS_MILLIS.clone();
+    }
+
+    @Override
+    public long[] getLatencyHistogram() {
+        return allScripts.getHistogram();
+    }
+
+    @Override
+    public long getParserCreatedCount() {
+        long answer = 0;
+        for (int i = 0; i < 4; i++) {
+            answer += SAXParserPool.getInstance(i >= 2, i % 2 == 1).getCreatedCount();
+        }
+        return answer;
+    }
+
+    @Override
+    public long getRunCount() {
+        return allScripts.count.get();
+    }
+
+    @Override
+    public long getScriptCacheHitCount() {
+        final ScriptCache cache = scriptCache;
+        return cache instanceof DefaultScriptCache ? ((DefaultScriptCache) cache).getHitCount() : -1;
+    }
+
+    @Override
+    public double getScriptCacheHitRatio() {
+        final ScriptCache cache = scriptCache;
+        if (!(cache instanceof DefaultScriptCache)) {
+            return -1;
+        }
+        final long hits = ((DefaultScriptCache) cache).getHitCount();
+        final long lookups = hits + ((DefaultScriptCache) cache).getMissCount();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getScriptCacheMissCount() {
+        final ScriptCache cache = scriptCache;
+        return cache instanceof DefaultScriptCache ? ((DefaultScriptCache) cache).getMissCount() : -1;
+    }
+
+    @Override
+    public String[] getScriptIds() {
+        final String[] answer = (String[]) scripts.keySet().toArray(new String[0]);
+        Arrays.sort(answer);
+        return answer;
+    }
+
+    @Override
+    public void reset() {
+        scripts.clear();
+        allScripts = new ScriptRuns();
+        compileCount.set(0);
+        compileNanos.set(0);
+        final ScriptCache cache = scriptCache;
+        if (cache instanceof DefaultScriptCache) {
+            ((DefaultScriptCache) cache).resetStatistics();
+        }
+    }
+
+    @Override
+    public long[] scriptLatencyHistogram(final String scriptId) {
+        final ScriptRuns runs = (ScriptRuns) scripts.get(scriptId);
+        return runs != null ? runs.getHistogram() : new long[LATENCY_LIMITS_MILLIS.length + 1];
+    }
+
+    @Override
+    public long scriptRunCount(final String scriptId) {
+        final ScriptRuns runs = (ScriptRuns) scripts.get(scriptId);
+        return runs != null ? runs.count.get() : 0;
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The cache whose statistics are published, or null
+     */
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Sets the cache whose statistics are published. Only a {@link DefaultScriptCache}
+     * counts its hits and misses.
+     */
+    public void setScriptCache(final ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jmx;
+
+/**
+ * The management interface of {@link JellyMetrics}, published to JMX as a
+ * standard MBean.
+ */
+public interface JellyMetricsMBean {
+
+    /**
+     * @return The number of threads which are running a script
+     */
+    int getActiveThreadCount();
+
+    /**
+     * @return The number of scripts parsed and compiled
+     */
+    long getCompileCount();
+
+    /**
+     * @return The total time spent parsing and compiling scripts, in milliseconds
+     */
+    long getCompileTimeMillis();
+
+    /**
+     * @return The number of parsers kept for reuse by the shared parser pools
+     */
+    int getIdleParserCount();
+
+    /**
+     * @return The upper bounds, in milliseconds, of all but the last bucket of
+     * the latency histograms; the last bucket counts the slower runs
+     */
+    long[] getLatencyBucketLimitsMillis();
+
+    /**
+     * @return The number of script runs which took the time of each bucket of
+     * {@link #getLatencyBucketLimitsMillis()}, for all scripts
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * @return The number of parsers created by the shared parser pools, which
+     * is the number of times a parser could not be reused
+     */
+    long getParserCreatedCount();
+
+    /**
+     * @return The number of scripts run
+     */
+    long getRunCount();
+
+    /**
+     * @return The number of compiled scripts found in the script cache, or -1 if
+     * the cache does not count them
+     */
+    long getScriptCacheHitCount();
+
+    /**
+     * @return The proportion of lookups in the script cache which found a
+     * compiled script, or -1 if the cache does not count them
+     */
+    double getScriptCacheHitRatio();
+
+    /**
+     * @return The number of scripts not found in the script cache, or -1 if the
+     * cache does not count them
+     */
+    long getScriptCacheMissCount();
+
+    /**
+     * @return The URLs or URIs of the scripts which have been run
+     */
+    String[] getScriptIds();
+
+    /**
+     * Forgets the counts and times recorded so far, including those of the
+     * script cache.
+     */
+    void reset();
+
+    /**
+     * @return The number of runs of the given script which took the time of
+     * each bucket of {@link #getLatencyBucketLimitsMillis()}
+     */
+    long[] scriptLatencyHistogram(String scriptId);
+
+    /**
+     * @return The number of times the given script has been run
+     */
+    long scriptRunCount(String scriptId);
+}
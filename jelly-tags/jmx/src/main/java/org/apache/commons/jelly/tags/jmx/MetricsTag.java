@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jmx;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.JellyTagException;
+import org.apache.commons.jelly.MissingAttributeException;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.ScriptCache;
+
+/**
+ * Registers a {@link JellyMetrics} MBean with a server, under the given name,
+ * and adds it to the script listeners of the outermost context so that the
+ * scripts later compiled and run from that context are counted. Any listeners
+ * the context has already are kept. The statistics
+ * of the script cache of the context are published too, unless another cache
+ * is given.
+ */
+public class MetricsTag extends RegisterTag {
+
+    private ScriptCache scriptCache;
+    private String var;
+
+    public MetricsTag() {
+    }
+
+    // Tag interface
+    //-------------------------------------------------------------------------
+    @Override
+    public void doTag(final XMLOutput output) throws MissingAttributeException, JellyTagException {
+        JellyContext root = context;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        final JellyMetrics metrics = new JellyMetrics(scriptCache != null ? scriptCache : root.getScriptCache());
+
+        // checks the name and finds the server
+        super.doTag(output);
+        addItem(metrics);
+
+        root.addScriptListener(metrics);
+        if (var != null) {
+            context.setVariable(var, metrics);
+        }
+    }
+
+    // Properties
+    //-------------------------------------------------------------------------
+
+    /**
+     * Sets the cache whose statistics are published, instead of the script
+     * cache of the outermost context.
+     */
+    public void setScriptCache(final ScriptCache scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+     * Sets the name of the variable which is set to the {@link JellyMetrics}.
+     */
+    public void setVar(final String var) {
+        this.var = var;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.jelly.tags.jmx;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.apache.commons.jelly.JellyContext;
+import org.apache.commons.jelly.XMLOutput;
+import org.apache.commons.jelly.impl.DefaultScriptCache;
+import org.apache.commons.jelly.util.ExecutionProfiler;
+import org.xml.sax.InputSource;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ * Tests the counting of script runs by JellyMetrics and its publication to JMX.
+ */
+public class TestJellyMetrics extends TestCase {
+
+    public static void main(final String[] args) {
+        TestRunner.run(suite());
+    }
+
+    public static Test suite() {
+        return new TestSuite(TestJellyMetrics.class);
+    }
+
+    public TestJellyMetrics(final String testName) {
+        super(testName);
+    }
+
+    public void testMetricsTagRegistersListener() throws Exception {
+        final JellyContext context = new JellyContext();
+        context.compileScript(new InputSource(new StringReader(
+            "<server xmlns='jelly:jmx'>"
+            + "<metrics name='Jelly:type=Metrics' var='metrics'/>"
+            + "</server>")))
+            .run(context, XMLOutput.createDummyXMLOutput());
+
+        final Object metrics = context.getVariable("metrics");
+        assertTrue(metrics instanceof JellyMetrics);
+        assertSame(metrics, context.getScriptListener());
+    }
+
+    public void testMetricsTagKeepsListeners() throws Exception {
+        final JellyContext context = new JellyContext();
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        context.setExecutionListener(profiler);
+        final JellyMetrics first = new JellyMetrics();
+        context.addScriptListener(first);
+        context.compileScript(new InputSource(new StringReader(
+            "<server xmlns='jelly:jmx'>"
+            + "<metrics name='Jelly:type=Metrics' var='metrics'/>"
+            + "</server>")))
+            .run(context, XMLOutput.createDummyXMLOutput());
+
+        assertSame(profiler, context.getExecutionListener());
+        final JellyMetrics metrics = (JellyMetrics) context.getVariable("metrics");
+        context.runScript(new InputSource(new StringReader("<j:jelly xmlns:j='jelly:core'/>")),
+            XMLOutput.createDummyXMLOutput());
+        assertEquals(1, first.getRunCount());
+        assertEquals(1, metrics.getRunCount());
+    }
+
+    public void testScriptRunsArePublished() throws Exception {
+        final File file = File.createTempFile("metrics", ".jelly");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write("<j:jelly xmlns:j='jelly:core'>text</j:jelly>");
+        }
+        final DefaultScriptCache cache = new DefaultScriptCache();
+        final JellyContext context = new JellyContext();
+        context.setScriptCache(cache);
+        final JellyMetrics metrics = new JellyMetrics(cache);
+        context.addScriptListener(metrics);
+
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName("Jelly:type=Metrics");
+        server.registerMBean(metrics, name);
+
+        context.runScript(file, XMLOutput.createDummyXMLOutput());
+        context.runScript(file, XMLOutput.createDummyXMLOutput());
+
+        final String id = file.toURI().toURL().toString();
+        assertEquals(Long.valueOf(2), server.getAttribute(name, "RunCount"));
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "CompileCount"));
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "ScriptCacheHitCount"));
+        assertEquals(Double.valueOf(0.5), server.getAttribute(name, "ScriptCacheHitRatio"));
+        assertEquals(Integer.valueOf(0), server.getAttribute(name, "ActiveThreadCount"));
+        assertEquals(1, ((String[]) server.getAttribute(name, "ScriptIds")).length);
+        assertEquals(Long.valueOf(2), server.invoke(name, "scriptRunCount",
+            new Object[] { id }, new String[] { String.class.getName() }));
+
+        final long[] histogram = metrics.scriptLatencyHistogram(id);
+        assertEquals(metrics.getLatencyBucketLimitsMillis().length + 1, histogram.length);
+        long runs = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            runs += histogram[i];
+        }
+        assertEquals(2, runs);
+
+        metrics.reset();
+        assertEquals(0, metrics.getRunCount());
+        assertEquals(0, metrics.getScriptIds().length);
+        assertEquals(0, cache.getHitCount());
+    }
+}